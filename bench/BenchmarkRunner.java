@@ -0,0 +1,125 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.regex.Pattern;
+
+/* Minimal benchmark harness used by BenchmarkSuite
+*  Each benchmark runs a number of warmup iterations followed by measured iterations of a fixed
+*  number of operations, reporting the mean time per operation with its error, the bytes
+*  allocated per operation by the benchmark thread, and the collections that happened meanwhile */
+public class BenchmarkRunner {
+	private static final int WARMUP_ITERATIONS = 3;
+	private static final int MEASURED_ITERATIONS = 5;
+
+	// A single benchmarked operation, given a running operation index
+	public interface Operation {
+		Object run(int i);
+	}
+
+	private final Pattern include;
+	private final com.sun.management.ThreadMXBean threads;
+
+	// Results are folded in here so the JIT cannot discard the benchmarked work
+	private long sink;
+
+	public BenchmarkRunner(String includeRegex){
+		include = Pattern.compile(includeRegex);
+		threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		System.out.printf("%-66s %12s %10s %10s %8s %9s%n", "Benchmark", "ns/op", "error", "B/op", "gc.count", "gc.ms");
+	}
+
+	// Returns whether a benchmark with the given name was selected on the command line
+	public boolean includes(String name){
+		return include.matcher(name).find();
+	}
+
+	// Runs a benchmark, calling setup (untimed) before every iteration
+	public void run(String name, int opsPerIteration, Runnable setup, Operation operation){
+		if (!includes(name)){
+			return;
+		}
+
+		for (int iteration = 0; iteration < WARMUP_ITERATIONS; iteration++){
+			if (setup != null){
+				setup.run();
+			}
+			iterate(opsPerIteration, operation);
+		}
+
+		double[] nanosPerOp = new double[MEASURED_ITERATIONS];
+		long allocated = 0;
+		long gcCount = 0;
+		long gcMillis = 0;
+		long threadId = Thread.currentThread().getId();
+
+		for (int iteration = 0; iteration < MEASURED_ITERATIONS; iteration++){
+			if (setup != null){
+				setup.run();
+			}
+
+			long gcCountBefore = gcCount();
+			long gcMillisBefore = gcMillis();
+			long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+			long start = System.nanoTime();
+			iterate(opsPerIteration, operation);
+			long elapsed = System.nanoTime() - start;
+			allocated += threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+			gcCount += gcCount() - gcCountBefore;
+			gcMillis += gcMillis() - gcMillisBefore;
+			nanosPerOp[iteration] = elapsed / (double) opsPerIteration;
+		}
+
+		double mean = 0;
+		for (double value : nanosPerOp){
+			mean += value;
+		}
+		mean /= MEASURED_ITERATIONS;
+
+		double variance = 0;
+		for (double value : nanosPerOp){
+			variance += (value - mean) * (value - mean);
+		}
+		// Half-width of a ~99.9% confidence interval, comparable to the error JMH reports
+		double error = 3.29 * Math.sqrt(variance / (MEASURED_ITERATIONS - 1)) / Math.sqrt(MEASURED_ITERATIONS);
+
+		System.out.printf("%-66s %12.1f %10.1f %10.1f %8d %9d%n", name, mean, error,
+				allocated / (double) (opsPerIteration * (long) MEASURED_ITERATIONS), gcCount, gcMillis);
+	}
+
+	public void run(String name, int opsPerIteration, Operation operation){
+		run(name, opsPerIteration, null, operation);
+	}
+
+	private void iterate(int ops, Operation operation){
+		long consumed = 0;
+
+		for (int i = 0; i < ops; i++){
+			Object result = operation.run(i);
+			if (result != null){
+				consumed++;
+			}
+		}
+
+		sink += consumed;
+	}
+
+	// Returns the number of results that were not null, so the sink is observably used
+	public long sink(){
+		return sink;
+	}
+
+	private static long gcCount(){
+		long count = 0;
+		for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()){
+			count += Math.max(0, bean.getCollectionCount());
+		}
+		return count;
+	}
+
+	private static long gcMillis(){
+		long millis = 0;
+		for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()){
+			millis += Math.max(0, bean.getCollectionTime());
+		}
+		return millis;
+	}
+}
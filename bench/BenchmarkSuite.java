@@ -0,0 +1,300 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/* Benchmarks SkipList, DoubleHashMap and the SkipListPasswordManager API against java.util baselines
+*  Run with: javac -d out src/*.java bench/*.java && java -Xmx3g -cp out BenchmarkSuite [regex] [keys] [users]
+*  regex selects benchmarks by name (default: all), keys sizes the map benchmarks (default 100000)
+*  and users sizes the password manager benchmarks (default 20000) */
+public class BenchmarkSuite {
+
+	public static void main(String[] args){
+		String include = args.length > 0 ? args[0] : ".*";
+		int keyCount = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+		int userCount = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+
+		BenchmarkRunner runner = new BenchmarkRunner(include);
+		storeBenchmarks(runner, keyCount);
+		doubleHashMapBenchmarks(runner);
+		managerBenchmarks(runner, userCount);
+		hashBenchmarks(runner);
+		System.out.println("(" + runner.sink() + " results consumed)");
+	}
+
+	// SkipList get/put/remove/keys against TreeMap, ConcurrentSkipListMap and HashMap
+	private static void storeBenchmarks(BenchmarkRunner runner, int n){
+		final List<String> names = SkipListBenchmark.usernames(n, 42);
+		final User value = new User("value");
+		KeyDistribution[] distributions = {KeyDistribution.uniform(n, 7), KeyDistribution.zipfian(n, 7)};
+
+		final SkipList<String, User> skipList = new SkipList<String, User>();
+		for (String name : names){
+			skipList.put(name, value);
+		}
+
+		for (final KeyDistribution dist : distributions){
+			runner.run("SkipList.get." + dist.name(), n, i -> skipList.get(names.get(dist.index(i))));
+			runner.run("SkipList.put." + dist.name(), n, i -> skipList.put(names.get(dist.index(i)), value));
+		}
+		runner.run("SkipList.removePut.uniform", n, i -> {
+			String name = names.get(distributions[0].index(i));
+			skipList.remove(name);
+			return skipList.put(name, value);
+		});
+		runner.run("SkipList.keys", 20, i -> skipList.keys());
+
+		// Touch every entry: through the lazy stream, in parallel, and by copying the keys and looking each one up
+		runner.run("SkipList.stream.sequential", 20, i -> skipList.stream().filter(e -> e.getValue() != null).count());
+		runner.run("SkipList.stream.parallel", 20, i -> skipList.parallelStream().filter(e -> e.getValue() != null).count());
+		runner.run("SkipList.keysThenGet", 20, i -> {
+			long count = 0;
+			for (String name : skipList.keys()){
+				if (skipList.get(name) != null){
+					count++;
+				}
+			}
+			return count;
+		});
+		final ConcurrentSkipList<String, User> concurrentList = new ConcurrentSkipList<String, User>();
+		for (String name : names){
+			concurrentList.put(name, value);
+		}
+		runner.run("ConcurrentSkipList.stream.sequential", 20, i -> concurrentList.stream().filter(e -> e.getValue() != null).count());
+		runner.run("ConcurrentSkipList.stream.parallel", 20, i -> concurrentList.parallelStream().filter(e -> e.getValue() != null).count());
+
+		// Sorted batches of 1000 keys, spread over the whole list or consecutive, as one getAll or 1000 gets
+		final List<List<String>> batches = new ArrayList<List<String>>();
+		List<String> sortedNames = new ArrayList<String>(names);
+		Collections.sort(sortedNames);
+		batches.add(new ArrayList<String>(sortedNames.subList(0, Math.min(1000, n))));
+		List<String> spread = new ArrayList<String>();
+		for (int i = 0; i < n; i += Math.max(1, n / 1000)){
+			spread.add(sortedNames.get(i));
+		}
+		batches.add(spread);
+		String[] batchNames = {"consecutive", "spread"};
+
+		for (int b = 0; b < batches.size(); b++){
+			final List<String> batch = batches.get(b);
+			runner.run("SkipList.getAll.batch1000." + batchNames[b], 200, i -> skipList.getAll(batch));
+			runner.run("SkipList.get.loop1000." + batchNames[b], 200, i -> {
+				Object last = null;
+				for (String name : batch){
+					last = skipList.get(name);
+				}
+				return last;
+			});
+		}
+
+		List<Map<String, User>> baselines = new ArrayList<Map<String, User>>();
+		baselines.add(new TreeMap<String, User>());
+		baselines.add(new ConcurrentSkipListMap<String, User>());
+		baselines.add(new HashMap<String, User>());
+
+		for (final Map<String, User> map : baselines){
+			String prefix = map.getClass().getSimpleName();
+			for (String name : names){
+				map.put(name, value);
+			}
+
+			for (final KeyDistribution dist : distributions){
+				runner.run(prefix + ".get." + dist.name(), n, i -> map.get(names.get(dist.index(i))));
+				runner.run(prefix + ".put." + dist.name(), n, i -> map.put(names.get(dist.index(i)), value));
+			}
+			runner.run(prefix + ".removePut.uniform", n, i -> {
+				String name = names.get(distributions[0].index(i));
+				map.remove(name);
+				return map.put(name, value);
+			});
+			runner.run(prefix + ".keys", 20, i -> new ArrayList<String>(map.keySet()));
+		}
+	}
+
+	// DoubleHashMap get/put/remove at several load factors, against HashMap at the same sizes
+	private static void doubleHashMapBenchmarks(BenchmarkRunner runner){
+		// Prime capacity with a smaller prime for the secondary hash
+		final int capacity = 8191;
+		final int secondaryModulus = 8179;
+		double[] loadFactors = {0.25, 0.5, 0.75, 0.9};
+
+		for (double loadFactor : loadFactors){
+			final int n = (int) (capacity * loadFactor);
+			final List<String> names = SkipListBenchmark.usernames(n, 11);
+			final List<String> absent = SkipListBenchmark.usernames(n, 12);
+			for (int i = 0; i < n; i++){
+				absent.set(i, "absent" + absent.get(i));
+			}
+			final KeyDistribution dist = KeyDistribution.uniform(n, 13);
+			final Long value = Long.valueOf(5381);
+			String suffix = String.format(".lf%.2f", loadFactor);
+
+			final List<DoubleHashMap<String, Long>> map = new ArrayList<DoubleHashMap<String, Long>>();
+			Runnable fill = () -> {
+				DoubleHashMap<String, Long> fresh = new DoubleHashMap<String, Long>(capacity, 1, capacity, secondaryModulus);
+				for (String name : names){
+					fresh.put(name, value);
+				}
+				map.clear();
+				map.add(fresh);
+			};
+			fill.run();
+
+			runner.run("DoubleHashMap.get" + suffix, n, i -> map.get(0).get(names.get(dist.index(i))));
+			runner.run("DoubleHashMap.getMiss" + suffix, n, i -> map.get(0).get(absent.get(dist.index(i))));
+			runner.run("DoubleHashMap.put" + suffix, n, i -> map.get(0).put(names.get(dist.index(i)), value));
+			runner.run("DoubleHashMap.remove" + suffix, n, fill, i -> map.get(0).remove(names.get(i)));
+
+			final Map<String, Long> baseline = new HashMap<String, Long>();
+			for (String name : names){
+				baseline.put(name, value);
+			}
+			runner.run("HashMap.get" + suffix, n, i -> baseline.get(names.get(dist.index(i))));
+			runner.run("HashMap.getMiss" + suffix, n, i -> baseline.get(absent.get(dist.index(i))));
+			runner.run("HashMap.put" + suffix, n, i -> baseline.put(names.get(dist.index(i)), value));
+		}
+
+		// A user's app password store under constant churn: each op removes one app and adds another
+		// Both maps start with the parameters User uses, size 20, multiplier 1, modulus 23, secondaryModulus 11
+		int[] appCounts = {10, 100, 500};
+
+		for (final int apps : appCounts){
+			final List<String> appNames = new ArrayList<String>();
+			for (int i = 0; i < 2 * apps; i++){
+				appNames.add("app" + i);
+			}
+			final DoubleHashMap<String, Long> boxed = new DoubleHashMap<String, Long>(20, 1, 23, 11);
+			final StringLongHashMap primitive = new StringLongHashMap(20, 1, 23, 11);
+			for (int i = 0; i < apps; i++){
+				boxed.put(appNames.get(i), Long.valueOf(i));
+				primitive.put(appNames.get(i), i);
+			}
+			final Long value = Long.valueOf(5381);
+
+			// Slides a window of apps live names along the 2 * apps names
+			runner.run("DoubleHashMap.churn.apps" + apps, 100000, i -> {
+				boxed.remove(appNames.get(i % (2 * apps)));
+				return boxed.put(appNames.get((i + apps) % (2 * apps)), value);
+			});
+			runner.run("DoubleHashMap.getAfterChurn.apps" + apps, 100000, i -> boxed.get(appNames.get(i % (2 * apps))));
+			runner.run("StringLongHashMap.churn.apps" + apps, 100000, i -> {
+				primitive.remove(appNames.get(i % (2 * apps)));
+				return primitive.put(appNames.get((i + apps) % (2 * apps)), 5381) == StringLongHashMap.NO_VALUE ? null : value;
+			});
+			runner.run("StringLongHashMap.getAfterChurn.apps" + apps, 100000,
+					i -> primitive.get(appNames.get(i % (2 * apps))) == StringLongHashMap.NO_VALUE ? null : value);
+		}
+	}
+
+	// authenticate/addNewUser/resetPassword on the manager, against the same logic over java.util maps
+	private static void managerBenchmarks(BenchmarkRunner runner, int n){
+		final List<String> names = SkipListBenchmark.usernames(n, 42);
+		// Passwords are built up front so that string concatenation does not show up as allocation
+		final List<String> passwords = new ArrayList<String>(n);
+		for (String name : names){
+			passwords.add("pw" + name);
+		}
+		KeyDistribution[] distributions = {KeyDistribution.uniform(n, 7), KeyDistribution.zipfian(n, 7)};
+		final int adds = Math.max(1, n / 10);
+
+		final SkipListPasswordManager manager = new SkipListPasswordManager();
+		for (int i = 0; i < n; i++){
+			manager.addNewUser(names.get(i), passwords.get(i));
+		}
+		// Every user gets three app passwords, the app password is the user password
+		final String[] apps = {"mail", "chat", "drive"};
+		for (int i = 0; i < n; i++){
+			for (String app : apps){
+				manager.newAppPassword(names.get(i), passwords.get(i), passwords.get(i), app);
+			}
+		}
+
+		for (final KeyDistribution dist : distributions){
+			runner.run("SkipListPasswordManager.authenticate." + dist.name(), n, i -> {
+				int user = dist.index(i);
+				return manager.authenticate(names.get(user), passwords.get(user));
+			});
+		}
+		for (final KeyDistribution dist : distributions){
+			runner.run("SkipListPasswordManager.authenticateApp." + dist.name(), n, i -> {
+				int user = dist.index(i);
+				return manager.authenticate(names.get(user), passwords.get(user), apps[i % apps.length]);
+			});
+		}
+		runner.run("SkipListPasswordManager.resetPassword.uniform", n, i -> {
+			int user = distributions[0].index(i);
+			return manager.resetPassword(names.get(user), passwords.get(user), passwords.get(user));
+		});
+		// Usernames are "user" followed by a number, so a four digit prefix matches about ten users
+		runner.run("SkipListPasswordManager.listUsers.prefix", n, i -> manager.listUsers("user" + (1000 + i % 9000), 100));
+		runner.run("SkipListPasswordManager.listUsers", 20, i -> manager.listUsers());
+		// A page of 50 users near the start and near the end of the directory should cost the same
+		runner.run("SkipListPasswordManager.listUsers.page.first", n, i -> manager.listUsers(i % 100, 50));
+		runner.run("SkipListPasswordManager.listUsers.page.last", n, i -> manager.listUsers(n - 150 + i % 100, 50));
+		// Users added by one iteration are deleted (untimed) before the next
+		runner.run("SkipListPasswordManager.addNewUser", adds, () -> {
+			for (int i = 0; i < adds; i++){
+				manager.deleteUser("new" + i, "pw");
+			}
+		}, i -> manager.addNewUser("new" + i, "pw"));
+
+		List<Map<String, User>> baselines = new ArrayList<Map<String, User>>();
+		baselines.add(new TreeMap<String, User>());
+		baselines.add(new ConcurrentSkipListMap<String, User>());
+		baselines.add(new HashMap<String, User>());
+
+		for (Map<String, User> map : baselines){
+			final MapPasswordManager baseline = new MapPasswordManager(map);
+			String prefix = "MapPasswordManager[" + map.getClass().getSimpleName() + "]";
+			for (int i = 0; i < n; i++){
+				baseline.addNewUser(names.get(i), passwords.get(i));
+			}
+
+			for (final KeyDistribution dist : distributions){
+				runner.run(prefix + ".authenticate." + dist.name(), n, i -> {
+					int user = dist.index(i);
+					return baseline.authenticate(names.get(user), passwords.get(user));
+				});
+			}
+			runner.run(prefix + ".resetPassword.uniform", n, i -> {
+				int user = distributions[0].index(i);
+				return baseline.resetPassword(names.get(user), passwords.get(user), passwords.get(user));
+			});
+			runner.run(prefix + ".addNewUser", adds, () -> {
+				for (int i = 0; i < adds; i++){
+					baseline.deleteUser("new" + i, "pw");
+				}
+			}, i -> baseline.addNewUser("new" + i, "pw"));
+		}
+	}
+
+	// passwordHash over every input type it accepts, and the boxed hash it replaces on the authenticate path
+	private static void hashBenchmarks(BenchmarkRunner runner){
+		final SkipListPasswordManager manager = new SkipListPasswordManager();
+		final String password = "correct horse battery st\u00e4ple";
+		final char[] chars = password.toCharArray();
+		final byte[] utf8 = password.getBytes(StandardCharsets.UTF_8);
+		final ByteBuffer heap = ByteBuffer.wrap(utf8);
+		final ByteBuffer direct = ByteBuffer.allocateDirect(utf8.length);
+		direct.put(utf8).flip();
+		// Returned in place of the hash so that results are not boxed
+		final Object hashed = password;
+		final int ops = 1000000;
+
+		manager.addNewUser("user", password);
+
+		runner.run("SkipListPasswordManager.hash.boxed", ops, i -> manager.hash(password));
+		runner.run("SkipListPasswordManager.passwordHash.String", ops, i -> manager.passwordHash(password) == 0 ? null : hashed);
+		runner.run("SkipListPasswordManager.passwordHash.char[]", ops, i -> manager.passwordHash(chars) == 0 ? null : hashed);
+		runner.run("SkipListPasswordManager.passwordHash.utf8byte[]", ops, i -> manager.passwordHash(utf8) == 0 ? null : hashed);
+		runner.run("SkipListPasswordManager.passwordHash.utf8HeapBuffer", ops, i -> manager.passwordHash(heap) == 0 ? null : hashed);
+		runner.run("SkipListPasswordManager.passwordHash.utf8DirectBuffer", ops, i -> manager.passwordHash(direct) == 0 ? null : hashed);
+		runner.run("SkipListPasswordManager.authenticate.char[]", ops, i -> manager.authenticate("user", chars));
+		runner.run("SkipListPasswordManager.authenticate.utf8DirectBuffer", ops, i -> manager.authenticate("user", direct));
+	}
+}
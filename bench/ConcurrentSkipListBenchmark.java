@@ -0,0 +1,65 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Read-heavy throughput for ConcurrentSkipList, whose concurrent behaviour ConcurrentSkipListCheck checks
+*  Run with: java -cp out ConcurrentSkipListBenchmark [maxThreads] */
+public class ConcurrentSkipListBenchmark {
+	public static void main(String[] args) throws InterruptedException{
+		int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Math.max(4, Runtime.getRuntime().availableProcessors());
+
+		System.out.println("threads  ops/s (95% get, 5% put/remove, 1M keys)");
+		ConcurrentSkipList<String, User> list = new ConcurrentSkipList<String, User>();
+		List<String> names = SkipListBenchmark.usernames(1000000, 42);
+
+		for (String name : names){
+			list.put(name, new User(name));
+		}
+
+		for (int threads = 1; threads <= maxThreads; threads *= 2){
+			System.out.printf("%7d  %,d%n", threads, throughput(list, names, threads, 2000));
+		}
+	}
+
+	// Returns operations per second over the given duration
+	private static long throughput(final ConcurrentSkipList<String, User> list, final List<String> names, int threads, final long millis) throws InterruptedException{
+		final AtomicLong operations = new AtomicLong();
+		final long deadline = System.currentTimeMillis() + millis;
+		List<Thread> workers = new ArrayList<Thread>();
+
+		for (int t = 0; t < threads; t++){
+			final int id = t;
+			workers.add(new Thread(new Runnable(){
+				public void run(){
+					Random random = new Random(id);
+					long count = 0;
+
+					while ((count & 1023) != 0 || System.currentTimeMillis() < deadline){
+						String name = names.get(random.nextInt(names.size()));
+						int op = random.nextInt(100);
+
+						if (op < 95){
+							list.get(name);
+						} else if (op < 98){
+							list.put(name, new User(name));
+						} else{
+							list.remove(name);
+						}
+						count++;
+					}
+					operations.addAndGet(count);
+				}
+			}));
+		}
+
+		for (Thread worker : workers){
+			worker.start();
+		}
+		for (Thread worker : workers){
+			worker.join();
+		}
+
+		return operations.get() * 1000 / millis;
+	}
+}
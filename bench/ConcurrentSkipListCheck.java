@@ -0,0 +1,204 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+
+/* Checks that concurrent puts, removes and gets on a ConcurrentSkipList give results some linearizable history explains
+*  Run with: java -cp out ConcurrentSkipListCheck [maxThreads] [rounds]
+*  Throws, exiting with a non-zero status, at the first round that breaks one of these properties:
+*  - keys private to one thread behave exactly like a sequential map, whatever other threads do
+*  - on shared keys, every value returned by get, put or remove is one that was put to that key
+*  - each value put to a shared key leaves the map at most once, returned by the put that replaced it or the
+*    remove that removed it, and exactly once unless it is the value left at the end. Together these mean every
+*    put and remove returns the value of the most recent successful put to its key
+*  - the final contents and size agree with the values put and those that left */
+public class ConcurrentSkipListCheck {
+	private static final int SHARED_KEYS = 64;
+	// Bits of a value holding the key it was put to, below the thread and operation that put it
+	private static final int KEY_BITS = 6;
+	private static final int OPS_PER_THREAD = 200000;
+
+	public static void main(String[] args) throws InterruptedException{
+		int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Math.max(4, Runtime.getRuntime().availableProcessors());
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+		for (int round = 0; round < rounds; round++){
+			for (int threads = 2; threads <= maxThreads; threads *= 2){
+				check(threads, round);
+			}
+		}
+		System.out.println("ok");
+	}
+
+	// What one thread did to and saw of the shared keys
+	private static class History {
+		final List<Long> put = new ArrayList<Long>();
+		// Values returned by put and remove, which have left the map
+		final List<Long> left = new ArrayList<Long>();
+		final List<Long> got = new ArrayList<Long>();
+		final List<Integer> gotKeys = new ArrayList<Integer>();
+	}
+
+	// Runs a mix of put/remove/get from several threads and checks the results against the properties above
+	private static void check(final int threads, final int round) throws InterruptedException{
+		final ConcurrentSkipList<Integer, Long> list = new ConcurrentSkipList<Integer, Long>();
+		final List<History> histories = new ArrayList<History>();
+		final List<String> failures = new ArrayList<String>();
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Thread> workers = new ArrayList<Thread>();
+
+		for (int t = 0; t < threads; t++){
+			final int id = t;
+			final History history = new History();
+			histories.add(history);
+
+			workers.add(new Thread(new Runnable(){
+				public void run(){
+					Random random = new Random(round * 1000 + id);
+					TreeMap<Integer, Long> expected = new TreeMap<Integer, Long>();
+					// Private keys live above the shared range and are spread across it by thread id
+					int privateBase = SHARED_KEYS + id;
+
+					try {
+						start.await();
+					} catch (InterruptedException e){
+						return;
+					}
+
+					for (int i = 0; i < OPS_PER_THREAD; i++){
+						int op = random.nextInt(3);
+
+						if (random.nextBoolean()){
+							int key = random.nextInt(SHARED_KEYS);
+							// Values are unique across all threads so a value identifies its put, and hold their key
+							long value = ((long) id << 32) | ((long) i << KEY_BITS) | key;
+
+							if (op == 0){
+								history.put.add(value);
+								Long old = list.put(key, value);
+
+								if (old != null){
+									history.left.add(old);
+								}
+							} else if (op == 1){
+								Long old = list.remove(key);
+
+								if (old != null){
+									history.left.add(old);
+								}
+							} else{
+								Long found = list.get(key);
+
+								if (found != null){
+									history.got.add(found);
+									history.gotKeys.add(key);
+								}
+							}
+						} else{
+							int key = privateBase + threads * random.nextInt(1000);
+							long value = ((long) id << 32) | i;
+							Long actual;
+							Long wanted;
+
+							if (op == 0){
+								actual = list.put(key, value);
+								wanted = expected.put(key, value);
+							} else if (op == 1){
+								actual = list.remove(key);
+								wanted = expected.remove(key);
+							} else{
+								actual = list.get(key);
+								wanted = expected.get(key);
+							}
+
+							if (actual == null ? wanted != null : !actual.equals(wanted)){
+								synchronized (failures){
+									failures.add("private key " + key + " gave " + actual + ", expected " + wanted);
+								}
+								return;
+							}
+						}
+					}
+				}
+			}));
+		}
+
+		for (Thread worker : workers){
+			worker.start();
+		}
+		start.countDown();
+		for (Thread worker : workers){
+			worker.join();
+		}
+
+		Set<Long> put = new HashSet<Long>();
+		Set<Long> left = new HashSet<Long>();
+
+		for (History history : histories){
+			put.addAll(history.put);
+		}
+		for (History history : histories){
+			for (Long value : history.left){
+				if (!put.contains(value)){
+					failures.add("returned " + value + ", which was never put");
+				} else if (!left.add(value)){
+					failures.add("returned " + value + " twice");
+				}
+			}
+			for (int i = 0; i < history.got.size(); i++){
+				long value = history.got.get(i);
+
+				if (!put.contains(value) || (value & ((1 << KEY_BITS) - 1)) != history.gotKeys.get(i)){
+					failures.add("get of " + history.gotKeys.get(i) + " returned " + value + ", which was not put to it");
+				}
+			}
+		}
+
+		// Every value put has left the map, except the one each shared key is left holding
+		long present = 0;
+
+		for (int key = 0; key < SHARED_KEYS; key++){
+			Long value = list.get(key);
+
+			if (value != null){
+				present++;
+
+				if (!put.contains(value) || left.contains(value) || (value & ((1 << KEY_BITS) - 1)) != key){
+					failures.add("key " + key + " is left holding " + value);
+				}
+			}
+		}
+		if (put.size() != left.size() + present){
+			failures.add(put.size() + " values put to shared keys, but " + left.size() + " left and " + present + " remain");
+		}
+
+		int privateKeys = 0;
+		for (Integer key : list.keys()){
+			if (key >= SHARED_KEYS){
+				privateKeys++;
+			}
+		}
+		if (list.size() != present + privateKeys || list.keys().size() != list.size()){
+			failures.add("size " + list.size() + " for " + list.keys().size() + " keys, " + (present + privateKeys) + " expected");
+		}
+
+		System.out.printf("%d threads, round %d: %s (%,d shared puts, %,d gets of shared keys)%n", threads, round,
+				failures.isEmpty() ? "ok" : failures.size() + " failures", put.size(), countGets(histories));
+
+		if (!failures.isEmpty()){
+			throw new IllegalStateException(failures.get(0));
+		}
+	}
+
+	private static long countGets(List<History> histories){
+		long gets = 0;
+
+		for (History history : histories){
+			gets += history.got.size();
+		}
+		return gets;
+	}
+}
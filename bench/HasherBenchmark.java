@@ -0,0 +1,143 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/* Throughput and latency of authenticate with djb2 and with PBKDF2 at increasing iteration counts
+*  sync calls authenticate on the request thread; async submits authenticateAsync from the request thread,
+*  keeping at most the executor's queue capacity in flight, and times each call from submission to completion
+*  caller p99 is how long the request thread itself spends per call, which stays small however slow the hasher
+*  Run with: java -cp out HasherBenchmark [users] [millis] [iterations...] */
+public class HasherBenchmark {
+
+	public static void main(String[] args) throws Exception{
+		int users = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+		long millis = args.length > 1 ? Long.parseLong(args[1]) : 2000;
+		int[] iterations = {1000, 10000, 100000};
+
+		if (args.length > 2){
+			iterations = new int[args.length - 2];
+			for (int i = 2; i < args.length; i++){
+				iterations[i - 2] = Integer.parseInt(args[i]);
+			}
+		}
+
+		List<String> names = SkipListBenchmark.usernames(users, 42);
+
+		System.out.printf("%d cores, %d users, %d ms per run%n", Runtime.getRuntime().availableProcessors(), users, millis);
+		System.out.printf("%-22s %-6s %11s %11s %11s %14s %10s%n", "hasher", "mode", "ops/s", "p50 us", "p99 us", "caller p99 us", "max queue");
+
+		// Unprinted runs warm up the JIT, both for the manager and for the key derivation
+		run(Djb2Hasher.INSTANCE, names, millis / 4, false);
+		run(new Pbkdf2Hasher(100), names, millis / 2, false);
+		run(Djb2Hasher.INSTANCE, names, millis, true);
+		for (int count : iterations){
+			run(new Pbkdf2Hasher(count), names, millis, true);
+		}
+	}
+
+	private static void run(PasswordHasher hasher, List<String> names, long millis, boolean print) throws Exception{
+		SkipListPasswordManager manager = new SkipListPasswordManager(true);
+		manager.setHasher(hasher);
+		for (String name : names){
+			manager.addNewUser(name, "pw" + name);
+		}
+
+		Latencies sync = new Latencies();
+		long deadline = System.nanoTime() + millis * 1000000;
+		long start = System.nanoTime();
+		int i = 0;
+
+		while (System.nanoTime() < deadline){
+			String name = names.get(i++ % names.size());
+			long before = System.nanoTime();
+			check(manager.authenticate(name, "pw" + name), name);
+			sync.add(System.nanoTime() - before);
+		}
+		if (print){
+			print(hasher, "sync", sync.count() * 1e9 / (System.nanoTime() - start), sync, sync, 0);
+		}
+
+		HashExecutor executor = manager.hashExecutor();
+		Semaphore inFlight = new Semaphore(executor.queueCapacity());
+		Latencies async = new Latencies();
+		Latencies caller = new Latencies();
+		AtomicInteger completed = new AtomicInteger();
+		int maxQueue = 0;
+		deadline = System.nanoTime() + millis * 1000000;
+		start = System.nanoTime();
+
+		while (System.nanoTime() < deadline){
+			final String name = names.get(i++ % names.size());
+			final long before = System.nanoTime();
+
+			inFlight.acquire();
+			CompletableFuture<String> result = manager.authenticateAsync(name, "pw" + name);
+			caller.add(System.nanoTime() - before);
+			result.whenComplete((message, failure) -> {
+				async.add(System.nanoTime() - before);
+				completed.incrementAndGet();
+				inFlight.release();
+				if (failure != null){
+					failure.printStackTrace();
+				} else{
+					check(message, name);
+				}
+			});
+			maxQueue = Math.max(maxQueue, executor.queueDepth());
+		}
+
+		long elapsed = System.nanoTime() - start;
+		int done = completed.get();
+		// Let the queue drain before the next run
+		inFlight.acquire(executor.queueCapacity());
+		if (print){
+			print(hasher, "async", done * 1e9 / elapsed, async, caller, maxQueue);
+		}
+		executor.shutdown();
+	}
+
+	private static void print(PasswordHasher hasher, String mode, double opsPerSecond, Latencies latency, Latencies caller, int maxQueue){
+		System.out.printf("%-22s %-6s %,11.0f %,11.1f %,11.1f %,14.1f %,10d%n", hasher.algorithm(), mode, opsPerSecond,
+				latency.percentile(0.5) / 1e3, latency.percentile(0.99) / 1e3, caller.percentile(0.99) / 1e3, maxQueue);
+	}
+
+	private static void check(String result, String expected){
+		if (!result.equals(expected)){
+			throw new IllegalStateException(expected + ": " + result);
+		}
+	}
+
+	// Latencies in nanoseconds, recorded from any thread, keeping the first MAX of them
+	private static class Latencies {
+		private static final int MAX = 1 << 21;
+
+		private final long[] values = new long[MAX];
+		private final AtomicInteger count = new AtomicInteger();
+
+		void add(long nanos){
+			int index = count.getAndIncrement();
+
+			if (index < MAX){
+				values[index] = nanos;
+			}
+		}
+
+		int count(){
+			return count.get();
+		}
+
+		long percentile(double fraction){
+			int n = Math.min(count.get(), MAX);
+
+			if (n == 0){
+				return 0;
+			}
+
+			long[] sorted = Arrays.copyOf(values, n);
+			Arrays.sort(sorted);
+			return sorted[Math.min(n - 1, (int) (fraction * n))];
+		}
+	}
+}
@@ -0,0 +1,89 @@
+import java.util.Random;
+
+/* Precomputed sequence of key indices drawn from a uniform or Zipfian distribution
+*  The sequence is generated up front so that drawing a key costs one array read during measurement */
+public class KeyDistribution {
+	// Length of the precomputed sequence, a power of two
+	private static final int SEQUENCE_LENGTH = 1 << 20;
+	// Skew used by YCSB and most key-value store benchmarks
+	private static final double ZIPF_THETA = 0.99;
+
+	private final String name;
+	private final int[] sequence;
+
+	private KeyDistribution(String name, int[] sequence){
+		this.name = name;
+		this.sequence = sequence;
+	}
+
+	public String name(){
+		return name;
+	}
+
+	// Returns the key index for the i-th operation
+	public int index(int i){
+		return sequence[i & (SEQUENCE_LENGTH - 1)];
+	}
+
+	// Every index in 0 to n - 1 is equally likely
+	public static KeyDistribution uniform(int n, long seed){
+		Random random = new Random(seed);
+		int[] sequence = new int[SEQUENCE_LENGTH];
+
+		for (int i = 0; i < SEQUENCE_LENGTH; i++){
+			sequence[i] = random.nextInt(n);
+		}
+
+		return new KeyDistribution("uniform", sequence);
+	}
+
+	/* Index of rank r is drawn with probability proportional to 1 / r^theta
+	*  Uses the rejection-free method of Gray et al., "Quickly Generating Billion-Record Synthetic Databases"
+	*  Ranks are scattered over the index range so the hot keys are not neighbours in key order */
+	public static KeyDistribution zipfian(int n, long seed){
+		Random random = new Random(seed);
+		double zetaN = zeta(n, ZIPF_THETA);
+		double zeta2 = zeta(2, ZIPF_THETA);
+		double alpha = 1.0 / (1.0 - ZIPF_THETA);
+		double eta = (1 - Math.pow(2.0 / n, 1 - ZIPF_THETA)) / (1 - zeta2 / zetaN);
+
+		int[] rankToIndex = new int[n];
+		for (int i = 0; i < n; i++){
+			rankToIndex[i] = i;
+		}
+		for (int i = n - 1; i > 0; i--){
+			int j = random.nextInt(i + 1);
+			int swap = rankToIndex[i];
+			rankToIndex[i] = rankToIndex[j];
+			rankToIndex[j] = swap;
+		}
+
+		int[] sequence = new int[SEQUENCE_LENGTH];
+
+		for (int i = 0; i < SEQUENCE_LENGTH; i++){
+			double u = random.nextDouble();
+			double uz = u * zetaN;
+			int rank;
+
+			if (uz < 1.0){
+				rank = 0;
+			} else if (uz < 1.0 + Math.pow(0.5, ZIPF_THETA)){
+				rank = 1;
+			} else{
+				rank = (int) (n * Math.pow(eta * u - eta + 1, alpha));
+			}
+
+			sequence[i] = rankToIndex[Math.min(rank, n - 1)];
+		}
+
+		return new KeyDistribution("zipfian", sequence);
+	}
+
+	private static double zeta(long n, double theta){
+		double sum = 0;
+		for (long i = 1; i <= n; i++){
+			sum += 1 / Math.pow(i, theta);
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,101 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Write throughput of the thread-safe manager with no log and with a WriteAheadLog under each sync policy,
+*  for 1 to maxThreads threads each adding users and resetting their passwords
+*  records/sync is how many changes each fsync made durable on average, which group commit raises with the thread count
+*  The log is written to a temporary file in dir, which should be on the disk being measured, and deleted afterwards
+*  Run with: java -cp out LogBenchmark [dir] [millis] [maxThreads] */
+public class LogBenchmark {
+
+	public static void main(String[] args) throws Exception{
+		Path dir = Paths.get(args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir"));
+		long millis = args.length > 1 ? Long.parseLong(args[1]) : 2000;
+		int cores = Runtime.getRuntime().availableProcessors();
+		int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : Math.max(8, cores);
+		WriteAheadLog.SyncPolicy[] policies = {null, WriteAheadLog.SyncPolicy.everyWrite(),
+				WriteAheadLog.SyncPolicy.batched(64), WriteAheadLog.SyncPolicy.interval(10)};
+
+		// Warm up the JIT on the manager and the log before taking any measurements
+		run(dir, WriteAheadLog.SyncPolicy.batched(64), 2, millis / 2);
+
+		System.out.printf("%d cores, %d ms per run, ops/s (records/sync) by thread count%n%-14s", cores, millis, "policy");
+		for (int threads = 1; threads <= maxThreads; threads *= 2){
+			System.out.printf(" %20d", threads);
+		}
+		System.out.println();
+
+		for (WriteAheadLog.SyncPolicy policy : policies){
+			System.out.printf("%-14s", policy == null ? "no log" : policy);
+			for (int threads = 1; threads <= maxThreads; threads *= 2){
+				System.out.printf(" %20s", run(dir, policy, threads, millis));
+			}
+			System.out.println();
+		}
+	}
+
+	// Returns operations per second, followed by the records each sync covered when there is a log
+	private static String run(Path dir, WriteAheadLog.SyncPolicy policy, int threads, final long millis) throws IOException, InterruptedException{
+		final SkipListPasswordManager manager = new SkipListPasswordManager(true);
+		Path file = Files.createTempFile(dir, "password-log", ".wal");
+		WriteAheadLog log = null;
+
+		try {
+			if (policy != null){
+				// The new file is empty, so the log writes its header rather than replaying anything
+				log = new WriteAheadLog(file, policy);
+				manager.attachLog(log);
+			}
+
+			final AtomicLong operations = new AtomicLong();
+			final long deadline = System.currentTimeMillis() + millis;
+			List<Thread> workers = new ArrayList<Thread>();
+
+			for (int t = 0; t < threads; t++){
+				final int id = t;
+				workers.add(new Thread(new Runnable(){
+					public void run(){
+						long count = 0;
+
+						for (int n = 0; (count & 63) != 0 || System.currentTimeMillis() < deadline; n++){
+							String name = "t" + id + "-" + n;
+							check(manager.addNewUser(name, "pw"), name);
+							check(manager.resetPassword(name, "pw", "new"), name);
+							count += 2;
+						}
+						operations.addAndGet(count);
+					}
+				}));
+			}
+
+			for (Thread worker : workers){
+				worker.start();
+			}
+			for (Thread worker : workers){
+				worker.join();
+			}
+
+			long perSecond = operations.get() * 1000 / millis;
+			if (log == null){
+				return String.format("%,d", perSecond);
+			}
+			return String.format("%,d (%.1f)", perSecond, log.recordCount() / (double) Math.max(1, log.syncCount()));
+		} finally{
+			if (log != null){
+				log.close();
+			}
+			Files.delete(file);
+		}
+	}
+
+	private static void check(String result, String expected){
+		if (!result.equals(expected)){
+			throw new IllegalStateException(expected + ": " + result);
+		}
+	}
+}
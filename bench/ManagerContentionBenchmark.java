@@ -0,0 +1,83 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Compares a single-threaded manager behind one global lock with the thread-safe mode
+*  Workload is 95% authenticate and 5% resetPassword over uniformly chosen users
+*  Run with: java -cp out ManagerContentionBenchmark [users] [maxThreads] */
+public class ManagerContentionBenchmark {
+
+	public static void main(String[] args) throws InterruptedException{
+		int users = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Math.max(8, Runtime.getRuntime().availableProcessors());
+		List<String> names = SkipListBenchmark.usernames(users, 42);
+
+		SkipListPasswordManager global = load(new SkipListPasswordManager(), names);
+		SkipListPasswordManager striped = load(new SkipListPasswordManager(true), names);
+
+		System.out.println("threads  global lock ops/s  striped ops/s");
+		for (int threads = 1; threads <= maxThreads; threads *= 2){
+			long globalOps = run(global, names, threads, 2000, true);
+			long stripedOps = run(striped, names, threads, 2000, false);
+			System.out.printf("%7d  %,18d  %,13d%n", threads, globalOps, stripedOps);
+		}
+	}
+
+	private static SkipListPasswordManager load(SkipListPasswordManager manager, List<String> names){
+		for (String name : names){
+			manager.addNewUser(name, "pw" + name);
+		}
+		return manager;
+	}
+
+	// Returns operations per second, optionally serialising every call on the manager
+	private static long run(final SkipListPasswordManager manager, final List<String> names, int threads, final long millis, final boolean globalLock) throws InterruptedException{
+		final AtomicLong operations = new AtomicLong();
+		final long deadline = System.currentTimeMillis() + millis;
+		List<Thread> workers = new ArrayList<Thread>();
+
+		for (int t = 0; t < threads; t++){
+			final int id = t;
+			workers.add(new Thread(new Runnable(){
+				public void run(){
+					Random random = new Random(id);
+					long count = 0;
+
+					while ((count & 255) != 0 || System.currentTimeMillis() < deadline){
+						String name = names.get(random.nextInt(names.size()));
+						String password = "pw" + name;
+						boolean write = random.nextInt(100) < 5;
+
+						if (globalLock){
+							synchronized (manager){
+								call(manager, name, password, write);
+							}
+						} else{
+							call(manager, name, password, write);
+						}
+						count++;
+					}
+					operations.addAndGet(count);
+				}
+			}));
+		}
+
+		for (Thread worker : workers){
+			worker.start();
+		}
+		for (Thread worker : workers){
+			worker.join();
+		}
+
+		return operations.get() * 1000 / millis;
+	}
+
+	private static void call(SkipListPasswordManager manager, String name, String password, boolean write){
+		String result = write ? manager.resetPassword(name, password, password) : manager.authenticate(name, password);
+
+		if (!result.equals(name)){
+			throw new IllegalStateException(name + ": " + result);
+		}
+	}
+}
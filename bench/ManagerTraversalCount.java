@@ -0,0 +1,119 @@
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.Predicate;
+
+/* Counts how many times each SkipListPasswordManager operation searches the skip-list holding its users
+*  Run with: java -cp out ManagerTraversalCount */
+public class ManagerTraversalCount {
+
+	public static void main(String[] args){
+		CountingStore<String, User> store = new CountingStore<String, User>(new SkipList<String, User>());
+		SkipListPasswordManager manager = new SkipListPasswordManager(store, false);
+
+		for (int i = 0; i < 1000; i++){
+			manager.addNewUser("user" + i, "pw" + i);
+		}
+		manager.newAppPassword("user1", "pw1", "app", "mail");
+
+		System.out.printf("%-38s %11s%n", "operation", "traversals");
+		report(store, "addNewUser", () -> manager.addNewUser("new", "pw"));
+		report(store, "addNewUser (existing)", () -> manager.addNewUser("user2", "pw"));
+		report(store, "authenticate", () -> manager.authenticate("user2", "pw2"));
+		report(store, "authenticate (app)", () -> manager.authenticate("user1", "app", "mail"));
+		report(store, "resetPassword", () -> manager.resetPassword("user2", "pw2", "pw2"));
+		report(store, "resetPassword (app)", () -> manager.resetPassword("user1", "app", "app", "mail"));
+		report(store, "resetPassword (wrong password)", () -> manager.resetPassword("user2", "bad", "pw2"));
+		report(store, "newAppPassword", () -> manager.newAppPassword("user3", "pw3", "app", "mail"));
+		report(store, "deleteUser", () -> manager.deleteUser("new", "pw"));
+		report(store, "deleteUser (wrong password)", () -> manager.deleteUser("user2", "bad"));
+		report(store, "deleteUser (no such user)", () -> manager.deleteUser("nobody", "pw"));
+	}
+
+	private static void report(CountingStore<String, User> store, String operation, Runnable call){
+		store.traversals = 0;
+		call.run();
+		System.out.printf("%-38s %11d%n", operation, store.traversals);
+	}
+
+	// Passes every call on to another store, counting the calls that search it for a key
+	static class CountingStore<K extends Comparable<K>, V> implements OrderedStore<K, V>{
+		private final OrderedStore<K, V> store;
+		int traversals;
+
+		CountingStore(OrderedStore<K, V> store){
+			this.store = store;
+		}
+
+		public int size(){
+			return store.size();
+		}
+
+		public boolean isEmpty(){
+			return store.isEmpty();
+		}
+
+		public List<K> keys(){
+			return store.keys();
+		}
+
+		public Iterator<K> keys(K from, boolean fromInclusive, K to, boolean toInclusive){
+			traversals++;
+			return store.keys(from, fromInclusive, to, toInclusive);
+		}
+
+		public List<K> range(int offset, int limit){
+			traversals++;
+			return store.range(offset, limit);
+		}
+
+		public boolean containsKey(K key){
+			traversals++;
+			return store.containsKey(key);
+		}
+
+		public V get(K key){
+			traversals++;
+			return store.get(key);
+		}
+
+		public List<V> getAll(List<K> sortedKeys){
+			traversals++;
+			return store.getAll(sortedKeys);
+		}
+
+		public boolean containsAll(List<K> sortedKeys){
+			traversals++;
+			return store.containsAll(sortedKeys);
+		}
+
+		public V put(K key, V value){
+			traversals++;
+			return store.put(key, value);
+		}
+
+		public V putIfAbsent(K key, V value){
+			traversals++;
+			return store.putIfAbsent(key, value);
+		}
+
+		public V remove(K key){
+			traversals++;
+			return store.remove(key);
+		}
+
+		public V remove(K key, Predicate<? super V> condition){
+			traversals++;
+			return store.remove(key, condition);
+		}
+
+		public Iterator<Map.Entry<K, V>> iterator(){
+			return store.iterator();
+		}
+
+		public Spliterator<Map.Entry<K, V>> spliterator(){
+			return store.spliterator();
+		}
+	}
+}
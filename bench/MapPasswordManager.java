@@ -0,0 +1,52 @@
+import java.util.Map;
+
+// Baseline password manager over a java.util map, implementing the same checks as SkipListPasswordManager
+public class MapPasswordManager {
+	private final Map<String, User> usrStore;
+	private final SkipListPasswordManager hasher = new SkipListPasswordManager();
+
+	public MapPasswordManager(Map<String, User> usrStore){
+		this.usrStore = usrStore;
+	}
+
+	public String addNewUser(String username, String password){
+		if (usrStore.containsKey(username)){
+			return "User already exists.";
+		}
+
+		User usr = new User(username);
+		usr.setUserPassword(hasher.hash(password));
+		usrStore.put(username, usr);
+		return username;
+	}
+
+	public String deleteUser(String username, String password){
+		String auth = authenticate(username, password);
+
+		if (auth.equals(username)){
+			usrStore.remove(username);
+		}
+		return auth;
+	}
+
+	public String authenticate(String username, String password){
+		User usr = usrStore.get(username);
+
+		if (usr == null){
+			return "No such user exists.";
+		}
+		if (!hasher.hash(password).equals(usr.getUserPassword())){
+			return "Failed to authenticate user.";
+		}
+		return username;
+	}
+
+	public String resetPassword(String username, String oldPassword, String newPassword){
+		String auth = authenticate(username, oldPassword);
+
+		if (auth.equals(username)){
+			usrStore.get(username).setUserPassword(hasher.hash(newPassword));
+		}
+		return auth;
+	}
+}
@@ -0,0 +1,137 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+/* Heap and collector cost of holding users on the heap against holding them in an OffHeapStore
+*  Loads users with the long-tailed app counts of UserFootprint into a default or an off-heap manager, then
+*  reports the heap still in use, the slab memory outside it, how long a full collection takes, and the
+*  collector pauses during a mix of logins, password resets and new app passwords against random users
+*  Run each store in a JVM of its own, with the same heap, so that neither inherits the other's garbage
+*  A small young generation makes collections during the workload frequent enough to compare
+*  Run with: java -Xms3g -Xmx3g -Xmn256m -XX:MaxDirectMemorySize=3g -cp out OffHeapBenchmark [users] [heap|offheap] [operations] */
+public class OffHeapBenchmark {
+
+	public static void main(String[] args){
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		boolean offHeap = args.length > 1 && args[1].equals("offheap");
+		int operations = args.length > 2 ? Integer.parseInt(args[2]) : 2000000;
+		OffHeapStore store = offHeap ? new OffHeapStore() : null;
+		long baseline = SkipListFootprint.usedHeap();
+
+		SkipListPasswordManager manager = offHeap ? new SkipListPasswordManager(store, false) : new SkipListPasswordManager();
+		long start = System.nanoTime();
+		manager.addNewUsers(new GeneratedUsers(n));
+		double loadSeconds = (System.nanoTime() - start) / 1e9;
+		long heap = SkipListFootprint.usedHeap() - baseline;
+
+		start = System.nanoTime();
+		System.gc();
+		double fullGcMillis = (System.nanoTime() - start) / 1e6;
+
+		System.out.printf("%s, %,d users loaded in %.2f s%n", offHeap ? "off-heap" : "heap", manager.numberUsers(), loadSeconds);
+		System.out.printf("heap in use   %,d bytes (%.1f bytes/user)%n", heap, heap / (double) n);
+		if (offHeap){
+			System.out.printf("off-heap      %,d bytes allocated, %,d live (%.1f bytes/user)%n",
+					store.allocatedBytes(), store.liveBytes(), store.liveBytes() / (double) n);
+		}
+		System.out.printf("full gc       %.1f ms%n", fullGcMillis);
+
+		PauseRecorder pauses = new PauseRecorder();
+		Random random = new Random(42);
+		start = System.nanoTime();
+
+		for (int i = 0; i < operations; i++){
+			int id = random.nextInt(n);
+			String name = GeneratedUsers.username(id);
+			String result;
+
+			switch (random.nextInt(4)){
+				case 0:
+					result = manager.newAppPassword(name, "pw" + id, "apw", "new" + i);
+					break;
+				case 1:
+					// Set the password back to what it was, so later operations still know it
+					manager.resetPassword(name, "pw" + id, "next");
+					result = manager.resetPassword(name, "next", "pw" + id);
+					break;
+				default:
+					result = manager.authenticate(name, "pw" + id);
+			}
+			if (!result.equals(name)){
+				throw new IllegalStateException(name + ": " + result);
+			}
+		}
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("workload      %,d operations in %.2f s (%,.0f ops/s)%n", operations, seconds, operations / seconds);
+		System.out.printf("gc pauses     %d, %d ms in total, %d ms at most%n", pauses.count.get(), pauses.total.get(), pauses.max.get());
+	}
+
+	// Users in ascending username order, made as they are read so that none but those stored are kept
+	private static class GeneratedUsers implements Iterator<User> {
+		private final int n;
+		private final Random random = new Random(42);
+		private int next;
+
+		GeneratedUsers(int n){
+			this.n = n;
+		}
+
+		// Usernames of the same length, so that they sort in the order of their ids
+		static String username(int id){
+			return "user" + (1000000000L + id);
+		}
+
+		public boolean hasNext(){
+			return next < n;
+		}
+
+		public User next(){
+			if (!hasNext()){
+				throw new NoSuchElementException();
+			}
+
+			int id = next++;
+			User usr = new User(username(id));
+			usr.setUserPassword(Djb2Hasher.hash("pw" + id));
+			int apps = UserFootprint.realisticAppCount(random);
+			for (int j = 0; j < apps; j++){
+				usr.setPassword("app" + j, Djb2Hasher.hash("pw" + j));
+			}
+			return usr;
+		}
+	}
+
+	// Counts the pauses of every collector from when it is created, as the collectors report them
+	private static class PauseRecorder implements NotificationListener {
+		final AtomicLong count = new AtomicLong();
+		final AtomicLong total = new AtomicLong();
+		final AtomicLong max = new AtomicLong();
+
+		PauseRecorder(){
+			for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()){
+				((NotificationEmitter) collector).addNotificationListener(this, null, null);
+			}
+		}
+
+		public void handleNotification(Notification notification, Object handback){
+			if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)){
+				return;
+			}
+
+			long millis = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData()).getGcInfo().getDuration();
+			count.incrementAndGet();
+			total.addAndGet(millis);
+			max.accumulateAndGet(millis, Math::max);
+		}
+	}
+}
@@ -0,0 +1,117 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Throughput of the sharded manager for 1 to maxShards shards, against the ConcurrentSkipList mode,
+*  under a write-heavy workload: 40% addNewUser or deleteUser, 40% resetPassword and 20% authenticate
+*  Each thread adds and deletes its own users, so the user count at the end is checked against what they did
+*  Run with: java -cp out ShardedManagerBenchmark [users] [maxThreads] [maxShards] */
+public class ShardedManagerBenchmark {
+	private static final long MILLIS = 2000;
+
+	public static void main(String[] args) throws InterruptedException{
+		int users = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		int cores = Runtime.getRuntime().availableProcessors();
+		int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Math.max(8, cores);
+		int maxShards = args.length > 2 ? Integer.parseInt(args[2]) : Math.max(8, cores);
+		List<String> names = SkipListBenchmark.usernames(users, 42);
+
+		// Warm up the JIT on both stores before taking any measurements
+		run(load(SkipListPasswordManager.sharded(2), names), names, 2);
+		run(load(new SkipListPasswordManager(true), names), names, 2);
+
+		System.out.printf("%d cores, %,d users, ops/s by thread count%n%-18s", cores, users, "store");
+		for (int threads = 1; threads <= maxThreads; threads *= 2){
+			System.out.printf(" %11d", threads);
+		}
+		System.out.println();
+
+		for (int shards = 1; shards <= maxShards; shards *= 2){
+			printRow(shards + " shards", SkipListPasswordManager.sharded(shards), names, maxThreads);
+		}
+		printRow("concurrent", new SkipListPasswordManager(true), names, maxThreads);
+	}
+
+	private static SkipListPasswordManager load(SkipListPasswordManager manager, List<String> names){
+		for (String name : names){
+			manager.addNewUser(name, "pw" + name);
+		}
+		return manager;
+	}
+
+	private static void printRow(String label, SkipListPasswordManager manager, List<String> names, int maxThreads) throws InterruptedException{
+		load(manager, names);
+		System.out.printf("%-18s", label);
+		for (int threads = 1; threads <= maxThreads; threads *= 2){
+			System.out.printf(" %,11d", run(manager, names, threads));
+		}
+		System.out.println();
+	}
+
+	// Returns operations per second
+	private static long run(final SkipListPasswordManager manager, final List<String> names, int threads) throws InterruptedException{
+		final AtomicLong operations = new AtomicLong();
+		final AtomicLong added = new AtomicLong();
+		final long deadline = System.currentTimeMillis() + MILLIS;
+		int usersBefore = manager.numberUsers();
+		List<Thread> workers = new ArrayList<Thread>();
+
+		for (int t = 0; t < threads; t++){
+			final int id = t;
+			workers.add(new Thread(new Runnable(){
+				public void run(){
+					Random random = new Random(id);
+					// This thread's own users are "t<id>-<n>" for n from oldest to newest - 1
+					int oldest = 0;
+					int newest = 0;
+					long count = 0;
+
+					while ((count & 255) != 0 || System.currentTimeMillis() < deadline){
+						int choice = random.nextInt(100);
+
+						if (choice < 40){
+							if (newest - oldest < 64 && (newest == oldest || random.nextBoolean())){
+								check(manager.addNewUser("t" + id + "-" + newest, "pw"), "t" + id + "-" + newest);
+								newest++;
+							} else{
+								check(manager.deleteUser("t" + id + "-" + oldest, "pw"), "t" + id + "-" + oldest);
+								oldest++;
+							}
+						} else{
+							String name = names.get(random.nextInt(names.size()));
+							String password = "pw" + name;
+							check(choice < 80 ? manager.resetPassword(name, password, password) : manager.authenticate(name, password), name);
+						}
+						count++;
+					}
+
+					// Leave the manager as it was for the next run
+					for (; oldest < newest; oldest++){
+						check(manager.deleteUser("t" + id + "-" + oldest, "pw"), "t" + id + "-" + oldest);
+					}
+					operations.addAndGet(count);
+					added.addAndGet(newest - oldest);
+				}
+			}));
+		}
+
+		for (Thread worker : workers){
+			worker.start();
+		}
+		for (Thread worker : workers){
+			worker.join();
+		}
+
+		if (manager.numberUsers() != usersBefore + added.get()){
+			throw new IllegalStateException("Expected " + (usersBefore + added.get()) + " users, found " + manager.numberUsers());
+		}
+		return operations.get() * 1000 / MILLIS;
+	}
+
+	private static void check(String result, String expected){
+		if (!result.equals(expected)){
+			throw new IllegalStateException(expected + ": " + result);
+		}
+	}
+}
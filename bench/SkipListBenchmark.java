@@ -0,0 +1,89 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+// Measures bulk user onboarding into a SkipList, one put at a time and with a sorted bulk load
+// Run with: javac -d out src/*.java bench/*.java && java -cp out SkipListBenchmark [sizes...]
+public class SkipListBenchmark {
+
+	public static void main(String[] args){
+		int[] sizes = {10000, 100000, 1000000};
+
+		if (args.length > 0){
+			sizes = new int[args.length];
+			for (int i = 0; i < args.length; i++){
+				sizes[i] = Integer.parseInt(args[i]);
+			}
+		}
+
+		// Warm up the JIT before taking any measurements
+		insertAll(usernames(20000, 1));
+		loadAll(sortedUsers(20000));
+
+		for (int n : sizes){
+			List<String> names = usernames(n, 42);
+			long start = System.nanoTime();
+			SkipList<String, User> list = insertAll(names);
+			long elapsed = System.nanoTime() - start;
+
+			System.out.printf("put  %,10d users: %,10d ms  (%,d ns/op, height %d)%n",
+					n, elapsed / 1000000, elapsed / n, list.getHeight());
+		}
+
+		for (int n : sizes){
+			List<User> users = sortedUsers(n);
+			long start = System.nanoTime();
+			SkipListPasswordManager manager = loadAll(users);
+			long elapsed = System.nanoTime() - start;
+
+			System.out.printf("bulk %,10d users: %,10d ms  (%,d ns/op, %,d users)%n",
+					n, elapsed / 1000000, elapsed / n, manager.numberUsers());
+		}
+	}
+
+	// Bulk loads the given users into a fresh password manager
+	private static SkipListPasswordManager loadAll(List<User> users){
+		SkipListPasswordManager manager = new SkipListPasswordManager();
+		manager.addNewUsers(users.iterator());
+		return manager;
+	}
+
+	// Returns n users with passwords set, in ascending username order
+	private static List<User> sortedUsers(int n){
+		List<String> names = usernames(n, 42);
+		Collections.sort(names);
+		List<User> users = new ArrayList<User>(n);
+
+		for (String name : names){
+			User usr = new User(name);
+			usr.setUserPassword(name.hashCode());
+			users.add(usr);
+		}
+
+		return users;
+	}
+
+	// Inserts every given username into a fresh skiplist
+	private static SkipList<String, User> insertAll(List<String> names){
+		SkipList<String, User> list = new SkipList<String, User>();
+
+		for (String name : names){
+			list.put(name, new User(name));
+		}
+
+		return list;
+	}
+
+	// Returns n distinct usernames in a random order
+	static List<String> usernames(int n, long seed){
+		List<String> names = new ArrayList<String>(n);
+
+		for (int i = 0; i < n; i++){
+			names.add("user" + i);
+		}
+
+		Collections.shuffle(names, new Random(seed));
+		return names;
+	}
+}
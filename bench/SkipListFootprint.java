@@ -0,0 +1,42 @@
+import java.util.List;
+
+// Measures the retained heap of a SkipList's own structure, excluding keys and values
+// Run with: java -cp out SkipListFootprint [users]
+public class SkipListFootprint {
+
+	public static void main(String[] args){
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+		// Keys and the shared value are created up front so that only nodes are counted
+		List<String> names = SkipListBenchmark.usernames(n, 42);
+		User shared = new User("shared");
+
+		long before = usedHeap();
+		SkipList<String, User> list = new SkipList<String, User>();
+
+		for (String name : names){
+			list.put(name, shared);
+		}
+
+		long after = usedHeap();
+
+		System.out.printf("%,d users: %,d bytes of skiplist structure (%.1f bytes/user, height %d)%n",
+				list.size(), after - before, (after - before) / (double) n, list.getHeight());
+	}
+
+	// Returns the heap in use after encouraging a full collection
+	static long usedHeap(){
+		Runtime runtime = Runtime.getRuntime();
+
+		for (int i = 0; i < 5; i++){
+			System.gc();
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e){
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
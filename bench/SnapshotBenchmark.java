@@ -0,0 +1,89 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/* Cold start time of a manager restored from a snapshot, against replaying a log that added the same users
+*  Users have the long-tailed app counts of UserFootprint. The snapshot is written once, then loaded into
+*  a default, a thread-safe and a sharded manager, each released before the next is loaded
+*  The files are written to dir, which should be on the disk being measured, and deleted afterwards
+*  The heap should be sized up front, as growing it while millions of users are loaded costs full collections
+*  Run with: java -Xms4g -Xmx4g -cp out SnapshotBenchmark [users] [dir] */
+public class SnapshotBenchmark {
+
+	public static void main(String[] args) throws IOException{
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 5000000;
+		Path dir = Paths.get(args.length > 1 ? args[1] : System.getProperty("java.io.tmpdir"));
+		Path snapshot = Files.createTempFile(dir, "users", ".snapshot");
+		Path logFile = Files.createTempFile(dir, "users", ".wal");
+
+		try {
+			System.out.printf("%d cores, %,d users%n", Runtime.getRuntime().availableProcessors(), n);
+			write(n, snapshot, logFile);
+
+			long start = System.nanoTime();
+			int read = Snapshot.read(snapshot).size();
+			print("decode only", start, read);
+
+			load("default", new SkipListPasswordManager(), snapshot);
+			load("thread-safe", new SkipListPasswordManager(true), snapshot);
+			load("sharded", SkipListPasswordManager.sharded(), snapshot);
+
+			SkipListPasswordManager replayed = new SkipListPasswordManager();
+			start = System.nanoTime();
+			WriteAheadLog log = new WriteAheadLog(logFile, WriteAheadLog.SyncPolicy.batched(1 << 16));
+			replayed.attachLog(log);
+			print("log replay", start, replayed.numberUsers());
+			log.close();
+		} finally{
+			Files.deleteIfExists(snapshot);
+			Files.deleteIfExists(logFile);
+		}
+	}
+
+	// Builds the users, logging each one, then writes them to a snapshot
+	private static void write(int n, Path snapshot, Path logFile) throws IOException{
+		List<String> names = SkipListBenchmark.usernames(n, 42);
+		Collections.sort(names);
+		Random random = new Random(42);
+		List<User> users = new ArrayList<User>(n);
+
+		for (String name : names){
+			User usr = new User(name);
+			usr.setUserPassword(Djb2Hasher.hash("pw" + name));
+			int apps = UserFootprint.realisticAppCount(random);
+			for (int j = 0; j < apps; j++){
+				usr.setPassword("app" + j, Djb2Hasher.hash("pw" + j));
+			}
+			users.add(usr);
+		}
+
+		// The log file is new, so attaching it replays nothing
+		SkipListPasswordManager manager = new SkipListPasswordManager();
+		WriteAheadLog log = new WriteAheadLog(logFile, WriteAheadLog.SyncPolicy.batched(1 << 16));
+		manager.attachLog(log);
+		manager.addNewUsers(users.iterator());
+		log.close();
+		users = null;
+
+		long start = System.nanoTime();
+		long written = manager.writeSnapshot(snapshot);
+		print("write", start, written);
+		System.out.printf("%-12s %,d bytes, %,d bytes of log%n", "", Files.size(snapshot), Files.size(logFile));
+	}
+
+	private static void load(String label, SkipListPasswordManager manager, Path snapshot) throws IOException{
+		long start = System.nanoTime();
+		long loaded = manager.loadSnapshot(snapshot);
+		print(label, start, loaded);
+	}
+
+	private static void print(String label, long start, long users){
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%-12s %,d users in %.2f s (%,.0f users/s)%n", label, users, seconds, users / seconds);
+	}
+}
@@ -0,0 +1,57 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/* Checks that usernames and app names come back from a snapshot exactly as they were written, including names
+*  holding a surrogate without its pair, which UTF-8 cannot encode, next to a name that only differs by such a char
+*  Run with: java -cp out SnapshotRoundTripCheck
+*  Throws, exiting with a non-zero status, at the first name that does not survive */
+public class SnapshotRoundTripCheck {
+	private static final String[] NAMES = {
+		"alice", "al\uD800", "bob\uD800", "bob?", "\uDC00lone", "pair\uD83D\uDE00", "\uD83D", "caf\u00e9", "\u4e2d\u6587", "end\uDBFF"
+	};
+
+	public static void main(String[] args) throws IOException{
+		SkipListPasswordManager manager = new SkipListPasswordManager();
+
+		for (String name : NAMES){
+			check(manager.addNewUser(name, "pw-" + name).equals(name), "adding " + describe(name));
+			manager.newAppPassword(name, "pw-" + name, "app-pw", "app" + name);
+		}
+
+		Path file = Files.createTempFile("snapshot", ".bin");
+		try {
+			check(manager.writeSnapshot(file) == NAMES.length, "writing the snapshot");
+
+			SkipListPasswordManager restored = new SkipListPasswordManager();
+			check(restored.loadSnapshot(file) == NAMES.length, "loading the snapshot");
+
+			for (String name : NAMES){
+				check(restored.authenticate(name, "pw-" + name).equals(manager.authenticate(name, "pw-" + name)), "user " + describe(name));
+				check(restored.authenticate(name, "app-pw", "app" + name).equals(manager.authenticate(name, "app-pw", "app" + name)),
+						"app of " + describe(name));
+				check(!restored.authenticate(name, "wrong").equals(restored.authenticate(name, "pw-" + name)), "password of " + describe(name));
+			}
+		} finally{
+			Files.deleteIfExists(file);
+		}
+		System.out.println("ok, " + NAMES.length + " names");
+	}
+
+	private static void check(boolean condition, String what){
+		if (!condition){
+			throw new IllegalStateException("Snapshot round trip failed at " + what);
+		}
+	}
+
+	// Shows every char outside printable ASCII as its code, as an unpaired surrogate cannot be printed
+	private static String describe(String name){
+		StringBuilder s = new StringBuilder();
+
+		for (int i = 0; i < name.length(); i++){
+			char c = name.charAt(i);
+			s.append(c >= 0x20 && c < 0x7f ? String.valueOf(c) : String.format("\\u%04X", (int) c));
+		}
+		return s.toString();
+	}
+}
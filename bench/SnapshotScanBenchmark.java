@@ -0,0 +1,146 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Write throughput of the thread-safe and sharded managers while a consistent UserSnapshot is in use
+*  Writers run the workload of ShardedManagerBenchmark: 40% addNewUser or deleteUser, 40% resetPassword
+*  and 20% authenticate. They run with no view open, with one view held open for the whole run, and with
+*  a scanner thread that iterates one view after another for the whole run
+*  copies is how many users the held view kept a copy of by the end, scans how many views the scanner finished
+*  Run with: java -cp out SnapshotScanBenchmark [users] [maxThreads] */
+public class SnapshotScanBenchmark {
+	private static final long MILLIS = 2000;
+
+	public static void main(String[] args) throws InterruptedException{
+		int users = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int cores = Runtime.getRuntime().availableProcessors();
+		int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Math.max(4, cores);
+		List<String> names = SkipListBenchmark.usernames(users, 42);
+
+		// Warm up the JIT before taking any measurements
+		SkipListPasswordManager warm = load(new SkipListPasswordManager(true), names);
+		run(warm, names, 2, "scanning");
+		run(warm, names, 2, "none");
+
+		System.out.printf("%d cores, %,d users, writer ops/s by writer thread count%n%-24s", cores, users, "store, view");
+		for (int threads = 1; threads <= maxThreads; threads *= 2){
+			System.out.printf(" %22d", threads);
+		}
+		System.out.println();
+
+		for (String store : new String[]{"concurrent", "sharded"}){
+			SkipListPasswordManager manager = load(store.equals("sharded") ? SkipListPasswordManager.sharded() : new SkipListPasswordManager(true), names);
+
+			for (String view : new String[]{"none", "held open", "scanning"}){
+				System.out.printf("%-24s", store + ", " + view);
+				for (int threads = 1; threads <= maxThreads; threads *= 2){
+					System.out.printf(" %22s", run(manager, names, threads, view));
+				}
+				System.out.println();
+			}
+		}
+	}
+
+	private static SkipListPasswordManager load(SkipListPasswordManager manager, List<String> names){
+		for (String name : names){
+			manager.addNewUser(name, "pw" + name);
+		}
+		return manager;
+	}
+
+	// Returns writer operations per second, followed by the copies kept or the scans finished
+	private static String run(final SkipListPasswordManager manager, final List<String> names, int threads, String view) throws InterruptedException{
+		final AtomicLong operations = new AtomicLong();
+		final AtomicLong scans = new AtomicLong();
+		final AtomicBoolean writing = new AtomicBoolean(true);
+		final long deadline = System.currentTimeMillis() + MILLIS;
+		UserSnapshot held = view.equals("held open") ? manager.openSnapshot() : null;
+		List<Thread> workers = new ArrayList<Thread>();
+
+		Thread scanner = null;
+		if (view.equals("scanning")){
+			scanner = new Thread(new Runnable(){
+				public void run(){
+					while (writing.get()){
+						try (UserSnapshot snapshot = manager.openSnapshot()){
+							for (User usr : snapshot){
+								if (usr.getUsername() == null){
+									throw new IllegalStateException();
+								}
+							}
+						}
+						scans.incrementAndGet();
+					}
+				}
+			});
+			scanner.start();
+		}
+
+		for (int t = 0; t < threads; t++){
+			final int id = t;
+			workers.add(new Thread(new Runnable(){
+				public void run(){
+					Random random = new Random(id);
+					// This thread's own users are "t<id>-<n>" for n from oldest to newest - 1
+					int oldest = 0;
+					int newest = 0;
+					long count = 0;
+
+					while ((count & 255) != 0 || System.currentTimeMillis() < deadline){
+						int choice = random.nextInt(100);
+
+						if (choice < 40){
+							if (newest - oldest < 64 && (newest == oldest || random.nextBoolean())){
+								check(manager.addNewUser("t" + id + "-" + newest, "pw"), "t" + id + "-" + newest);
+								newest++;
+							} else{
+								check(manager.deleteUser("t" + id + "-" + oldest, "pw"), "t" + id + "-" + oldest);
+								oldest++;
+							}
+						} else{
+							String name = names.get(random.nextInt(names.size()));
+							String password = "pw" + name;
+							check(choice < 80 ? manager.resetPassword(name, password, password) : manager.authenticate(name, password), name);
+						}
+						count++;
+					}
+
+					// Leave the manager as it was for the next run
+					for (; oldest < newest; oldest++){
+						check(manager.deleteUser("t" + id + "-" + oldest, "pw"), "t" + id + "-" + oldest);
+					}
+					operations.addAndGet(count);
+				}
+			}));
+		}
+
+		for (Thread worker : workers){
+			worker.start();
+		}
+		for (Thread worker : workers){
+			worker.join();
+		}
+		writing.set(false);
+		if (scanner != null){
+			scanner.join();
+		}
+
+		long perSecond = operations.get() * 1000 / MILLIS;
+		if (held != null){
+			int copies = held.preservedCount();
+			held.close();
+			return String.format("%,d (%,d copies)", perSecond, copies);
+		} else if (scanner != null){
+			return String.format("%,d (%d scans)", perSecond, scans.get());
+		}
+		return String.format("%,d", perSecond);
+	}
+
+	private static void check(String result, String expected){
+		if (!result.equals(expected)){
+			throw new IllegalStateException(expected + ": " + result);
+		}
+	}
+}
@@ -0,0 +1,113 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/* Heap and throughput of a manager holding every user in memory against one with TieredStorage attached
+*  Loads users with the long-tailed app counts of UserFootprint, then runs logins and password resets against
+*  users drawn from a Zipfian distribution, so that a few users are used often and most rarely, and reports the
+*  heap in use, throughput, and for tiered runs the hit rate, evictions and the time taken to read a user back
+*  Run each mode in a JVM of its own, with the same heap, so that neither inherits the other's garbage
+*  Run with: java -Xms2g -Xmx2g -cp out TieredBenchmark [users] [memory|tiered] [budget MB] [operations] */
+public class TieredBenchmark {
+
+	public static void main(String[] args) throws Exception{
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		boolean tiered = args.length > 1 && args[1].equals("tiered");
+		long budget = (args.length > 2 ? Long.parseLong(args[2]) : 32) << 20;
+		int operations = args.length > 3 ? Integer.parseInt(args[3]) : 2000000;
+		long baseline = SkipListFootprint.usedHeap();
+
+		Path dir = Files.createTempDirectory("tiered");
+		TieredStorage storage = tiered ? new TieredStorage(dir.resolve("cold"), budget) : null;
+		SkipListPasswordManager manager = new SkipListPasswordManager();
+		if (tiered){
+			manager.attachTieredStorage(storage);
+		}
+
+		long start = System.nanoTime();
+		manager.addNewUsers(new GeneratedUsers(n));
+		double loadSeconds = (System.nanoTime() - start) / 1e9;
+		long heap = SkipListFootprint.usedHeap() - baseline;
+
+		System.out.printf("%s, %,d users loaded in %.2f s%n", tiered ? "tiered" : "in memory", manager.numberUsers(), loadSeconds);
+		System.out.printf("heap in use   %,d bytes (%.1f bytes/user)%n", heap, heap / (double) n);
+		if (tiered){
+			System.out.printf("in memory     %,d users, %,d of %,d bytes estimated%n", storage.usersInMemory(), storage.memoryBytes(), storage.memoryBudget());
+			System.out.printf("cold file     %,d bytes, %,d live%n", storage.coldFile().fileBytes(), storage.coldFile().liveBytes());
+		}
+
+		KeyDistribution keys = KeyDistribution.zipfian(n, 42);
+		Random random = new Random(42);
+		long evictions = tiered ? storage.evictions() : 0;
+		long faults = tiered ? storage.faults() : 0;
+		long hits = tiered ? storage.hits() : 0;
+		start = System.nanoTime();
+
+		for (int i = 0; i < operations; i++){
+			int id = keys.index(i);
+			String name = GeneratedUsers.username(id);
+			String result;
+
+			if (random.nextInt(10) == 0){
+				// Set the password back to what it was, so later operations still know it
+				manager.resetPassword(name, "pw" + id, "next");
+				result = manager.resetPassword(name, "next", "pw" + id);
+			} else{
+				result = manager.authenticate(name, "pw" + id);
+			}
+			if (!result.equals(name)){
+				throw new IllegalStateException(name + ": " + result);
+			}
+		}
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("workload      %,d operations in %.2f s (%,.0f ops/s)%n", operations, seconds, operations / seconds);
+		if (tiered){
+			hits = storage.hits() - hits;
+			faults = storage.faults() - faults;
+			System.out.printf("hit rate      %.4f (%,d hits, %,d faults)%n", hits / (double) (hits + faults), hits, faults);
+			System.out.printf("evictions     %,d%n", storage.evictions() - evictions);
+			System.out.printf("fault time    %.1f us mean, %.1f us at most%n", storage.meanFaultNanos() / 1e3, storage.maxFaultNanos() / 1e3);
+			System.out.printf("heap in use   %,d bytes after the workload%n", SkipListFootprint.usedHeap() - baseline);
+			storage.close();
+		}
+		Files.deleteIfExists(dir);
+	}
+
+	// Users in ascending username order, made as they are read so that none but those stored are kept
+	private static class GeneratedUsers implements Iterator<User> {
+		private final int n;
+		private final Random random = new Random(42);
+		private int next;
+
+		GeneratedUsers(int n){
+			this.n = n;
+		}
+
+		// Usernames of the same length, so that they sort in the order of their ids
+		static String username(int id){
+			return "user" + (1000000000L + id);
+		}
+
+		public boolean hasNext(){
+			return next < n;
+		}
+
+		public User next(){
+			if (!hasNext()){
+				throw new NoSuchElementException();
+			}
+
+			int id = next++;
+			User usr = new User(username(id));
+			usr.setUserPassword(Djb2Hasher.hash("pw" + id));
+			int apps = UserFootprint.realisticAppCount(random);
+			for (int j = 0; j < apps; j++){
+				usr.setPassword("app" + j, Djb2Hasher.hash("pw" + j));
+			}
+			return usr;
+		}
+	}
+}
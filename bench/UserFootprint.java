@@ -0,0 +1,76 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Measures the retained heap per User, excluding the username and the skiplist holding it
+// Run with: java -cp out UserFootprint [users]
+public class UserFootprint {
+
+	public static void main(String[] args){
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		List<String> names = SkipListBenchmark.usernames(n, 42);
+		String[] appNames = new String[64];
+
+		for (int i = 0; i < appNames.length; i++){
+			appNames[i] = "app" + i;
+		}
+
+		int[] appCounts = {0, 1, 3, 8, 9, 20};
+
+		for (int appCount : appCounts){
+			long before = SkipListFootprint.usedHeap();
+			List<User> users = new ArrayList<User>(n);
+
+			for (int i = 0; i < n; i++){
+				User usr = new User(names.get(i));
+				usr.setUserPassword(i);
+				for (int j = 0; j < appCount; j++){
+					usr.setPassword(appNames[j], i + j);
+				}
+				users.add(usr);
+			}
+
+			long after = SkipListFootprint.usedHeap();
+			// The list itself holds one reference per user
+			long perUser = (after - before - 4L * n) / n;
+			System.out.printf("%2d apps: %,6d bytes/user%n", appCount, perUser);
+			users.clear();
+		}
+
+		// Long-tailed mix: half the users have no apps, a few have dozens
+		Random random = new Random(42);
+		long before = SkipListFootprint.usedHeap();
+		List<User> users = new ArrayList<User>(n);
+		long apps = 0;
+
+		for (int i = 0; i < n; i++){
+			User usr = new User(names.get(i));
+			usr.setUserPassword(i);
+			int appCount = realisticAppCount(random);
+			for (int j = 0; j < appCount; j++){
+				usr.setPassword(appNames[j], i + j);
+			}
+			apps += appCount;
+			users.add(usr);
+		}
+
+		long after = SkipListFootprint.usedHeap();
+		System.out.printf("mixed (%.2f apps/user): %,d bytes/user%n", apps / (double) n, (after - before - 4L * n) / n);
+	}
+
+	// 50% no apps, 25% one, 15% two or three, 8% four to eight, 2% nine to sixty-four
+	static int realisticAppCount(Random random){
+		int percentile = random.nextInt(100);
+
+		if (percentile < 50){
+			return 0;
+		} else if (percentile < 75){
+			return 1;
+		} else if (percentile < 90){
+			return 2 + random.nextInt(2);
+		} else if (percentile < 98){
+			return 4 + random.nextInt(5);
+		}
+		return 9 + random.nextInt(56);
+	}
+}
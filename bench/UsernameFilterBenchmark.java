@@ -0,0 +1,83 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/* Cost of turning away usernames that are not stored, with and without a UsernameFilter
+*  Loads users, then times authenticate against usernames that are not stored, as credential stuffing sends them,
+*  and against stored ones, first without a filter and then with one attached, reporting the time per call, the
+*  filter's memory and its false positive rate, expected and observed
+*  Run with: java -Xmx2g -cp out UsernameFilterBenchmark [users] [falsePositiveRate] [threadsafe] */
+public class UsernameFilterBenchmark {
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args){
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		double rate = args.length > 1 ? Double.parseDouble(args[1]) : 0.01;
+		boolean threadSafe = args.length > 2 && args[2].equals("threadsafe");
+
+		SkipListPasswordManager manager = new SkipListPasswordManager(threadSafe);
+		List<User> users = new ArrayList<User>(n);
+
+		for (int i = 0; i < n; i++){
+			User usr = new User(username(i));
+			usr.setUserPassword(Djb2Hasher.hash("pw"));
+			users.add(usr);
+		}
+		manager.addNewUsers(users.iterator());
+		users = null;
+
+		// Unknown usernames of the same form, falling between stored ones
+		String[] unknown = new String[1 << 20];
+		String[] known = new String[1 << 20];
+		KeyDistribution keys = KeyDistribution.uniform(n, 42);
+
+		for (int i = 0; i < unknown.length; i++){
+			unknown[i] = username(keys.index(i)) + "x";
+			known[i] = username(keys.index(i + 1));
+		}
+
+		System.out.printf("%s manager, %,d users%n", threadSafe ? "thread-safe" : "default", manager.numberUsers());
+		report("no filter", manager, unknown, known);
+
+		long start = System.nanoTime();
+		UsernameFilter filter = new UsernameFilter(n, rate);
+		manager.attachUsernameFilter(filter);
+		double attachMillis = (System.nanoTime() - start) / 1e6;
+
+		report("filter", manager, unknown, known);
+		System.out.printf("filter        %,d bytes (%.1f bits/user), %d probes, attached in %.0f ms%n",
+				filter.memoryBytes(), filter.memoryBytes() * 8.0 / n, filter.probes(), attachMillis);
+		System.out.printf("false positives %.4f configured, %.4f expected, %.4f observed%n",
+				filter.falsePositiveRate(), filter.expectedFalsePositiveRate(), filter.observedFalsePositiveRate());
+	}
+
+	// Usernames of the same length, so that they sort in the order of their ids
+	private static String username(int id){
+		return "user" + (1000000000L + id);
+	}
+
+	// Prints the best time per authenticate of each kind of username over a few rounds
+	private static void report(String name, SkipListPasswordManager manager, String[] unknown, String[] known){
+		double unknownNanos = Double.MAX_VALUE;
+		double knownNanos = Double.MAX_VALUE;
+
+		for (int round = 0; round < ROUNDS; round++){
+			unknownNanos = Math.min(unknownNanos, time(manager, unknown, "No such user exists."));
+			knownNanos = Math.min(knownNanos, time(manager, known, null));
+		}
+		System.out.printf("%-13s unknown %6.1f ns/op, known %6.1f ns/op%n", name, unknownNanos, knownNanos);
+	}
+
+	// Returns the mean nanoseconds per authenticate of each username, checking each gives expected, or its username if null
+	private static double time(SkipListPasswordManager manager, String[] usernames, String expected){
+		long start = System.nanoTime();
+
+		for (String username : usernames){
+			String result = manager.authenticate(username, "pw");
+
+			if (!result.equals(expected == null ? username : expected)){
+				throw new IllegalStateException(username + ": " + result);
+			}
+		}
+		return (System.nanoTime() - start) / (double) usernames.length;
+	}
+}
@@ -0,0 +1,238 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32C;
+
+/* File of the users a TieredStorage has moved out of memory, each read back from the location it was written to
+*  Records are written as a WriteAheadLog writes users, framed by their length and a CRC32C checksum. The space
+*  of a record no longer needed is kept on a free list by size, and reused by a later record of the same size,
+*  so the file grows with the number of users out of memory at once rather than with every eviction
+*  The file only means anything to the manager that wrote it, so it is emptied when opened and deleted when
+*  closed, and it is never forced, as the log and snapshots are what make users durable */
+public class ColdUserFile implements Closeable {
+	// Location of no record
+	static final long NOWHERE = -1;
+
+	// Length and checksum ahead of every record
+	private static final int FRAME_BYTES = 8;
+	// A location is the offset of a record above the length of its frame
+	private static final int LENGTH_BITS = 20;
+	// Records take up a multiple of this many bytes, and beyond SMALL_BYTES a power of two
+	private static final int GRANULE = 16;
+	private static final int SMALL_BYTES = 4096;
+	// App names read back are shared between users, up to this many distinct names
+	private static final int MAX_SHARED_APP_NAMES = 1024;
+
+	private final FileChannel channel;
+	private final ConcurrentHashMap<String, String> appNames = new ConcurrentHashMap<String, String>();
+
+	// Guarded by this file's monitor
+	private long end;
+	private long liveBytes;
+	// Offsets of free space, a stack for each size class
+	private final long[][] free = new long[sizeClass(1 << LENGTH_BITS) + 1][];
+	private final int[] freeCount = new int[free.length];
+
+	// Opens the file, creating it or emptying it, to be deleted once closed
+	public ColdUserFile(Path file) throws IOException{
+		if (file == null){
+			throw new IllegalArgumentException();
+		}
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+	}
+
+	// Returns the length of the file, free space included
+	public synchronized long fileBytes(){
+		return end;
+	}
+
+	// Returns the bytes of the file taken by records still in use
+	public synchronized long liveBytes(){
+		return liveBytes;
+	}
+
+	/* Writes the user, returning its location, or returns location unchanged if the record there is already this user
+	*  as it is now, as with a user read back and evicted again without having changed. The record at location is
+	*  otherwise freed once the new one is written, so a write that fails leaves it in place
+	*  The caller must hold the user's lock, so that no one reads the record as it is replaced */
+	long write(User usr, long location) throws IOException{
+		byte[] frame = frame(usr);
+
+		if (location != NOWHERE && length(location) == frame.length
+				&& Arrays.equals(read(offset(location), frame.length).array(), frame)){
+			return location;
+		}
+
+		long offset = allocate(frame.length);
+		ByteBuffer buffer = ByteBuffer.wrap(frame);
+
+		try {
+			while (buffer.hasRemaining()){
+				channel.write(buffer, offset + buffer.position());
+			}
+		} catch (IOException e){
+			free(offset << LENGTH_BITS | frame.length);
+			throw e;
+		}
+
+		if (location != NOWHERE){
+			free(location);
+		}
+		return offset << LENGTH_BITS | frame.length;
+	}
+
+	// Reads the user at location, which was written for username
+	// The caller must hold the user's lock, so that the record is not freed and its space reused meanwhile
+	User read(String username, long location) throws IOException{
+		ByteBuffer frame = read(offset(location), length(location));
+		int length = frame.getInt();
+		int checksum = frame.getInt();
+		CRC32C crc = new CRC32C();
+		crc.update(frame.array(), FRAME_BYTES, frame.remaining());
+
+		if (length != frame.remaining() || (int) crc.getValue() != checksum){
+			throw new IOException("Record of " + username + " is corrupt");
+		}
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame.array(), FRAME_BYTES, length));
+
+		if (!in.readUTF().equals(username)){
+			throw new IOException("Record of " + username + " holds another user");
+		}
+
+		// The username given is the one the manager keys the user by, so no second copy of it is kept
+		User usr = new User(username, in.readUTF(), readSalt(in));
+		usr.setUserPassword(in.readLong());
+		int apps = in.readInt();
+		usr.reserveApps(apps);
+
+		for (; apps > 0; apps--){
+			String appName = shared(in.readUTF());
+			String algorithm = in.readUTF();
+			usr.setPassword(appName, in.readLong(), algorithm);
+		}
+		return usr;
+	}
+
+	// Frees the record at location, for its space to be reused. The caller must hold the user's lock
+	synchronized void free(long location){
+		int sizeClass = sizeClass(length(location));
+
+		if (free[sizeClass] == null){
+			free[sizeClass] = new long[16];
+		} else if (freeCount[sizeClass] == free[sizeClass].length){
+			free[sizeClass] = Arrays.copyOf(free[sizeClass], freeCount[sizeClass] * 2);
+		}
+		free[sizeClass][freeCount[sizeClass]++] = offset(location);
+		liveBytes -= classBytes(sizeClass);
+	}
+
+	// Returns the offset of space for a record of the given length, reusing free space of its size if there is any
+	private synchronized long allocate(int length){
+		int sizeClass = sizeClass(length);
+		liveBytes += classBytes(sizeClass);
+
+		if (freeCount[sizeClass] > 0){
+			return free[sizeClass][--freeCount[sizeClass]];
+		}
+
+		long offset = end;
+		end += classBytes(sizeClass);
+		return offset;
+	}
+
+	// Returns the user framed by its length and checksum
+	private static byte[] frame(User usr) throws IOException{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeLong(0);
+		WriteAheadLog.writeUser(out, usr);
+
+		byte[] frame = bytes.toByteArray();
+		if (frame.length >= 1 << LENGTH_BITS){
+			throw new IOException("User " + usr.getUsername() + " is too large to evict");
+		}
+
+		CRC32C crc = new CRC32C();
+		crc.update(frame, FRAME_BYTES, frame.length - FRAME_BYTES);
+		ByteBuffer.wrap(frame).putInt(frame.length - FRAME_BYTES).putInt((int) crc.getValue());
+		return frame;
+	}
+
+	private static byte[] readSalt(DataInputStream in) throws IOException{
+		int length = in.readUnsignedByte();
+
+		if (length == 0){
+			return null;
+		}
+
+		byte[] salt = new byte[length];
+		in.readFully(salt);
+		return salt;
+	}
+
+	// Returns the copy of appName already shared, so that users read back do not each keep their own
+	private String shared(String appName){
+		String shared = appNames.get(appName);
+
+		if (shared != null){
+			return shared;
+		}
+		if (appNames.size() >= MAX_SHARED_APP_NAMES){
+			return appName;
+		}
+		shared = appNames.putIfAbsent(appName, appName);
+		return shared == null ? appName : shared;
+	}
+
+	// Reads length bytes from position into a new heap buffer
+	private ByteBuffer read(long position, int length) throws IOException{
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+
+		while (buffer.hasRemaining()){
+			if (channel.read(buffer, position + buffer.position()) < 0){
+				throw new IOException("Unexpected end of cold user file");
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	private static long offset(long location){
+		return location >>> LENGTH_BITS;
+	}
+
+	private static int length(long location){
+		return (int) location & ((1 << LENGTH_BITS) - 1);
+	}
+
+	// Sizes up to SMALL_BYTES go up in steps of GRANULE bytes, larger ones in powers of two
+	private static int sizeClass(int length){
+		if (length <= SMALL_BYTES){
+			return (length + GRANULE - 1) / GRANULE;
+		}
+		return SMALL_BYTES / GRANULE + (32 - Integer.numberOfLeadingZeros(length - 1)) - 12;
+	}
+
+	private static int classBytes(int sizeClass){
+		if (sizeClass <= SMALL_BYTES / GRANULE){
+			return sizeClass * GRANULE;
+		}
+		return 1 << (sizeClass - SMALL_BYTES / GRANULE + 12);
+	}
+
+	// Closes and deletes the file
+	public void close() throws IOException{
+		channel.close();
+	}
+}
@@ -0,0 +1,584 @@
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/* Lock-free variant of SkipList that may be shared between threads
+*  Insertion links a node on the lowest level with a single CAS, then links the upper levels
+*  Deletion first claims the node by CASing its value to null, then marks every forward pointer
+*  and lets traversals physically unlink the marked node
+*  get and containsKey never write and never retry, so they are wait-free */
+public class ConcurrentSkipList<K extends Comparable<K>, V> implements OrderedStore<K, V>{
+	// Upper bound on the number of levels, enough for well over 2^32 keys
+	private static final int MAX_HEIGHT = 32;
+
+	// A spliterator splits at the middle node of the highest level with at least this many nodes in its range
+	private static final int SPLIT_NODES = 16;
+
+	// Number of keys, exact whenever no operation is in progress
+	private final AtomicInteger size;
+
+	// Number of levels that may hold nodes, only ever grows
+	private final AtomicInteger height;
+
+	// Head sentinel node, holding the first node of every level
+	private final ConcurrentSkipListNode<K,V> head;
+
+	public ConcurrentSkipList(){
+		size = new AtomicInteger();
+		height = new AtomicInteger(1);
+		head = new ConcurrentSkipListNode<K,V>(MAX_HEIGHT);
+	}
+
+	public int size() {
+		return size.get();
+	}
+
+	// Returns whether the skiplist is empty
+	public boolean isEmpty() { return size.get() == 0; }
+
+	// Returns all keys stored in the skiplist, in order
+	// Keys added or removed while this runs may or may not be included
+	public List<K> keys() {
+		List<K> keys = new ArrayList<K>();
+		boolean[] marked = {false};
+		ConcurrentSkipListNode<K,V> current = head.getNext(0).getReference();
+
+		while (current != null){
+			ConcurrentSkipListNode<K,V> next = current.getNext(0).get(marked);
+
+			if (!marked[0] && current.getValue() != null){
+				keys.add(current.getKey());
+			}
+			current = next;
+		}
+
+		return keys;
+	}
+
+	// Returns the entries in key order, each read only as the iterator reaches it
+	// Entries added or removed while iterating may or may not be included
+	public Iterator<Map.Entry<K,V>> iterator() {
+		return Spliterators.iterator(spliterator());
+	}
+
+	// Returns a spliterator over the entries in key order, which may be used while the skiplist changes
+	// Splitting picks the middle node of the range on the highest level with a few nodes in it, starting from the top
+	public Spliterator<Map.Entry<K,V>> spliterator() {
+		return new EntrySpliterator(head.getNext(0).getReference(), null, height.get() - 1, size.get());
+	}
+
+	// Returns the first node on the given level with a key greater than key, or the first node on it if key is null
+	// Descends from the head through the levels above, stepping over deleted nodes as ceiling does
+	private ConcurrentSkipListNode<K,V> higherOnLevel(K key, int targetLevel){
+		boolean[] marked = {false};
+		ConcurrentSkipListNode<K,V> pred = head;
+		ConcurrentSkipListNode<K,V> current = null;
+
+		for (int level = height.get() - 1; level >= targetLevel; level--){
+			current = pred.getNext(level).getReference();
+
+			while (current != null){
+				ConcurrentSkipListNode<K,V> succ = current.getNext(level).get(marked);
+
+				while (marked[0]){
+					current = succ;
+					if (current == null){
+						break;
+					}
+					succ = current.getNext(level).get(marked);
+				}
+
+				if (current == null || key == null || current.getKey().compareTo(key) > 0){
+					break;
+				}
+				pred = current;
+				current = succ;
+			}
+		}
+
+		return current;
+	}
+
+	// Covers the entries from the node next up to, but not including, the key fence (to the end if null)
+	// level is the highest level that may still have nodes inside the range to split at
+	private class EntrySpliterator implements Spliterator<Map.Entry<K,V>> {
+		private final boolean[] marked = {false};
+		private ConcurrentSkipListNode<K,V> next;
+		private final K fence;
+		private int level;
+		private long estimate;
+
+		EntrySpliterator(ConcurrentSkipListNode<K,V> next, K fence, int level, long estimate){
+			this.next = next;
+			this.fence = fence;
+			this.level = level;
+			this.estimate = estimate;
+		}
+
+		public boolean tryAdvance(Consumer<? super Map.Entry<K,V>> action){
+			if (action == null){
+				throw new NullPointerException();
+			}
+
+			while (next != null){
+				if (fence != null && next.getKey().compareTo(fence) >= 0){
+					next = null;
+					break;
+				}
+
+				ConcurrentSkipListNode<K,V> node = next;
+				next = node.getNext(0).get(marked);
+				V value = node.getValue();
+
+				// Removed nodes are skipped, their forward pointers still lead on through the range
+				if (!marked[0] && value != null){
+					action.accept(new AbstractMap.SimpleImmutableEntry<K,V>(node.getKey(), value));
+					return true;
+				}
+			}
+
+			return false;
+		}
+
+		// Hands the entries before the middle node of the highest level with enough nodes in range to a new spliterator
+		// A level with only one or two nodes in range says little about where the middle is, so the search
+		// goes on down until one has SPLIT_NODES, settling for any node on the lowest level above the first
+		public Spliterator<Map.Entry<K,V>> trySplit(){
+			if (next == null){
+				return null;
+			}
+
+			K from = next.getKey();
+
+			for (; level > 0; level--){
+				ConcurrentSkipListNode<K,V> first = higherOnLevel(from, level);
+				int count = 0;
+
+				for (ConcurrentSkipListNode<K,V> node = first; node != null && (fence == null || node.getKey().compareTo(fence) < 0);
+						node = node.getNext(level).getReference()){
+					count++;
+				}
+
+				if (count >= SPLIT_NODES || (level == 1 && count > 0)){
+					ConcurrentSkipListNode<K,V> middle = first;
+
+					for (int i = 0; i < count / 2; i++){
+						middle = middle.getNext(level).getReference();
+					}
+
+					Spliterator<Map.Entry<K,V>> prefix = new EntrySpliterator(next, middle.getKey(), level, estimate >>> 1);
+					next = middle;
+					estimate -= estimate >>> 1;
+					return prefix;
+				}
+			}
+
+			return null;
+		}
+
+		public long estimateSize(){
+			return estimate;
+		}
+
+		public int characteristics(){
+			return Spliterator.ORDERED | Spliterator.SORTED | Spliterator.DISTINCT | Spliterator.NONNULL
+					| Spliterator.CONCURRENT;
+		}
+
+		// Entries are sorted by key
+		public Comparator<? super Map.Entry<K,V>> getComparator(){
+			return Map.Entry.comparingByKey();
+		}
+	}
+
+	// Returns up to limit keys in order, starting with the key at position offset
+	// Positions are not indexed here, so the keys before offset are walked over one by one
+	public List<K> range(int offset, int limit) {
+		if (offset < 0 || limit < 0){
+			throw new IllegalArgumentException();
+		}
+
+		List<K> keys = new ArrayList<K>();
+		Iterator<K> all = keys(null, true, null, true);
+
+		for (int skipped = 0; skipped < offset && all.hasNext(); skipped++){
+			all.next();
+		}
+		while (keys.size() < limit && all.hasNext()){
+			keys.add(all.next());
+		}
+
+		return keys;
+	}
+
+	// returns whether a node with key key exists in the skip-list
+	public boolean containsKey(K key){
+		return get(key) != null;
+	}
+
+	// Search for node with key key, skipping over nodes that are marked as deleted
+	public V get(K key) {
+		if (key == null){
+			throw new IllegalArgumentException();
+		}
+
+		ConcurrentSkipListNode<K,V> current = ceiling(key);
+
+		if (current != null && current.getKey().compareTo(key) == 0){
+			return current.getValue();
+		}
+
+		return null;
+	}
+
+	// Returns the first node on the lowest level whose key is not less than key, or null if there is none
+	// Steps over deleted nodes without unlinking them, so it never writes and never retries
+	private ConcurrentSkipListNode<K,V> ceiling(K key){
+		boolean[] marked = {false};
+		ConcurrentSkipListNode<K,V> pred = head;
+		ConcurrentSkipListNode<K,V> current = null;
+
+		for (int level = height.get() - 1; level >= 0; level--){
+			current = pred.getNext(level).getReference();
+
+			while (current != null){
+				ConcurrentSkipListNode<K,V> succ = current.getNext(level).get(marked);
+
+				while (marked[0]){
+					current = succ;
+					if (current == null){
+						break;
+					}
+					succ = current.getNext(level).get(marked);
+				}
+
+				if (current == null || current.getKey().compareTo(key) >= 0){
+					break;
+				}
+				pred = current;
+				current = succ;
+			}
+		}
+
+		return current;
+	}
+
+	// Returns the keys from from to to in order, walking the lowest level only as far as the iterator is advanced
+	// A null bound leaves that end of the range open
+	// Keys added or removed while iterating may or may not be included
+	public Iterator<K> keys(K from, boolean fromInclusive, K to, boolean toInclusive) {
+		ConcurrentSkipListNode<K,V> first;
+
+		if (from == null){
+			first = head.getNext(0).getReference();
+		} else{
+			first = ceiling(from);
+
+			if (first != null && !fromInclusive && first.getKey().compareTo(from) == 0){
+				first = first.getNext(0).getReference();
+			}
+		}
+
+		return new RangeIterator(first, to, toInclusive);
+	}
+
+	// Iterates over keys along the lowest level, skipping removed nodes and stopping at the end of the range
+	private class RangeIterator implements Iterator<K> {
+		private final boolean[] marked = {false};
+		private ConcurrentSkipListNode<K,V> next;
+		private final K to;
+		private final boolean toInclusive;
+
+		RangeIterator(ConcurrentSkipListNode<K,V> first, K to, boolean toInclusive){
+			this.next = first;
+			this.to = to;
+			this.toInclusive = toInclusive;
+		}
+
+		public boolean hasNext(){
+			while (next != null){
+				if (to != null){
+					int comparison = next.getKey().compareTo(to);
+
+					if (comparison > 0 || (comparison == 0 && !toInclusive)){
+						next = null;
+						break;
+					}
+				}
+
+				ConcurrentSkipListNode<K,V> succ = next.getNext(0).get(marked);
+
+				if (!marked[0] && next.getValue() != null){
+					break;
+				}
+				next = succ;
+			}
+			return next != null;
+		}
+
+		public K next(){
+			if (!hasNext()){
+				throw new NoSuchElementException();
+			}
+
+			K key = next.getKey();
+			next = next.getNext(0).getReference();
+			return key;
+		}
+	}
+
+	// Returns the values stored with the given keys, in the same order, with null for keys that are not stored
+	// Each key is looked up separately, keys added or removed meanwhile may or may not be seen
+	public List<V> getAll(List<K> sortedKeys) {
+		if (sortedKeys == null){
+			throw new IllegalArgumentException();
+		}
+
+		List<V> values = new ArrayList<V>(sortedKeys.size());
+
+		for (K key : sortedKeys){
+			values.add(get(key));
+		}
+
+		return values;
+	}
+
+	// Returns whether every one of the given keys is stored
+	public boolean containsAll(List<K> sortedKeys) {
+		if (sortedKeys == null){
+			throw new IllegalArgumentException();
+		}
+
+		for (K key : sortedKeys){
+			if (get(key) == null){
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	// Puts a node into the skiplist with key key and value value
+	// Returns the previous value if the key already existed, null otherwise
+	public V put(K key, V value) {
+		return insert(key, value, true);
+	}
+
+	// Puts a node into the skiplist with key key and value value, unless key is already stored
+	// Returns the value already stored with key, or null if the node was added
+	public V putIfAbsent(K key, V value) {
+		return insert(key, value, false);
+	}
+
+	// An existing node for key has its value replaced only if replace is true
+	@SuppressWarnings("unchecked")
+	private V insert(K key, V value, boolean replace) {
+		// A null value is how a removed node is recognised, so it cannot be stored
+		if (key == null || value == null){
+			throw new IllegalArgumentException();
+		}
+
+		int nodeHeight = randomHeight();
+		raiseHeight(nodeHeight);
+
+		ConcurrentSkipListNode<K,V>[] preds = new ConcurrentSkipListNode[MAX_HEIGHT];
+		ConcurrentSkipListNode<K,V>[] succs = new ConcurrentSkipListNode[MAX_HEIGHT];
+
+		while (true){
+			if (find(key, preds, succs)){
+				ConcurrentSkipListNode<K,V> existing = succs[0];
+				V oldValue = existing.getValue();
+
+				if (oldValue == null){
+					// Another thread is removing this node, help it along and search again
+					markDeleted(existing);
+				} else if (!replace || existing.casValue(oldValue, value)){
+					return oldValue;
+				}
+				continue;
+			}
+
+			ConcurrentSkipListNode<K,V> newNode = new ConcurrentSkipListNode<K,V>(key, value, nodeHeight);
+
+			for (int level = 0; level < nodeHeight; level++){
+				newNode.getNext(level).set(succs[level], false);
+			}
+
+			// The node is in the skiplist once it is linked on the lowest level
+			if (!preds[0].getNext(0).compareAndSet(succs[0], newNode, false, false)){
+				continue;
+			}
+			size.incrementAndGet();
+
+			linkUpperLevels(newNode, preds, succs);
+			return null;
+		}
+	}
+
+	// Links an inserted node on every level above the lowest, searching again whenever a link fails
+	// Stops early if the node is removed before it is fully linked
+	private void linkUpperLevels(ConcurrentSkipListNode<K,V> node, ConcurrentSkipListNode<K,V>[] preds, ConcurrentSkipListNode<K,V>[] succs){
+		boolean[] marked = {false};
+
+		for (int level = 1; level < node.height(); level++){
+			while (true){
+				ConcurrentSkipListNode<K,V> current = node.getNext(level).get(marked);
+
+				if (marked[0]){
+					// Removed while linking, make sure no level is left pointing at it
+					find(node.getKey(), preds, succs);
+					return;
+				}
+
+				ConcurrentSkipListNode<K,V> succ = succs[level];
+
+				if (current != succ && !node.getNext(level).compareAndSet(current, succ, false, false)){
+					continue;
+				}
+
+				if (preds[level].getNext(level).compareAndSet(succ, node, false, false)){
+					break;
+				}
+				find(node.getKey(), preds, succs);
+			}
+		}
+	}
+
+	// Remove node from skiplist with key key
+	// Returns the removed value, or null if no node with key key exists
+	public V remove(K key) {
+		return remove(key, null);
+	}
+
+	// Remove node from skiplist with key key if its value satisfies condition, or always if condition is null
+	// Returns the value stored with key whether or not it was removed, or null if no node with key key exists
+	// condition may be tested again if the value changes before the node is claimed
+	@SuppressWarnings("unchecked")
+	public V remove(K key, Predicate<? super V> condition) {
+		if (key == null){
+			throw new IllegalArgumentException();
+		}
+
+		ConcurrentSkipListNode<K,V>[] preds = new ConcurrentSkipListNode[MAX_HEIGHT];
+		ConcurrentSkipListNode<K,V>[] succs = new ConcurrentSkipListNode[MAX_HEIGHT];
+
+		while (true){
+			if (!find(key, preds, succs)){
+				return null;
+			}
+
+			ConcurrentSkipListNode<K,V> nodeFound = succs[0];
+			V value = nodeFound.getValue();
+
+			if (value == null){
+				// Already claimed by another remove, finish it and search again
+				markDeleted(nodeFound);
+				continue;
+			}
+			if (condition != null && !condition.test(value)){
+				return value;
+			}
+
+			// Claiming the value is the point at which the key stops existing
+			if (nodeFound.casValue(value, null)){
+				size.decrementAndGet();
+				markDeleted(nodeFound);
+				find(key, preds, succs);
+				return value;
+			}
+		}
+	}
+
+	// Marks every forward pointer of the given node, from the top level down
+	private void markDeleted(ConcurrentSkipListNode<K,V> node){
+		boolean[] marked = {false};
+
+		for (int level = node.height() - 1; level >= 0; level--){
+			ConcurrentSkipListNode<K,V> succ = node.getNext(level).get(marked);
+
+			while (!marked[0]){
+				node.getNext(level).compareAndSet(succ, succ, false, true);
+				succ = node.getNext(level).get(marked);
+			}
+		}
+	}
+
+	/* Fills preds and succs with the nodes either side of key on every level in use
+	*  Unlinks any marked nodes found along the way, restarting from the head if another thread interferes
+	*  Returns whether a node with key key is linked on the lowest level */
+	private boolean find(K key, ConcurrentSkipListNode<K,V>[] preds, ConcurrentSkipListNode<K,V>[] succs){
+		boolean[] marked = {false};
+
+		retry:
+		while (true){
+			ConcurrentSkipListNode<K,V> pred = head;
+			ConcurrentSkipListNode<K,V> current = null;
+
+			for (int level = height.get() - 1; level >= 0; level--){
+				current = pred.getNext(level).getReference();
+
+				while (current != null){
+					ConcurrentSkipListNode<K,V> succ = current.getNext(level).get(marked);
+
+					while (marked[0]){
+						if (!pred.getNext(level).compareAndSet(current, succ, false, false)){
+							continue retry;
+						}
+						current = succ;
+						if (current == null){
+							break;
+						}
+						succ = current.getNext(level).get(marked);
+					}
+
+					if (current == null || current.getKey().compareTo(key) >= 0){
+						break;
+					}
+					pred = current;
+					current = succ;
+				}
+
+				preds[level] = pred;
+				succs[level] = current;
+			}
+
+			return current != null && current.getKey().compareTo(key) == 0;
+		}
+	}
+
+	// Returns a node height between 1 and MAX_HEIGHT using repeated coin flips
+	private int randomHeight(){
+		int nodeHeight = 1;
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+
+		while (nodeHeight < MAX_HEIGHT && random.nextBoolean()){
+			nodeHeight++;
+		}
+
+		return nodeHeight;
+	}
+
+	// Raises the number of levels in use to at least the given height
+	private void raiseHeight(int nodeHeight){
+		int current = height.get();
+
+		while (current < nodeHeight && !height.compareAndSet(current, nodeHeight)){
+			current = height.get();
+		}
+	}
+
+	public int getHeight(){
+		return height.get();
+	}
+
+}
@@ -0,0 +1,74 @@
+import java.util.concurrent.atomic.AtomicMarkableReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+// A single key in the concurrent skip-list
+// Each forward pointer carries a mark, set once the node has been logically deleted on that level
+public class ConcurrentSkipListNode<K extends Comparable<K>, V>{
+	@SuppressWarnings("rawtypes")
+	private static final AtomicReferenceFieldUpdater<ConcurrentSkipListNode, Object> VALUE =
+			AtomicReferenceFieldUpdater.newUpdater(ConcurrentSkipListNode.class, Object.class, "value");
+
+	private final AtomicMarkableReference<ConcurrentSkipListNode<K,V>>[] next;
+	private final K key;
+	// null once the node has been claimed by a remove
+	private volatile Object value;
+
+	// Constructor for standard node, appearing on levels 0 to height - 1
+	@SuppressWarnings("unchecked")
+	public ConcurrentSkipListNode(K key, V value, int height){
+		if (key == null || value == null || height < 1){
+			throw new IllegalArgumentException();
+		}
+		this.key = key;
+		this.value = value;
+		this.next = new AtomicMarkableReference[height];
+
+		for (int level = 0; level < height; level++){
+			next[level] = new AtomicMarkableReference<ConcurrentSkipListNode<K,V>>(null, false);
+		}
+	}
+
+	// Constructor for the head sentinel node, sized to the maximum height of the skip-list
+	@SuppressWarnings("unchecked")
+	public ConcurrentSkipListNode(int maxHeight){
+		if (maxHeight < 1){
+			throw new IllegalArgumentException("Did not properly declare as sentinel node");
+		}
+		this.key = null;
+		this.next = new AtomicMarkableReference[maxHeight];
+
+		for (int level = 0; level < maxHeight; level++){
+			next[level] = new AtomicMarkableReference<ConcurrentSkipListNode<K,V>>(null, false);
+		}
+	}
+
+	// The head sentinel is the only node without a key
+	public boolean isSentinel(){
+		return key == null;
+	}
+
+	public K getKey() {
+		return key;
+	}
+
+	// Returns the value, or null if the node has been removed
+	@SuppressWarnings("unchecked")
+	public V getValue() {
+		return (V) value;
+	}
+
+	// Atomically replaces expected with update, returns whether it succeeded
+	public boolean casValue(V expected, V update) {
+		return VALUE.compareAndSet(this, expected, update);
+	}
+
+	// Returns the number of levels this node appears on
+	public int height() {
+		return next.length;
+	}
+
+	// Returns the markable forward pointer on the given level
+	public AtomicMarkableReference<ConcurrentSkipListNode<K,V>> getNext(int level) {
+		return next[level];
+	}
+}
@@ -0,0 +1,145 @@
+import java.nio.ByteBuffer;
+
+/* The unsalted djb2 hash the password manager has always used, hash = hash * 33 + c over the UTF-16 code units
+*  Hashing allocates nothing, and UTF-8 input is decoded as it is hashed so it gives the same hash as the String */
+public class Djb2Hasher implements PasswordHasher {
+	public static final String ALGORITHM = "djb2";
+
+	public static final Djb2Hasher INSTANCE = new Djb2Hasher();
+
+	private Djb2Hasher(){
+	}
+
+	public String algorithm(){
+		return ALGORITHM;
+	}
+
+	public int saltLength(){
+		return 0;
+	}
+
+	public long hash(CharSequence password, byte[] salt){
+		return hash(password);
+	}
+
+	public long hash(char[] password, byte[] salt){
+		return hash(password);
+	}
+
+	public long hash(ByteBuffer utf8Password, byte[] salt){
+		return hash(utf8Password);
+	}
+
+	// Any CharSequence hashes the same as the String holding the same characters
+	public static long hash(CharSequence password){
+		if (password == null){
+			throw new IllegalArgumentException();
+		}
+
+		long hash = 5381;
+
+		for (int i = 0; i < password.length(); i++){
+			hash = ((hash << 5) + hash) + password.charAt(i);
+		}
+
+		return movedAside(hash);
+	}
+
+	public static long hash(char[] password){
+		if (password == null){
+			throw new IllegalArgumentException();
+		}
+
+		long hash = 5381;
+
+		for (int i = 0; i < password.length; i++){
+			hash = ((hash << 5) + hash) + password[i];
+		}
+
+		return movedAside(hash);
+	}
+
+	// Hashes the password encoded as UTF-8 in length bytes from offset
+	public static long hash(byte[] utf8Password, int offset, int length){
+		if (utf8Password == null || offset < 0 || length < 0 || offset + length > utf8Password.length){
+			throw new IllegalArgumentException();
+		}
+		return utf8Hash(utf8Password, null, offset, offset + length);
+	}
+
+	// Hashes the password encoded as UTF-8 in the remaining bytes of the buffer, leaving its position unchanged
+	public static long hash(ByteBuffer utf8Password){
+		if (utf8Password == null){
+			throw new IllegalArgumentException();
+		}
+		return utf8Hash(null, utf8Password, utf8Password.position(), utf8Password.limit());
+	}
+
+	/* Hashes the UTF-8 bytes from index to end of either array or buffer, decoding them as it goes
+	*  Each character is hashed as the UTF-16 code units a String would hold, so the hash matches that
+	*  of the decoded String. Malformed UTF-8 is rejected rather than replaced */
+	private static long utf8Hash(byte[] array, ByteBuffer buffer, int index, int end){
+		long hash = 5381;
+
+		while (index < end){
+			int lead = byteAt(array, buffer, index) & 0xff;
+			int codePoint;
+			int length;
+
+			if (lead < 0x80){
+				codePoint = lead;
+				length = 1;
+			} else if ((lead & 0xe0) == 0xc0){
+				codePoint = lead & 0x1f;
+				length = 2;
+			} else if ((lead & 0xf0) == 0xe0){
+				codePoint = lead & 0x0f;
+				length = 3;
+			} else if ((lead & 0xf8) == 0xf0){
+				codePoint = lead & 0x07;
+				length = 4;
+			} else{
+				throw new IllegalArgumentException("Malformed UTF-8 at byte " + index);
+			}
+
+			if (index + length > end){
+				throw new IllegalArgumentException("Truncated UTF-8 at byte " + index);
+			}
+
+			for (int i = 1; i < length; i++){
+				int continuation = byteAt(array, buffer, index + i) & 0xff;
+
+				if ((continuation & 0xc0) != 0x80){
+					throw new IllegalArgumentException("Malformed UTF-8 at byte " + (index + i));
+				}
+				codePoint = (codePoint << 6) | (continuation & 0x3f);
+			}
+
+			// Overlong encodings, surrogates and values past the last code point are not valid UTF-8
+			if ((length == 2 && codePoint < 0x80) || (length == 3 && codePoint < 0x800)
+					|| (length == 4 && (codePoint < 0x10000 || codePoint > Character.MAX_CODE_POINT))
+					|| Character.isSurrogate((char) codePoint) && length == 3){
+				throw new IllegalArgumentException("Malformed UTF-8 at byte " + index);
+			}
+
+			if (length == 4){
+				hash = ((hash << 5) + hash) + Character.highSurrogate(codePoint);
+				hash = ((hash << 5) + hash) + Character.lowSurrogate(codePoint);
+			} else{
+				hash = ((hash << 5) + hash) + codePoint;
+			}
+			index += length;
+		}
+
+		return movedAside(hash);
+	}
+
+	// NO_VALUE marks a missing password, so the one hash that would produce it is moved aside, as Pbkdf2Hasher does
+	private static long movedAside(long hash){
+		return hash == StringLongHashMap.NO_VALUE ? hash + 1 : hash;
+	}
+
+	private static byte byteAt(byte[] array, ByteBuffer buffer, int index){
+		return array != null ? array[index] : buffer.get(index);
+	}
+}
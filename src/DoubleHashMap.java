@@ -1,12 +1,6 @@
-import java.util.ArrayList;
-import java.util.List;
-
-public class DoubleHashMap < K extends Comparable < K > , V > {
-	private int multiplier;
-	private int modulus;
-	private int secondaryModulus;
-	private HashMapNode[] nodeCache;
-	private int nodeCount;
+public class DoubleHashMap < K extends Comparable < K > , V > extends DoubleHashTable < K > {
+	// Values are held in an array parallel to the keys of DoubleHashTable
+	private Object[] valueCache;
 	private int putCollisions = 0;
 	private int totalCollisions = 0;
 	private int maxCollisions = 0;
@@ -14,32 +8,23 @@ public class DoubleHashMap < K extends Comparable < K > , V > {
 
 	// construct a DoubleHashMap with 4000 places and given hash parameters
 	public DoubleHashMap(int multiplier, int modulus, int secondaryModulus) {
-		nodeCache = new HashMapNode[4000];
-		this.multiplier = multiplier;
-		this.modulus = modulus;
-		this.secondaryModulus = secondaryModulus;
+		this(4000, multiplier, modulus, secondaryModulus);
 	}
 
 	// construct a DoubleHashMap with given capacity and given hash parameters
 	public DoubleHashMap(int hashMapSize, int multiplier, int modulus, int secondaryModulus) {
-		if (hashMapSize < 0) {
-			throw new NegativeArraySizeException();
-		} else {
-			nodeCache = new HashMapNode[hashMapSize];
-			this.multiplier = multiplier;
-			this.modulus = modulus;
-			this.secondaryModulus = secondaryModulus;
-		}
+		super(hashMapSize, multiplier, modulus, secondaryModulus);
+		valueCache = new Object[hashMapSize];
 	}
 
 	//Primary hash function
 	public int hash(K key) {
-		return Math.abs(multiplier * key.hashCode()) % modulus;
+		return primaryHash(key);
 	}
 
 	// Secondary hash function
 	public int secondaryHash(K key) {
-		return secondaryModulus - Math.abs(key.hashCode()) % secondaryModulus;
+		return stepHash(key);
 	}
 
 	// Checks if a key is contained within the hashmap
@@ -60,94 +45,41 @@ public class DoubleHashMap < K extends Comparable < K > , V > {
 	// Returns position of node in hashmap with key key, if it already exists
 	// Returns empty position determined by hash function otherwise
 	public int findCell(K key, boolean insert) {
-		int pos;
-		int counter = 0;
-		int hash = hash(key);
-		int secHash = secondaryHash(key);
-		boolean defunctsDetected = false;
-		int startPos = (hash + counter * secHash) % nodeCache.length;
-		List < Integer > defuncts = new ArrayList <Integer>();
-
-		// Loop until either a valid position is found, or all positions have been exhausted
-		while (true) {
-			pos = (hash + counter * secHash) % nodeCache.length;
-
-			// If the position arrives back to where it started or goes out of bounds, a complete failure may have occurred
-			if (pos >= nodeCache.length || (pos == startPos && counter != 0)) {
-				if (insert == true) {
-					// If there were defunct nodes detected when searching, return the position of the first defunct detected to be used.
-					if (defunctsDetected) {
-						if (maxCollisions < counter) {
-							maxCollisions = counter;
-						}
-						return defuncts.get(0);
-					}
-					putFailures++;
-				}
-				pos= -1;
-				break;
-			}
-
-			// If a node is being inserted via the put method
-			if (insert == true) {
-				// If a defunct node has been found, mark it's position and continue searching only for the keys existence
-				if (nodeCache[pos] != null && nodeCache[pos].isDefunct()) {
-					defunctsDetected = true;
-					defuncts.add(pos);
-
-				// If an empty position has been found and defuncts haven't been detected, or a node with the key being inserted has been found:
-				// Update statistics and return pos
-				} else if ((nodeCache[pos] == null  && !defunctsDetected) || nodeCache[pos].getKey().equals(key)) {
-					if (maxCollisions < counter) {
-						maxCollisions = counter;
-					}
-					break;
-				}
-			// If node is being searched for
-			} else {
-				// If an empty position is found before the node with key key, it doesn't exist in the map
-				if (nodeCache[pos] == null) {
-					return -1;
-				} else if (!nodeCache[pos].isDefunct() && nodeCache[pos].getKey().equals(key)) {
-					break;
-				}
-			}
-
-			if (counter == 0 && insert) {
-				putCollisions++;
-			}
-			if (insert){totalCollisions++;}
-			counter++;
-		}
-		return pos;
+		return probe(key, insert);
 	}
 
-	// size (return the number of nodes currently stored in the map)
-	public int size() {
-		return nodeCount;
+	// Keeps the collision statistics of each probe for a position to put a node in
+	@Override
+	void insertProbed(int collisions, boolean failed) {
+		if (collisions > 0) {
+			putCollisions++;
+		}
+		totalCollisions += collisions;
 
+		if (failed) {
+			putFailures++;
+		} else if (maxCollisions < collisions) {
+			maxCollisions = collisions;
+		}
 	}
 
-	// Returns if the map is empty
-	public boolean isEmpty() {
-		return nodeCount == 0;
-
+	@Override
+	Object newValues(int capacity) {
+		Object[] oldValues = valueCache;
+		valueCache = new Object[capacity];
+		return oldValues;
 	}
 
-	// interface methods
-	// Return all non-duplicate nodes with key=key in the hash-map
-	@SuppressWarnings("unchecked")
-	public List < K > keys() {
-		List < K > keys = new ArrayList < K > ();
-		for (int i = 0; i < nodeCache.length; i++) {
-			// If the nodes aren't null or defunct, add them to the list
-			if (nodeCache[i] != null && !nodeCache[i].isDefunct()) {
-				K key = (K) nodeCache[i].getKey();
-				keys.add(key);
-			}
-		}
-		return keys;
+	@Override
+	void moveValue(Object oldValues, int from, int to) {
+		valueCache[to] = ((Object[]) oldValues)[from];
+	}
 
+	@Override
+	void swapValues(int i, int j) {
+		Object value = valueCache[i];
+		valueCache[i] = valueCache[j];
+		valueCache[j] = value;
 	}
 
 	// Puts a node with key key, and value value into the doublehashmap if it doesn't already exist
@@ -159,25 +91,18 @@ public class DoubleHashMap < K extends Comparable < K > , V > {
 		}
 
 		// Set insert position to the first valid cell
-		int insertPos = findCell(key, true);
-
-		// -1 indicates a total failure to find a cell
-		if (insertPos == -1) {
-			throw new RuntimeException("Double Hashing failed to find a free position");
-		}
+		int insertPos = insertPosition(key);
 
-		V oldVal = null;
-		
-		// If there was already a proper node here, get it's value to return later
-		if (nodeCache[insertPos] != null && !nodeCache[insertPos].isDefunct()) {
-			oldVal = (V) nodeCache[insertPos].getValue();
-		} else {
-			nodeCount++;
+		// If the key is already here, just replace it's value
+		if (isLive(insertPos)) {
+			V oldVal = (V) valueCache[insertPos];
+			valueCache[insertPos] = value;
+			return oldVal;
 		}
 
-		HashMapNode < K, V > node = new HashMapNode < K, V > (key, value);
-		nodeCache[insertPos] = node;
-		return oldVal;
+		valueCache[insertPos] = value;
+		inserted(insertPos, key);
+		return null;
 	}
 
 	// Finds and returns the value of node with key key inside the map.
@@ -193,8 +118,7 @@ public class DoubleHashMap < K extends Comparable < K > , V > {
 		if (insertPos == -1) {
 			return null;
 		} else {		
-			V value = (V) nodeCache[insertPos].getValue();
-			return value;
+			return (V) valueCache[insertPos];
 		}
 	}
 
@@ -212,15 +136,13 @@ public class DoubleHashMap < K extends Comparable < K > , V > {
 		if (insertPos == -1) {
 			return null;
 		} else {
-			HashMapNode < K, V > node = nodeCache[insertPos];
-			V value = (V) node.getValue();
-			node.setDefunct();
-			nodeCount--;
+			V value = (V) valueCache[insertPos];
+			valueCache[insertPos] = null;
+			removed(insertPos);
 			return value;
 		}
 	}
 
-
 	// collision statistics
 	public int putCollisions() {
 		return putCollisions;
@@ -0,0 +1,318 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/* Keys of a double hashing map, shared by DoubleHashMap and StringLongHashMap so that probing, growing and
+*  compacting are written once. Subclasses hold their values in an array parallel to the keys, and move them
+*  when told to through newValues, moveValue and swapValues */
+abstract class DoubleHashTable<K> {
+	// Once live and defunct keys fill more than this fraction of the table, make room
+	private static final double MAX_LOAD_FACTOR = 0.75;
+	// Room is made by growing if live keys fill more than this fraction, otherwise by compacting
+	private static final double GROW_LOAD_FACTOR = 0.5;
+	// Compact in place once defunct keys fill more than this fraction of the table
+	private static final double MAX_DEFUNCT_FACTOR = 0.25;
+	// Smallest capacity the table is rebuilt with, a prime step still reaches every position
+	private static final int MIN_CAPACITY = 5;
+
+	// Marks a position whose key has been removed, so probing continues past it
+	// (compared by reference, so no stored key can ever be mistaken for it)
+	static final Object DEFUNCT = new Object();
+
+	private int multiplier;
+	private int modulus;
+	private int secondaryModulus;
+	// A null key marks an empty position
+	Object[] keyCache;
+	private int nodeCount;
+	// Number of defunct positions that have not been reused or compacted away
+	private int defunctCount;
+	private int resizes;
+	private int compactions;
+
+	DoubleHashTable(int hashMapSize, int multiplier, int modulus, int secondaryModulus) {
+		if (hashMapSize < 0) {
+			throw new NegativeArraySizeException();
+		}
+		keyCache = new Object[hashMapSize];
+		this.multiplier = multiplier;
+		this.modulus = modulus;
+		this.secondaryModulus = secondaryModulus;
+	}
+
+	// Replaces the values with an empty array of the given capacity, returning the old array for moveValue
+	abstract Object newValues(int capacity);
+
+	// Moves the value at from in oldValues, returned by newValues, to position to of the new values
+	abstract void moveValue(Object oldValues, int from, int to);
+
+	// Swaps the values at two positions
+	abstract void swapValues(int i, int j);
+
+	// Called once a probe for a position to insert at ends, after passing the given number of other
+	// positions, having found a position unless failed. Lets DoubleHashMap keep its collision statistics
+	void insertProbed(int collisions, boolean failed) {
+	}
+
+	//Primary hash function
+	// (the remainder is taken before Math.abs, which cannot make Integer.MIN_VALUE positive)
+	final int primaryHash(Object key) {
+		return Math.abs((multiplier * key.hashCode()) % modulus);
+	}
+
+	// Secondary hash function, the step between positions probed
+	final int stepHash(Object key) {
+		return secondaryModulus - Math.abs(key.hashCode() % secondaryModulus);
+	}
+
+	// size (return the number of keys currently stored)
+	public int size() {
+		return nodeCount;
+	}
+
+	// Returns if the table is empty
+	public boolean isEmpty() {
+		return nodeCount == 0;
+	}
+
+	// Returns the number of positions in the table
+	public int capacity() {
+		return keyCache.length;
+	}
+
+	// Returns how many times the table has grown, and how many times defunct keys were compacted away
+	public int resizes() {
+		return resizes;
+	}
+
+	public int compactions() {
+		return compactions;
+	}
+
+	// Return all keys in the table
+	@SuppressWarnings("unchecked")
+	public List<K> keys() {
+		List<K> keys = new ArrayList<K>();
+		for (int i = 0; i < keyCache.length; i++) {
+			// If the positions aren't empty or defunct, add their keys to the list
+			if (keyCache[i] != null && keyCache[i] != DEFUNCT) {
+				keys.add((K) keyCache[i]);
+			}
+		}
+		return keys;
+	}
+
+	// Returns position in the table under the following conditions:
+	// Insert parameter determines if the method is looking to place a key into the table, or if it is looking for a specific key
+	// Returns -1 if no valid position can be found
+	// Returns position of key, if it already exists
+	// Returns empty position determined by hash function otherwise
+	// Only the first defunct position passed is remembered, so probing never allocates
+	final int probe(Object key, boolean insert) {
+		if (keyCache.length == 0) {
+			return -1;
+		}
+
+		int hash = primaryHash(key);
+		int secHash = stepHash(key);
+		int startPos = hash % keyCache.length;
+		int firstDefunct = -1;
+
+		// Loop until either a valid position is found, or all positions have been exhausted
+		for (int counter = 0; ; counter++) {
+			int pos = (hash + counter * secHash) % keyCache.length;
+
+			// If the position arrives back to where it started, a complete failure may have occurred
+			if (pos == startPos && counter != 0) {
+				if (insert) {
+					// A defunct position passed on the way can still be used
+					insertProbed(counter, firstDefunct == -1);
+					return firstDefunct;
+				}
+				return -1;
+			}
+
+			Object cached = keyCache[pos];
+
+			// If an empty position is found before the key, it doesn't exist in the table
+			if (cached == null) {
+				if (!insert) {
+					return -1;
+				}
+				insertProbed(counter, false);
+				// Reuse the first defunct passed if there was one
+				return firstDefunct != -1 ? firstDefunct : pos;
+			}
+
+			if (cached == DEFUNCT) {
+				// Mark the first defunct position and continue searching only for the keys existence
+				if (firstDefunct == -1) {
+					firstDefunct = pos;
+				}
+			} else if (cached.equals(key)) {
+				if (insert) {
+					insertProbed(counter, false);
+				}
+				return pos;
+			}
+		}
+	}
+
+	// Returns the position to put key in, its own if it is already stored, growing the table if there is none
+	final int insertPosition(Object key) {
+		int insertPos = probe(key, true);
+
+		// -1 indicates a total failure to find a cell, so make room and try again
+		while (insertPos == -1) {
+			resize(2 * keyCache.length + 1);
+			insertPos = probe(key, true);
+		}
+		return insertPos;
+	}
+
+	// Returns whether the position returned by insertPosition holds a live key, whose value is then to be replaced
+	final boolean isLive(int pos) {
+		return keyCache[pos] != null && keyCache[pos] != DEFUNCT;
+	}
+
+	// Stores key at the position returned by insertPosition, once its value is there, then makes room if the table
+	// is getting full. Keeps probe chains short: grows if most of the table is live keys, otherwise clears out defuncts
+	final void inserted(int pos, Object key) {
+		if (keyCache[pos] == DEFUNCT) {
+			defunctCount--;
+		}
+		nodeCount++;
+		keyCache[pos] = key;
+
+		if (nodeCount + defunctCount > keyCache.length * MAX_LOAD_FACTOR) {
+			if (nodeCount > keyCache.length * GROW_LOAD_FACTOR) {
+				resize(2 * keyCache.length + 1);
+			} else {
+				compact();
+			}
+		}
+	}
+
+	// Marks the key at pos as removed, once its value has been read, compacting if defuncts fill too much of the table
+	final void removed(int pos) {
+		keyCache[pos] = DEFUNCT;
+		nodeCount--;
+		defunctCount++;
+
+		if (defunctCount > keyCache.length * MAX_DEFUNCT_FACTOR) {
+			compact();
+		}
+	}
+
+	// Moves every key and value into new caches of the smallest prime capacity of at least the given capacity,
+	// dropping defunct positions. The hash parameters are recomputed whenever the capacity changes,
+	// so both hashes cover the new capacity
+	private void resize(int capacity) {
+		Object[] oldKeys = keyCache;
+		capacity = nextPrime(Math.max(capacity, MIN_CAPACITY));
+
+		if (capacity != oldKeys.length) {
+			modulus = capacity;
+			// A prime step smaller than the prime capacity visits every position before repeating
+			secondaryModulus = previousPrime(capacity - 1);
+		}
+		keyCache = new Object[capacity];
+		Object oldValues = newValues(capacity);
+		nodeCount = 0;
+		defunctCount = 0;
+		resizes++;
+
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != null && oldKeys[i] != DEFUNCT) {
+				int pos = emptyCell(oldKeys[i], null);
+				keyCache[pos] = oldKeys[i];
+				moveValue(oldValues, i, pos);
+				nodeCount++;
+			}
+		}
+	}
+
+	/* Removes all defunct positions without allocating new caches
+	*  Every remaining key is moved to the first position on its probe sequence that is empty or holds a key not
+	*  yet moved, swapping places with the key there, which is then moved in the same way from where it now is
+	*  Moved positions are tracked in a bitmap, one bit per position */
+	private void compact() {
+		long[] placed = new long[(keyCache.length + 63) >>> 6];
+
+		for (int i = 0; i < keyCache.length; i++) {
+			if (keyCache[i] == DEFUNCT) {
+				keyCache[i] = null;
+			}
+		}
+		defunctCount = 0;
+		compactions++;
+
+		for (int i = 0; i < keyCache.length; i++) {
+			while (keyCache[i] != null && (placed[i >>> 6] & (1L << i)) == 0) {
+				int pos = emptyCell(keyCache[i], placed);
+
+				// The probe sequence could not reach a free position, so fall back to larger caches
+				// with hash parameters that reach every position
+				if (pos == -1) {
+					resize(2 * keyCache.length + 1);
+					return;
+				}
+
+				placed[pos >>> 6] |= 1L << pos;
+
+				if (pos != i) {
+					Object displaced = keyCache[pos];
+					keyCache[pos] = keyCache[i];
+					keyCache[i] = displaced;
+					swapValues(i, pos);
+				}
+			}
+		}
+	}
+
+	// Returns the first position on the probe sequence of key that is empty, or (if placed is given)
+	// that holds a key not yet placed. Returns -1 if the probe sequence has no such position
+	private int emptyCell(Object key, long[] placed) {
+		int hash = primaryHash(key);
+		int secHash = stepHash(key);
+		int startPos = hash % keyCache.length;
+
+		for (int counter = 0; ; counter++) {
+			int pos = (hash + counter * secHash) % keyCache.length;
+
+			if (counter != 0 && pos == startPos) {
+				return -1;
+			}
+			if (keyCache[pos] == null || (placed != null && (placed[pos >>> 6] & (1L << pos)) == 0)) {
+				return pos;
+			}
+		}
+	}
+
+	// Returns the smallest prime greater than or equal to n
+	private static int nextPrime(int n) {
+		while (!isPrime(n)) {
+			n++;
+		}
+		return n;
+	}
+
+	// Returns the largest prime less than or equal to n, or 2 if there is none
+	private static int previousPrime(int n) {
+		while (n > 2 && !isPrime(n)) {
+			n--;
+		}
+		return Math.max(n, 2);
+	}
+
+	private static boolean isPrime(int n) {
+		if (n < 2) {
+			return false;
+		}
+		for (int i = 2; (long) i * i <= n; i++) {
+			if (n % i == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,114 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/* Fixed pool of worker threads for CPU-bound password hashing, with a bounded queue of waiting tasks
+*  Slow hashes run here instead of on the threads submitting them, which only ever wait on the returned future
+*  Once the queue is full further tasks are rejected straight away rather than queued without bound,
+*  and the queue depth can be watched to see how far hashing is falling behind */
+public class HashExecutor {
+	// Tasks that may wait for a worker, per worker thread, by default
+	private static final int QUEUE_PER_THREAD = 256;
+
+	private final ThreadPoolExecutor pool;
+	private final int queueCapacity;
+	private final AtomicLong rejected = new AtomicLong();
+
+	// Constructs an executor with one worker per available processor
+	public HashExecutor(){
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	public HashExecutor(int threads){
+		this(threads, threads * QUEUE_PER_THREAD);
+	}
+
+	// Constructs an executor with the given number of workers, and room for queueCapacity tasks to wait for them
+	public HashExecutor(int threads, int queueCapacity){
+		if (threads < 1 || queueCapacity < 1){
+			throw new IllegalArgumentException();
+		}
+
+		this.queueCapacity = queueCapacity;
+		pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueCapacity), new WorkerFactory());
+	}
+
+	// Runs task on a worker, returning a future completed with its result or the exception it threw
+	// If the queue is full the future is completed at once with a RejectedExecutionException
+	public <T> CompletableFuture<T> submit(Supplier<T> task){
+		if (task == null){
+			throw new IllegalArgumentException();
+		}
+
+		CompletableFuture<T> result = new CompletableFuture<T>();
+
+		try {
+			pool.execute(() -> {
+				try {
+					result.complete(task.get());
+				} catch (Throwable e){
+					result.completeExceptionally(e);
+				}
+			});
+		} catch (RejectedExecutionException e){
+			rejected.incrementAndGet();
+			result.completeExceptionally(e);
+		}
+
+		return result;
+	}
+
+	// Returns the number of tasks waiting for a worker
+	public int queueDepth(){
+		return pool.getQueue().size();
+	}
+
+	public int queueCapacity(){
+		return queueCapacity;
+	}
+
+	public int threads(){
+		return pool.getCorePoolSize();
+	}
+
+	// Returns the number of workers currently running a task
+	public int activeCount(){
+		return pool.getActiveCount();
+	}
+
+	// Returns the approximate number of tasks that have finished
+	public long completedCount(){
+		return pool.getCompletedTaskCount();
+	}
+
+	// Returns the number of tasks turned away because the queue was full
+	public long rejectedCount(){
+		return rejected.get();
+	}
+
+	// Stops accepting tasks, letting those already submitted finish
+	public void shutdown(){
+		pool.shutdown();
+	}
+
+	// Names the workers, and makes them daemon threads so an executor left running never keeps the JVM alive
+	private static class WorkerFactory implements ThreadFactory {
+		private static final AtomicInteger POOLS = new AtomicInteger();
+
+		private final int pool = POOLS.incrementAndGet();
+		private final AtomicInteger workers = new AtomicInteger();
+
+		public Thread newThread(Runnable task){
+			Thread worker = new Thread(task, "password-hasher-" + pool + "-" + workers.incrementAndGet());
+			worker.setDaemon(true);
+			return worker;
+		}
+	}
+}
@@ -0,0 +1,1189 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/* Thread-safe store keeping its users outside the Java heap, for userbases so large that the heap, and the time
+*  the collector spends tracing it, would be taken up by users
+*  Every user is a record of its username, hashes and app passwords in direct ByteBuffer slabs, indexed by a
+*  skip-list whose nodes live in the same slabs, so the heap holds the slabs and a few arrays however many
+*  users there are. Freed records and nodes are kept on free lists by size and reused
+*  Lookups return a User that reads and writes its record in place for as long as it is stored, and that reads
+*  as a user without passwords once it has been removed. Users put in are copied into records, and users
+*  removed or replaced are returned as copies
+*  Every access takes one read-write lock, so unlike the other thread-safe stores writes never run in parallel */
+public class OffHeapStore implements OrderedStore<String, User>{
+	// Slabs start at 1 MB and double up to 64 MB, and an address is the slab number above a 26-bit offset
+	private static final int SLAB_SHIFT = 26;
+	private static final int FIRST_SLAB_BYTES = 1 << 20;
+	private static final int MAX_HEIGHT = 24;
+	// Number of entries an iteration reads each time it takes the read lock
+	private static final int BATCH_SIZE = 64;
+	// Sizes up to this are rounded up to a multiple of 8 bytes, larger ones to a power of two
+	private static final int SMALL_BYTES = 4096;
+
+	// Node layout: record address, or the next free node while free, then generation, height and next nodes
+	private static final int NODE_RECORD = 0;
+	private static final int NODE_GENERATION = 8;
+	private static final int NODE_HEIGHT = 12;
+	private static final int NODE_NEXT = 16;
+
+	// Record layout: capacity, bytes used, user hash, app count, username length, algorithm and salt length,
+	// then the username, the salt, and for each app its name length, name, algorithm and hash
+	private static final int RECORD_CAPACITY = 0;
+	private static final int RECORD_USED = 4;
+	private static final int RECORD_HASH = 8;
+	private static final int RECORD_APPS = 16;
+	private static final int RECORD_NAME_LENGTH = 20;
+	private static final int RECORD_ALGORITHM = 22;
+	private static final int RECORD_SALT_LENGTH = 23;
+	private static final int RECORD_NAME = 24;
+	// Name length, algorithm and hash around every app name
+	private static final int APP_BYTES = 11;
+
+	// Reads 8 bytes of a byte array as a long in the byte order of the slabs
+	private static final VarHandle BIG_ENDIAN_LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	// Guarded by lock, like everything in the slabs
+	private ByteBuffer[] slabs = new ByteBuffer[8];
+	private int slabCount;
+	// Next free address in the last slab, and where that slab ends
+	private long top;
+	private long slabEnd;
+	// First free record of each size class, and first free node of each height
+	private final long[] freeRecords = new long[sizeClass(1 << SLAB_SHIFT) + 1];
+	private final long[] freeNodes = new long[MAX_HEIGHT + 1];
+	private final long head;
+	private int height = 1;
+	private int size;
+	// Last node on every level, so users added in ascending order are linked without a search
+	private final long[] tail = new long[MAX_HEIGHT];
+	// Last node before the key searched for on every level, filled in by find for the write in progress
+	private final long[] update = new long[MAX_HEIGHT];
+	private long liveBytes;
+	// Algorithms are stored in records by their position here
+	private String[] algorithms = new String[4];
+	private int algorithmCount;
+
+	// Constructs an empty store, which allocates its first slab straight away
+	public OffHeapStore(){
+		addSlab(0);
+		// Address 0 stands for no node, so nothing is allocated there
+		top = 8;
+		head = allocateNode(MAX_HEIGHT);
+		Arrays.fill(tail, head);
+	}
+
+	// Returns the bytes of slab memory allocated outside the heap
+	public long allocatedBytes(){
+		lock.readLock().lock();
+
+		try {
+			long bytes = 0;
+			for (int i = 0; i < slabCount; i++){
+				bytes += slabs[i].capacity();
+			}
+			return bytes;
+		} finally{
+			lock.readLock().unlock();
+		}
+	}
+
+	// Returns the bytes of slab memory holding stored users, their index nodes included
+	public long liveBytes(){
+		lock.readLock().lock();
+
+		try {
+			return liveBytes;
+		} finally{
+			lock.readLock().unlock();
+		}
+	}
+
+	public int size(){
+		lock.readLock().lock();
+
+		try {
+			return size;
+		} finally{
+			lock.readLock().unlock();
+		}
+	}
+
+	public boolean isEmpty(){
+		return size() == 0;
+	}
+
+	// Returns all keys stored, in order
+	public List<String> keys(){
+		List<String> keys = new ArrayList<String>();
+		Iterator<String> all = keys(null, true, null, true);
+
+		while (all.hasNext()){
+			keys.add(all.next());
+		}
+		return keys;
+	}
+
+	// Returns the keys from from to to in order, read a batch at a time
+	// A null bound leaves that end of the range open
+	public Iterator<String> keys(String from, boolean fromInclusive, String to, boolean toInclusive){
+		final Iterator<Map.Entry<String, User>> entries = new EntryIterator(from, fromInclusive, to, toInclusive);
+
+		return new Iterator<String>(){
+			public boolean hasNext(){
+				return entries.hasNext();
+			}
+
+			public String next(){
+				return entries.next().getKey();
+			}
+		};
+	}
+
+	// Returns the entries in key order, read a batch at a time, each batch under the read lock
+	public Iterator<Map.Entry<String, User>> iterator(){
+		return new EntryIterator(null, true, null, true);
+	}
+
+	// Returns a spliterator over the entries in key order, which splits by handing off batches of them
+	// Its size is estimated from the size when it is made, as the store may change while it is in use
+	public Spliterator<Map.Entry<String, User>> spliterator(){
+		return new SortedEntrySpliterator<String, User>(iterator(), size());
+	}
+
+	// Returns up to limit keys in order, starting with the key at position offset
+	// Nodes do not record their position, so the keys before offset are walked over one by one
+	public List<String> range(int offset, int limit){
+		if (offset < 0 || limit < 0){
+			throw new IllegalArgumentException();
+		}
+
+		List<String> keys = new ArrayList<String>();
+		Iterator<String> all = keys(null, true, null, true);
+
+		for (int skipped = 0; skipped < offset && all.hasNext(); skipped++){
+			all.next();
+		}
+		while (keys.size() < limit && all.hasNext()){
+			keys.add(all.next());
+		}
+		return keys;
+	}
+
+	public boolean containsKey(String key){
+		return get(key) != null;
+	}
+
+	// Returns the user stored with key, reading and writing its record, or null if there is none
+	public User get(String key){
+		if (key == null){
+			throw new IllegalArgumentException();
+		}
+
+		lock.readLock().lock();
+
+		try {
+			long node = findNode(key);
+			return node == 0 ? null : new StoredUser(key, node);
+		} finally{
+			lock.readLock().unlock();
+		}
+	}
+
+	// Returns the users stored with the given keys in ascending order, null for keys that are not stored
+	public List<User> getAll(List<String> sortedKeys){
+		checkAscending(sortedKeys);
+		List<User> users = new ArrayList<User>(sortedKeys.size());
+		lock.readLock().lock();
+
+		try {
+			for (String key : sortedKeys){
+				long node = findNode(key);
+				users.add(node == 0 ? null : new StoredUser(key, node));
+			}
+		} finally{
+			lock.readLock().unlock();
+		}
+		return users;
+	}
+
+	public boolean containsAll(List<String> sortedKeys){
+		checkAscending(sortedKeys);
+		lock.readLock().lock();
+
+		try {
+			for (String key : sortedKeys){
+				if (findNode(key) == 0){
+					return false;
+				}
+			}
+			return true;
+		} finally{
+			lock.readLock().unlock();
+		}
+	}
+
+	private static void checkAscending(List<String> sortedKeys){
+		if (sortedKeys == null){
+			throw new IllegalArgumentException();
+		}
+
+		String previous = null;
+
+		for (String key : sortedKeys){
+			if (key == null){
+				throw new IllegalArgumentException();
+			}
+			if (previous != null && previous.compareTo(key) > 0){
+				throw new IllegalArgumentException("Keys are not in ascending order at " + key);
+			}
+			previous = key;
+		}
+	}
+
+	// Stores a copy of the user with key, returning a copy of the user it replaced or null
+	public User put(String key, User value){
+		return put(key, value, true);
+	}
+
+	// Stores a copy of the user with key unless key is stored, returning the user stored or null
+	public User putIfAbsent(String key, User value){
+		return put(key, value, false);
+	}
+
+	private User put(String key, User value, boolean replace){
+		if (key == null || value == null){
+			throw new IllegalArgumentException();
+		}
+		if (!key.equals(value.getUsername())){
+			throw new IllegalArgumentException("Users are stored by their username");
+		}
+
+		lock.writeLock().lock();
+
+		try {
+			long node = find(key);
+
+			if (node != 0){
+				if (!replace){
+					return new StoredUser(key, node);
+				}
+				long old = getLong(node + NODE_RECORD);
+				User previous = readUser(old);
+				putLong(node + NODE_RECORD, writeRecord(value, 0));
+				freeRecord(old);
+				// Users found before read as removed rather than as the user replacing them
+				putInt(node + NODE_GENERATION, getInt(node + NODE_GENERATION) + 1);
+				return previous;
+			}
+
+			// The record is written first, as a user that cannot be written must leave the store unchanged
+			long record = writeRecord(value, 0);
+			int nodeHeight = randomHeight();
+			node = allocateNode(nodeHeight);
+			putLong(node + NODE_RECORD, record);
+
+			if (nodeHeight > height){
+				for (int level = height; level < nodeHeight; level++){
+					update[level] = head;
+				}
+				height = nodeHeight;
+			}
+
+			for (int level = 0; level < nodeHeight; level++){
+				putLong(node + NODE_NEXT + 8 * level, nextNode(update[level], level));
+				putLong(update[level] + NODE_NEXT + 8 * level, node);
+				if (tail[level] == update[level]){
+					tail[level] = node;
+				}
+			}
+			size++;
+			return null;
+		} finally{
+			lock.writeLock().unlock();
+		}
+	}
+
+	public User remove(String key){
+		return remove(key, null);
+	}
+
+	// Removes key if its user satisfies condition, or always if condition is null, testing it under the write lock
+	// Returns a copy of the user if it was removed, the stored user if it was not, or null if key is not stored
+	public User remove(String key, Predicate<? super User> condition){
+		if (key == null){
+			throw new IllegalArgumentException();
+		}
+
+		lock.writeLock().lock();
+
+		try {
+			long node = find(key);
+
+			if (node == 0){
+				return null;
+			}
+
+			StoredUser stored = new StoredUser(key, node);
+
+			if (condition != null && !condition.test(stored)){
+				return stored;
+			}
+
+			User removed = stored.copy();
+			int nodeHeight = getInt(node + NODE_HEIGHT);
+
+			for (int level = 0; level < nodeHeight; level++){
+				putLong(update[level] + NODE_NEXT + 8 * level, nextNode(node, level));
+				if (tail[level] == node){
+					tail[level] = update[level];
+				}
+			}
+			while (height > 1 && nextNode(head, height - 1) == 0){
+				height--;
+			}
+
+			freeRecord(getLong(node + NODE_RECORD));
+			freeNode(node, nodeHeight);
+			size--;
+			return removed;
+		} finally{
+			lock.writeLock().unlock();
+		}
+	}
+
+	// Returns the node holding key, or 0 if there is none. Needs the read lock
+	private long findNode(String key){
+		byte[] bytes = searchBytes(key);
+		long node = head;
+
+		for (int level = height - 1; level >= 0; level--){
+			long next = nextNode(node, level);
+			int comparison = 1;
+
+			while (next != 0 && (comparison = compare(key, bytes, getLong(next + NODE_RECORD))) > 0){
+				node = next;
+				next = nextNode(node, level);
+			}
+			if (next != 0 && comparison == 0){
+				return next;
+			}
+		}
+		return 0;
+	}
+
+	// Returns the node holding key, or 0 if there is none, leaving the last node before key on every level in update
+	// A key after the last one is found from the tail without a search. Needs the write lock
+	private long find(String key){
+		byte[] bytes = searchBytes(key);
+		long last = tail[0];
+
+		if (last != head && compare(key, bytes, getLong(last + NODE_RECORD)) > 0){
+			System.arraycopy(tail, 0, update, 0, MAX_HEIGHT);
+			return 0;
+		}
+
+		long node = head;
+		long found = 0;
+
+		for (int level = MAX_HEIGHT - 1; level >= 0; level--){
+			if (level >= height){
+				update[level] = head;
+				continue;
+			}
+
+			long next = nextNode(node, level);
+			int comparison = 1;
+
+			while (next != 0 && (comparison = compare(key, bytes, getLong(next + NODE_RECORD))) > 0){
+				node = next;
+				next = nextNode(node, level);
+			}
+			update[level] = node;
+			if (next != 0 && comparison == 0){
+				found = next;
+			}
+		}
+		return found;
+	}
+
+	private long nextNode(long node, int level){
+		return getLong(node + NODE_NEXT + 8 * level);
+	}
+
+	// Returns a height from 1 to MAX_HEIGHT, each level a quarter as likely as the one below, for 1.33 links per node
+	private static int randomHeight(){
+		long bits = ThreadLocalRandom.current().nextLong();
+		return Math.min(Long.numberOfTrailingZeros(bits | (1L << 62)) / 2 + 1, MAX_HEIGHT);
+	}
+
+	/* Returns the UTF-8 encoding of a key to search for, or null if it has a character from U+D800 up
+	*  UTF-8 bytes compare in code point order, which only differs from the order of String.compareTo where
+	*  a supplementary character meets one from U+E000 to U+FFFF, so a key below U+D800 throughout can be
+	*  compared as bytes with any username */
+	private static byte[] searchBytes(String key){
+		for (int i = 0; i < key.length(); i++){
+			if (key.charAt(i) >= 0xd800){
+				return null;
+			}
+		}
+		return key.getBytes(StandardCharsets.UTF_8);
+	}
+
+	// Compares key with a record's username, as bytes 8 at a time if searchBytes gave bytes for it
+	private int compare(String key, byte[] bytes, long record){
+		if (bytes == null){
+			return compare(key, record);
+		}
+
+		ByteBuffer slab = slab(record);
+		int at = offset(record) + RECORD_NAME;
+		int length = slab.getShort(at - RECORD_NAME + RECORD_NAME_LENGTH) & 0xffff;
+		int common = Math.min(bytes.length, length);
+		int i = 0;
+
+		for (; i + 8 <= common; i += 8){
+			long a = (long) BIG_ENDIAN_LONG.get(bytes, i);
+			long b = slab.getLong(at + i);
+			if (a != b){
+				return Long.compareUnsigned(a, b);
+			}
+		}
+		for (; i < common; i++){
+			int a = bytes[i] & 0xff;
+			int b = slab.get(at + i) & 0xff;
+			if (a != b){
+				return a - b;
+			}
+		}
+		return bytes.length - length;
+	}
+
+	/* Compares key with a record's UTF-8 username in the order of String.compareTo, decoding the username
+	*  into UTF-16 as it goes, which orders supplementary characters differently from comparing UTF-8 bytes */
+	private int compare(String key, long record){
+		ByteBuffer slab = slab(record);
+		int at = offset(record);
+		return compare(key, slab, at + RECORD_NAME, slab.getShort(at + RECORD_NAME_LENGTH) & 0xffff);
+	}
+
+	private static int compare(String key, ByteBuffer slab, int at, int length){
+		int end = at + length;
+		int i = 0;
+		// Second half of a supplementary character whose first half has been compared
+		char low = 0;
+		boolean pending = false;
+
+		while (i < key.length()){
+			char c;
+
+			if (pending){
+				c = low;
+				pending = false;
+			} else if (at == end){
+				return 1;
+			} else{
+				int b = slab.get(at) & 0xff;
+
+				if (b < 0x80){
+					c = (char) b;
+					at++;
+				} else if (b < 0xe0){
+					c = (char) (((b & 0x1f) << 6) | (slab.get(at + 1) & 0x3f));
+					at += 2;
+				} else if (b < 0xf0){
+					c = (char) (((b & 0x0f) << 12) | ((slab.get(at + 1) & 0x3f) << 6) | (slab.get(at + 2) & 0x3f));
+					at += 3;
+				} else{
+					int codePoint = ((b & 0x07) << 18) | ((slab.get(at + 1) & 0x3f) << 12)
+							| ((slab.get(at + 2) & 0x3f) << 6) | (slab.get(at + 3) & 0x3f);
+					c = Character.highSurrogate(codePoint);
+					low = Character.lowSurrogate(codePoint);
+					pending = true;
+					at += 4;
+				}
+			}
+
+			char k = key.charAt(i++);
+			if (k != c){
+				return k - c;
+			}
+		}
+		return pending || at < end ? -1 : 0;
+	}
+
+	// Returns the WTF-8 encoding of s, which keeps every username the heap stores take, even one holding a surrogate
+	// without its pair. Such bytes decode back to the same char in compare and string, and sort where the char does
+	private static byte[] utf8(String s){
+		return Wtf8.encode(s);
+	}
+
+	// Decodes bytes written by utf8
+	private static String string(ByteBuffer slab, int at, int length){
+		byte[] bytes = new byte[length];
+		slab.get(at, bytes);
+		return Wtf8.decode(bytes, 0, length);
+	}
+
+	// Returns the position of algorithm, adding it if it is new. Needs the write lock
+	private int algorithmNumber(String algorithm){
+		for (int i = 0; i < algorithmCount; i++){
+			if (algorithms[i].equals(algorithm)){
+				return i;
+			}
+		}
+		if (algorithmCount == 256){
+			throw new IllegalStateException("Too many algorithms");
+		}
+		if (algorithmCount == algorithms.length){
+			algorithms = Arrays.copyOf(algorithms, algorithmCount * 2);
+		}
+		algorithms[algorithmCount] = algorithm;
+		return algorithmCount++;
+	}
+
+	// Writes a new record of the given user with room for at least minBytes, returning its address. Needs the write lock
+	private long writeRecord(User usr, int minBytes){
+		byte[] name = utf8(usr.getUsername());
+		byte[] salt = usr.getSalt();
+		List<String> appNames = usr.getAppNames();
+		byte[][] appBytes = new byte[appNames.size()][];
+		int used = RECORD_NAME + name.length + (salt == null ? 0 : salt.length);
+
+		if (name.length > 0xffff || (salt != null && salt.length > 0xff)){
+			throw new IllegalArgumentException("Username or salt too long for " + usr.getUsername());
+		}
+		for (int i = 0; i < appBytes.length; i++){
+			appBytes[i] = utf8(appNames.get(i));
+			if (appBytes[i].length > 0xffff){
+				throw new IllegalArgumentException("App name too long for " + usr.getUsername());
+			}
+			used += APP_BYTES + appBytes[i].length;
+		}
+
+		long record = allocateRecord(Math.max(used, minBytes));
+		ByteBuffer slab = slab(record);
+		int at = offset(record);
+
+		slab.putInt(at + RECORD_USED, used);
+		slab.putLong(at + RECORD_HASH, usr.getUserPasswordHash());
+		slab.putInt(at + RECORD_APPS, appBytes.length);
+		slab.putShort(at + RECORD_NAME_LENGTH, (short) name.length);
+		slab.put(at + RECORD_ALGORITHM, (byte) algorithmNumber(usr.getAlgorithm()));
+		slab.put(at + RECORD_SALT_LENGTH, (byte) (salt == null ? 0 : salt.length));
+		slab.put(at + RECORD_NAME, name);
+
+		int position = at + RECORD_NAME + name.length;
+		if (salt != null){
+			slab.put(position, salt);
+			position += salt.length;
+		}
+
+		for (int i = 0; i < appBytes.length; i++){
+			String appName = appNames.get(i);
+			slab.putShort(position, (short) appBytes[i].length);
+			slab.put(position + 2, appBytes[i]);
+			position += 2 + appBytes[i].length;
+			slab.put(position, (byte) algorithmNumber(usr.getAlgorithm(appName)));
+			slab.putLong(position + 1, usr.getPasswordHash(appName));
+			position += 9;
+		}
+		return record;
+	}
+
+	// Returns an on-heap copy of the user in a record. Needs the read lock
+	private User readUser(long record){
+		ByteBuffer slab = slab(record);
+		int at = offset(record);
+		int nameLength = slab.getShort(at + RECORD_NAME_LENGTH) & 0xffff;
+		int saltLength = slab.get(at + RECORD_SALT_LENGTH) & 0xff;
+		byte[] salt = null;
+
+		if (saltLength > 0){
+			salt = new byte[saltLength];
+			slab.get(at + RECORD_NAME + nameLength, salt);
+		}
+
+		User usr = new User(string(slab, at + RECORD_NAME, nameLength), algorithms[slab.get(at + RECORD_ALGORITHM) & 0xff], salt);
+		usr.setUserPassword(slab.getLong(at + RECORD_HASH));
+		int apps = slab.getInt(at + RECORD_APPS);
+		usr.reserveApps(apps);
+		int position = at + RECORD_NAME + nameLength + saltLength;
+
+		for (int i = 0; i < apps; i++){
+			int length = slab.getShort(position) & 0xffff;
+			String appName = string(slab, position + 2, length);
+			position += 2 + length;
+			usr.setPassword(appName, slab.getLong(position + 1), algorithms[slab.get(position) & 0xff]);
+			position += 9;
+		}
+		return usr;
+	}
+
+	// Returns the position in its slab of the algorithm byte of a record's app, followed by its hash, or -1
+	private int appPosition(long record, String appName){
+		ByteBuffer slab = slab(record);
+		int at = offset(record);
+		int apps = slab.getInt(at + RECORD_APPS);
+		int position = at + RECORD_NAME + (slab.getShort(at + RECORD_NAME_LENGTH) & 0xffff) + (slab.get(at + RECORD_SALT_LENGTH) & 0xff);
+
+		for (int i = 0; i < apps; i++){
+			int length = slab.getShort(position) & 0xffff;
+
+			if (compare(appName, slab, position + 2, length) == 0){
+				return position + 2 + length;
+			}
+			position += 2 + length + 9;
+		}
+		return -1;
+	}
+
+	// Sizes of at most SMALL_BYTES go up in steps of 8 bytes, larger ones in powers of two
+	private static int sizeClass(int bytes){
+		if (bytes <= SMALL_BYTES){
+			return (bytes + 7) >>> 3;
+		}
+		return (SMALL_BYTES >>> 3) + (32 - Integer.numberOfLeadingZeros(bytes - 1)) - 12;
+	}
+
+	private static int classBytes(int sizeClass){
+		if (sizeClass <= SMALL_BYTES >>> 3){
+			return sizeClass << 3;
+		}
+		return 1 << (sizeClass - (SMALL_BYTES >>> 3) + 12);
+	}
+
+	// Returns the address of a free record with room for at least the given bytes, its capacity recorded in it
+	private long allocateRecord(int bytes){
+		int sizeClass = sizeClass(bytes);
+		int capacity = classBytes(sizeClass);
+		long record = freeRecords[sizeClass];
+
+		if (record != 0){
+			freeRecords[sizeClass] = getLong(record);
+		} else{
+			record = allocate(capacity);
+		}
+		putInt(record + RECORD_CAPACITY, capacity);
+		liveBytes += capacity;
+		return record;
+	}
+
+	private void freeRecord(long record){
+		int capacity = getInt(record + RECORD_CAPACITY);
+		int sizeClass = sizeClass(capacity);
+		putLong(record, freeRecords[sizeClass]);
+		freeRecords[sizeClass] = record;
+		liveBytes -= capacity;
+	}
+
+	// Returns the address of a node with the given height and no next nodes
+	// Nodes are only ever reused as nodes of the same height, so their generation carries on counting
+	private long allocateNode(int nodeHeight){
+		long node = freeNodes[nodeHeight];
+		int bytes = NODE_NEXT + 8 * nodeHeight;
+
+		if (node != 0){
+			freeNodes[nodeHeight] = getLong(node);
+		} else{
+			node = allocate(bytes);
+			putInt(node + NODE_GENERATION, 0);
+		}
+
+		putInt(node + NODE_HEIGHT, nodeHeight);
+		for (int level = 0; level < nodeHeight; level++){
+			putLong(node + NODE_NEXT + 8 * level, 0);
+		}
+		liveBytes += bytes;
+		return node;
+	}
+
+	// Frees a node, advancing its generation so that users found at it read as removed
+	private void freeNode(long node, int nodeHeight){
+		putInt(node + NODE_GENERATION, getInt(node + NODE_GENERATION) + 1);
+		putLong(node, freeNodes[nodeHeight]);
+		freeNodes[nodeHeight] = node;
+		liveBytes -= NODE_NEXT + 8 * nodeHeight;
+	}
+
+	// Returns the address of the given number of new bytes, 8-byte aligned, from the end of the last slab
+	private long allocate(int bytes){
+		if (bytes > 1 << SLAB_SHIFT){
+			throw new IllegalArgumentException("Cannot allocate " + bytes + " bytes");
+		}
+		bytes = (bytes + 7) & ~7;
+
+		if (top + bytes > slabEnd){
+			addSlab(bytes);
+		}
+
+		long address = top;
+		top += bytes;
+		return address;
+	}
+
+	// Starts a new slab with room for at least the given bytes, abandoning what is left of the last one
+	private void addSlab(int bytes){
+		if (slabCount == slabs.length){
+			slabs = Arrays.copyOf(slabs, slabCount * 2);
+		}
+
+		int slabBytes = Math.max((int) Math.min((long) FIRST_SLAB_BYTES << Math.min(slabCount, 6), 1 << SLAB_SHIFT), bytes);
+		slabs[slabCount] = ByteBuffer.allocateDirect(slabBytes);
+		top = (long) slabCount << SLAB_SHIFT;
+		slabEnd = top + slabBytes;
+		slabCount++;
+	}
+
+	private ByteBuffer slab(long address){
+		return slabs[(int) (address >>> SLAB_SHIFT)];
+	}
+
+	private static int offset(long address){
+		return (int) address & ((1 << SLAB_SHIFT) - 1);
+	}
+
+	private long getLong(long address){
+		return slab(address).getLong(offset(address));
+	}
+
+	private int getInt(long address){
+		return slab(address).getInt(offset(address));
+	}
+
+	private void putLong(long address, long value){
+		slab(address).putLong(offset(address), value);
+	}
+
+	private void putInt(long address, int value){
+		slab(address).putInt(offset(address), value);
+	}
+
+	/* User read from and written to the record of the node it was found at, for as long as the node holds it
+	*  Every method takes the store's lock. Once removed, the user reads as a djb2 user without passwords,
+	*  and changing it fails. The inherited fields are not used beyond the username */
+	private class StoredUser extends User {
+		private final long node;
+		private final int generation;
+
+		StoredUser(String username, long node){
+			super(username);
+			this.node = node;
+			this.generation = getInt(node + NODE_GENERATION);
+		}
+
+		// Returns the user's record, or 0 if it has been removed. Needs the lock
+		private long record(){
+			return getInt(node + NODE_GENERATION) == generation ? getLong(node + NODE_RECORD) : 0;
+		}
+
+		boolean isRemoved(){
+			lock.readLock().lock();
+
+			try {
+				return record() == 0;
+			} finally{
+				lock.readLock().unlock();
+			}
+		}
+
+		// Removal is done by the store, which already makes the user read as removed
+		void markRemoved(){
+		}
+
+		public long getUserPasswordHash(){
+			lock.readLock().lock();
+
+			try {
+				long record = record();
+				return record == 0 ? StringLongHashMap.NO_VALUE : getLong(record + RECORD_HASH);
+			} finally{
+				lock.readLock().unlock();
+			}
+		}
+
+		public Long getUserPassword(){
+			long hash = getUserPasswordHash();
+			return hash == StringLongHashMap.NO_VALUE ? null : hash;
+		}
+
+		public String getAlgorithm(){
+			lock.readLock().lock();
+
+			try {
+				long record = record();
+				return record == 0 ? Djb2Hasher.ALGORITHM : algorithms[slab(record).get(offset(record) + RECORD_ALGORITHM) & 0xff];
+			} finally{
+				lock.readLock().unlock();
+			}
+		}
+
+		public byte[] getSalt(){
+			lock.readLock().lock();
+
+			try {
+				long record = record();
+				if (record == 0){
+					return null;
+				}
+
+				ByteBuffer slab = slab(record);
+				int at = offset(record);
+				int length = slab.get(at + RECORD_SALT_LENGTH) & 0xff;
+
+				if (length == 0){
+					return null;
+				}
+				byte[] salt = new byte[length];
+				slab.get(at + RECORD_NAME + (slab.getShort(at + RECORD_NAME_LENGTH) & 0xffff), salt);
+				return salt;
+			} finally{
+				lock.readLock().unlock();
+			}
+		}
+
+		// Salts are compared by content, since getSalt returns a new copy each time
+		public boolean adoptSalt(byte[] salt){
+			if (salt == null){
+				return true;
+			}
+
+			lock.writeLock().lock();
+
+			try {
+				long record = changing();
+				int length = slab(record).get(offset(record) + RECORD_SALT_LENGTH) & 0xff;
+
+				if (length != 0){
+					return Arrays.equals(getSalt(), salt);
+				}
+
+				// The salt goes before the apps, so the record is written again with it
+				User usr = readUser(record);
+				usr.adoptSalt(salt);
+				replaceRecord(record, usr);
+				return true;
+			} finally{
+				lock.writeLock().unlock();
+			}
+		}
+
+		public void setUserPassword(long newPwd){
+			lock.writeLock().lock();
+
+			try {
+				putLong(changing() + RECORD_HASH, newPwd);
+			} finally{
+				lock.writeLock().unlock();
+			}
+		}
+
+		public void setUserPassword(long newPwd, String algorithm){
+			if (algorithm == null){
+				throw new IllegalArgumentException();
+			}
+
+			lock.writeLock().lock();
+
+			try {
+				long record = changing();
+				putLong(record + RECORD_HASH, newPwd);
+				slab(record).put(offset(record) + RECORD_ALGORITHM, (byte) algorithmNumber(algorithm));
+			} finally{
+				lock.writeLock().unlock();
+			}
+		}
+
+		public long getPasswordHash(String appName){
+			if (appName == null){
+				return StringLongHashMap.NO_VALUE;
+			}
+
+			lock.readLock().lock();
+
+			try {
+				long record = record();
+				int position = record == 0 ? -1 : appPosition(record, appName);
+				return position == -1 ? StringLongHashMap.NO_VALUE : slab(record).getLong(position + 1);
+			} finally{
+				lock.readLock().unlock();
+			}
+		}
+
+		public Long getPassword(String appName){
+			long hash = getPasswordHash(appName);
+			return hash == StringLongHashMap.NO_VALUE ? null : hash;
+		}
+
+		public String getAlgorithm(String appName){
+			if (appName == null){
+				return null;
+			}
+
+			lock.readLock().lock();
+
+			try {
+				long record = record();
+				int position = record == 0 ? -1 : appPosition(record, appName);
+				return position == -1 ? null : algorithms[slab(record).get(position) & 0xff];
+			} finally{
+				lock.readLock().unlock();
+			}
+		}
+
+		public boolean containsApp(String appName){
+			if (appName == null){
+				throw new IllegalArgumentException();
+			}
+			return getAlgorithm(appName) != null;
+		}
+
+		public int numberApps(){
+			lock.readLock().lock();
+
+			try {
+				long record = record();
+				return record == 0 ? 0 : getInt(record + RECORD_APPS);
+			} finally{
+				lock.readLock().unlock();
+			}
+		}
+
+		public List<String> getAppNames(){
+			return copy().getAppNames();
+		}
+
+		public List<String> getAppAlgorithms(){
+			return copy().getAppAlgorithms();
+		}
+
+		boolean appsShareAlgorithm(){
+			lock.readLock().lock();
+
+			try {
+				long record = record();
+				if (record == 0){
+					return true;
+				}
+
+				ByteBuffer slab = slab(record);
+				int at = offset(record);
+				byte algorithm = slab.get(at + RECORD_ALGORITHM);
+				int apps = slab.getInt(at + RECORD_APPS);
+				int position = at + RECORD_NAME + (slab.getShort(at + RECORD_NAME_LENGTH) & 0xffff) + (slab.get(at + RECORD_SALT_LENGTH) & 0xff);
+
+				for (int i = 0; i < apps; i++){
+					position += 2 + (slab.getShort(position) & 0xffff);
+					if (slab.get(position) != algorithm){
+						return false;
+					}
+					position += 9;
+				}
+				return true;
+			} finally{
+				lock.readLock().unlock();
+			}
+		}
+
+		// Records keep room for their apps as they are added, so there is nothing to reserve
+		void reserveApps(int apps){
+		}
+
+		public void setPassword(String appName, long passwordHash){
+			lock.writeLock().lock();
+
+			try {
+				setPassword(appName, passwordHash, getAlgorithm());
+			} finally{
+				lock.writeLock().unlock();
+			}
+		}
+
+		public void setPassword(String appName, long passwordHash, String algorithm){
+			if (appName == null || passwordHash == StringLongHashMap.NO_VALUE || algorithm == null){
+				throw new IllegalArgumentException();
+			}
+
+			lock.writeLock().lock();
+
+			try {
+				long record = changing();
+				int position = appPosition(record, appName);
+
+				if (position != -1){
+					ByteBuffer slab = slab(record);
+					slab.put(position, (byte) algorithmNumber(algorithm));
+					slab.putLong(position + 1, passwordHash);
+					return;
+				}
+
+				byte[] name = utf8(appName);
+				int used = getInt(record + RECORD_USED);
+				int needed = used + APP_BYTES + name.length;
+
+				if (name.length > 0xffff){
+					throw new IllegalArgumentException("App name too long");
+				}
+				if (needed > getInt(record + RECORD_CAPACITY)){
+					// Out of room, so the record is written again with the app, with room for as many again
+					User usr = readUser(record);
+					usr.setPassword(appName, passwordHash, algorithm);
+					replaceRecord(record, usr);
+					return;
+				}
+
+				ByteBuffer slab = slab(record);
+				int at = offset(record);
+				slab.putShort(at + used, (short) name.length);
+				slab.put(at + used + 2, name);
+				slab.put(at + used + 2 + name.length, (byte) algorithmNumber(algorithm));
+				slab.putLong(at + used + 3 + name.length, passwordHash);
+				slab.putInt(at + RECORD_USED, needed);
+				slab.putInt(at + RECORD_APPS, slab.getInt(at + RECORD_APPS) + 1);
+			} finally{
+				lock.writeLock().unlock();
+			}
+		}
+
+		// Returns a copy of the user on the heap, or a djb2 user without passwords if it has been removed
+		User copy(){
+			lock.readLock().lock();
+
+			try {
+				long record = record();
+				return record == 0 ? new User(getUsername()) : readUser(record);
+			} finally{
+				lock.readLock().unlock();
+			}
+		}
+
+		// Returns the record of a user about to be changed. Needs the write lock
+		private long changing(){
+			long record = record();
+
+			if (record == 0){
+				throw new IllegalStateException("User " + getUsername() + " has been removed");
+			}
+			return record;
+		}
+
+		// Writes usr as a new record for the node, then frees the old one. Needs the write lock
+		// The new record has half as much room again as the old one used, so apps added one by one copy it only a few times
+		private void replaceRecord(long record, User usr){
+			putLong(node + NODE_RECORD, writeRecord(usr, getInt(record + RECORD_USED) * 3 / 2));
+			freeRecord(record);
+		}
+	}
+
+	// Reads entries in a range in key order, BATCH_SIZE at a time, each batch under the read lock
+	private class EntryIterator implements Iterator<Map.Entry<String, User>> {
+		private final String to;
+		private final boolean toInclusive;
+		// Where the next batch starts, after the last key read unless nothing has been read yet
+		private String from;
+		private boolean fromInclusive;
+		private final List<Map.Entry<String, User>> batch = new ArrayList<Map.Entry<String, User>>(BATCH_SIZE);
+		private int position;
+		private boolean lastBatch;
+
+		EntryIterator(String from, boolean fromInclusive, String to, boolean toInclusive){
+			this.from = from;
+			this.fromInclusive = fromInclusive;
+			this.to = to;
+			this.toInclusive = toInclusive;
+			readBatch();
+		}
+
+		public boolean hasNext(){
+			return position < batch.size();
+		}
+
+		public Map.Entry<String, User> next(){
+			if (!hasNext()){
+				throw new NoSuchElementException();
+			}
+
+			Map.Entry<String, User> entry = batch.get(position++);
+
+			if (position == batch.size() && !lastBatch){
+				readBatch();
+			}
+			return entry;
+		}
+
+		private void readBatch(){
+			batch.clear();
+			position = 0;
+			lock.readLock().lock();
+
+			try {
+				long node = first();
+
+				while (node != 0 && batch.size() < BATCH_SIZE){
+					long record = getLong(node + NODE_RECORD);
+
+					if (to != null){
+						int comparison = compare(to, record);
+						if (comparison < 0 || (comparison == 0 && !toInclusive)){
+							node = 0;
+							break;
+						}
+					}
+
+					ByteBuffer slab = slab(record);
+					int at = offset(record);
+					String key = string(slab, at + RECORD_NAME, slab.getShort(at + RECORD_NAME_LENGTH) & 0xffff);
+					batch.add(new AbstractMap.SimpleImmutableEntry<String, User>(key, new StoredUser(key, node)));
+					node = nextNode(node, 0);
+				}
+				lastBatch = node == 0;
+			} finally{
+				lock.readLock().unlock();
+			}
+
+			if (!batch.isEmpty()){
+				from = batch.get(batch.size() - 1).getKey();
+				fromInclusive = false;
+			}
+		}
+
+		// Returns the first node at or after from, or 0 if there is none. Needs the read lock
+		private long first(){
+			long node = head;
+
+			if (from == null){
+				return nextNode(head, 0);
+			}
+
+			for (int level = height - 1; level >= 0; level--){
+				long next = nextNode(node, level);
+
+				while (next != 0){
+					int comparison = compare(from, getLong(next + NODE_RECORD));
+
+					if (comparison < 0 || (comparison == 0 && fromInclusive)){
+						break;
+					}
+					node = next;
+					next = nextNode(node, level);
+				}
+			}
+			return nextNode(node, 0);
+		}
+	}
+}
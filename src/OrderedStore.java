@@ -0,0 +1,66 @@
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+// Operations shared by the skip-lists that can back a SkipListPasswordManager
+// Iterating over a store visits its entries in key order, without copying them first
+public interface OrderedStore<K extends Comparable<K>, V> extends Iterable<Map.Entry<K, V>>{
+
+	// Returns the number of keys stored
+	int size();
+
+	// Returns whether nothing is stored
+	boolean isEmpty();
+
+	// Returns all keys stored, in order
+	List<K> keys();
+
+	// Returns the keys from from to to in order, each found only as the iterator reaches it
+	// A null bound leaves that end of the range open
+	Iterator<K> keys(K from, boolean fromInclusive, K to, boolean toInclusive);
+
+	// Returns up to limit keys in order, starting with the key at position offset
+	List<K> range(int offset, int limit);
+
+	// Returns whether key is stored
+	boolean containsKey(K key);
+
+	// Returns the value stored with key, or null if there is none
+	V get(K key);
+
+	// Returns the values stored with the given keys in ascending order, null for keys that are not stored
+	List<V> getAll(List<K> sortedKeys);
+
+	// Returns whether every one of the given keys, in ascending order, is stored
+	boolean containsAll(List<K> sortedKeys);
+
+	// Stores value with key, returning the value it replaced or null
+	V put(K key, V value);
+
+	// Stores value with key unless key is already stored, returning the value already stored or null
+	V putIfAbsent(K key, V value);
+
+	// Removes key, returning the value it had or null if it was not stored
+	V remove(K key);
+
+	// Removes key if its value satisfies condition, or always if condition is null
+	// Returns the value stored with key whether or not it was removed, or null if it was not stored
+	V remove(K key, Predicate<? super V> condition);
+
+	// Returns a spliterator over the entries in key order, which splits into ranges of about equal size
+	Spliterator<Map.Entry<K, V>> spliterator();
+
+	// Returns a stream of the entries in key order
+	default Stream<Map.Entry<K, V>> stream(){
+		return StreamSupport.stream(spliterator(), false);
+	}
+
+	// Returns a stream of the entries in key order that may be processed in parallel
+	default Stream<Map.Entry<K, V>> parallelStream(){
+		return StreamSupport.stream(spliterator(), true);
+	}
+}
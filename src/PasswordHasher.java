@@ -0,0 +1,51 @@
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/* Turns passwords into the long hashes users store
+*  Every user records the algorithm of the hasher that hashed its passwords, and the salt it was given,
+*  so it can always be verified with the same hasher however the manager's hasher changes later */
+public interface PasswordHasher {
+	// Returns the name of the algorithm, including any parameters that change the hashes it produces
+	String algorithm();
+
+	// Returns the number of random salt bytes to give each user, 0 if hashes are not salted
+	int saltLength();
+
+	// Returns the hash of the password with the given salt, which is null if saltLength is 0
+	long hash(CharSequence password, byte[] salt);
+
+	long hash(char[] password, byte[] salt);
+
+	// Returns the hash of the password encoded as UTF-8 in the remaining bytes of the buffer, leaving its position unchanged
+	// By default the bytes are decoded into a temporary character array, which is cleared once hashed
+	default long hash(ByteBuffer utf8Password, byte[] salt){
+		if (utf8Password == null){
+			throw new IllegalArgumentException();
+		}
+
+		CharBuffer decoded;
+
+		try {
+			decoded = StandardCharsets.UTF_8.newDecoder()
+					.onMalformedInput(CodingErrorAction.REPORT)
+					.onUnmappableCharacter(CodingErrorAction.REPORT)
+					.decode(utf8Password.duplicate());
+		} catch (CharacterCodingException e){
+			throw new IllegalArgumentException("Malformed UTF-8", e);
+		}
+
+		char[] password = new char[decoded.remaining()];
+		decoded.get(password);
+
+		try {
+			return hash(password, salt);
+		} finally{
+			Arrays.fill(password, '\0');
+			Arrays.fill(decoded.array(), '\0');
+		}
+	}
+}
@@ -0,0 +1,92 @@
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/* Salted, iterated PBKDF2 with HMAC-SHA256 from the JDK, deliberately slow to make guessing passwords expensive
+*  Each hash takes time in proportion to the number of iterations, milliseconds at typical counts, so it is
+*  best run off request threads through SkipListPasswordManager.authenticateAsync
+*  The first 64 bits of the derived key are kept, as users store their hashes as longs */
+public class Pbkdf2Hasher implements PasswordHasher {
+	private static final String KDF = "PBKDF2WithHmacSHA256";
+	private static final int SALT_LENGTH = 16;
+	private static final int HASH_BITS = 64;
+
+	// Looking up the factory searches the installed providers, so each thread keeps its own rather than looking it up every hash
+	private static final ThreadLocal<SecretKeyFactory> FACTORIES = ThreadLocal.withInitial(() -> {
+		try {
+			return SecretKeyFactory.getInstance(KDF);
+		} catch (GeneralSecurityException e){
+			throw new IllegalStateException(KDF + " is not available", e);
+		}
+	});
+
+	private final int iterations;
+	private final String algorithm;
+
+	// Constructs a hasher deriving each hash with the given number of iterations
+	public Pbkdf2Hasher(int iterations){
+		if (iterations < 1){
+			throw new IllegalArgumentException();
+		}
+
+		this.iterations = iterations;
+		this.algorithm = "pbkdf2-sha256:" + iterations;
+	}
+
+	// The iteration count is part of the name, as hashes from different counts never match
+	public String algorithm(){
+		return algorithm;
+	}
+
+	public int saltLength(){
+		return SALT_LENGTH;
+	}
+
+	public int iterations(){
+		return iterations;
+	}
+
+	// The characters are copied into a temporary array, which is cleared once hashed
+	public long hash(CharSequence password, byte[] salt){
+		if (password == null){
+			throw new IllegalArgumentException();
+		}
+
+		char[] chars = new char[password.length()];
+
+		for (int i = 0; i < chars.length; i++){
+			chars[i] = password.charAt(i);
+		}
+
+		try {
+			return hash(chars, salt);
+		} finally{
+			Arrays.fill(chars, '\0');
+		}
+	}
+
+	public long hash(char[] password, byte[] salt){
+		if (password == null || salt == null || salt.length == 0){
+			throw new IllegalArgumentException();
+		}
+
+		PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, HASH_BITS);
+
+		try {
+			byte[] key = FACTORIES.get().generateSecret(spec).getEncoded();
+			long hash = 0;
+
+			for (int i = 0; i < 8; i++){
+				hash = (hash << 8) | (key[i] & 0xff);
+			}
+
+			// NO_VALUE marks a missing password, so the one key that would produce it is moved aside
+			return hash == StringLongHashMap.NO_VALUE ? hash + 1 : hash;
+		} catch (GeneralSecurityException e){
+			throw new IllegalStateException(KDF + " failed", e);
+		} finally{
+			spec.clearPassword();
+		}
+	}
+}
@@ -0,0 +1,376 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Predicate;
+
+/* Thread-safe store made of independent SkipList shards, each guarded by its own lock
+*  A key always lives in the shard chosen by its hash, so operations on keys in different shards never contend
+*  and every shard stays a fraction of the size of the whole
+*  Ordered operations merge the shards, reading each one a batch at a time under its read lock, so keys added
+*  or removed while they run may or may not be seen */
+public class ShardedSkipList<K extends Comparable<K>, V> implements OrderedStore<K, V>{
+	// Number of entries a merged iteration reads from a shard each time it takes the shard's lock
+	private static final int BATCH_SIZE = 64;
+
+	private final SkipList<K,V>[] shards;
+	private final StampedLock[] locks;
+
+	// Constructs a store split into the given number of shards
+	@SuppressWarnings("unchecked")
+	public ShardedSkipList(int shardCount){
+		if (shardCount < 1){
+			throw new IllegalArgumentException();
+		}
+
+		shards = new SkipList[shardCount];
+		locks = new StampedLock[shardCount];
+
+		for (int i = 0; i < shardCount; i++){
+			shards[i] = new SkipList<K,V>();
+			locks[i] = new StampedLock();
+		}
+	}
+
+	// Returns the number of shards keys are split between
+	public int shardCount(){
+		return shards.length;
+	}
+
+	// Returns the shard holding the given key
+	private int shardFor(K key){
+		int h = key.hashCode();
+		// Spread the higher bits down so similar keys land in different shards
+		h ^= (h >>> 16);
+		return (h & 0x7fffffff) % shards.length;
+	}
+
+	public int size(){
+		int size = 0;
+
+		for (int shard = 0; shard < shards.length; shard++){
+			long stamp = locks[shard].readLock();
+
+			try {
+				size += shards[shard].size();
+			} finally{
+				locks[shard].unlockRead(stamp);
+			}
+		}
+
+		return size;
+	}
+
+	// Returns whether the store is empty
+	public boolean isEmpty(){
+		return size() == 0;
+	}
+
+	// Returns all keys stored, in order, merged from every shard
+	public List<K> keys(){
+		List<K> keys = new ArrayList<K>();
+		Iterator<K> all = keys(null, true, null, true);
+
+		while (all.hasNext()){
+			keys.add(all.next());
+		}
+
+		return keys;
+	}
+
+	// Returns the keys from from to to in order, merged lazily from every shard
+	// A null bound leaves that end of the range open
+	public Iterator<K> keys(K from, boolean fromInclusive, K to, boolean toInclusive){
+		final Iterator<Map.Entry<K,V>> entries = new MergedIterator(from, fromInclusive, to, toInclusive);
+
+		return new Iterator<K>(){
+			public boolean hasNext(){
+				return entries.hasNext();
+			}
+
+			public K next(){
+				return entries.next().getKey();
+			}
+		};
+	}
+
+	// Returns the entries in key order, merged lazily from every shard
+	public Iterator<Map.Entry<K,V>> iterator(){
+		return new MergedIterator(null, true, null, true);
+	}
+
+	// Returns a spliterator over the merged entries in key order, which splits by handing off batches of them
+	// Its size is estimated from the size when it is made, as shards may change while it is in use
+	public Spliterator<Map.Entry<K,V>> spliterator(){
+		return new SortedEntrySpliterator<K,V>(iterator(), size());
+	}
+
+	// Returns up to limit keys in order, starting with the key at position offset
+	// Positions are spread over the shards, so the keys before offset are walked over one by one
+	public List<K> range(int offset, int limit){
+		if (offset < 0 || limit < 0){
+			throw new IllegalArgumentException();
+		}
+
+		List<K> keys = new ArrayList<K>();
+		Iterator<K> all = keys(null, true, null, true);
+
+		for (int skipped = 0; skipped < offset && all.hasNext(); skipped++){
+			all.next();
+		}
+		while (keys.size() < limit && all.hasNext()){
+			keys.add(all.next());
+		}
+
+		return keys;
+	}
+
+	// Returns whether key is stored
+	public boolean containsKey(K key){
+		return get(key) != null;
+	}
+
+	// Returns the value stored with key, or null if there is none
+	// Takes the shard's read lock, which readers share, as a SkipList may not be read while it is written
+	public V get(K key){
+		if (key == null){
+			throw new IllegalArgumentException();
+		}
+
+		int shard = shardFor(key);
+		long stamp = locks[shard].readLock();
+
+		try {
+			return shards[shard].get(key);
+		} finally{
+			locks[shard].unlockRead(stamp);
+		}
+	}
+
+	// Returns the values stored with the given keys, in the same order, with null for keys that are not stored
+	// Keys must be in ascending order. Each shard looks up its own keys in one pass under its read lock
+	public List<V> getAll(List<K> sortedKeys){
+		List<List<K>> shardKeys = splitByShard(sortedKeys);
+		List<Iterator<V>> shardValues = new ArrayList<Iterator<V>>(shards.length);
+
+		for (int shard = 0; shard < shards.length; shard++){
+			long stamp = locks[shard].readLock();
+
+			try {
+				shardValues.add(shards[shard].getAll(shardKeys.get(shard)).iterator());
+			} finally{
+				locks[shard].unlockRead(stamp);
+			}
+		}
+
+		// Each shard answered its keys in order, so taking the next answer of each key's shard restores the order
+		List<V> values = new ArrayList<V>(sortedKeys.size());
+
+		for (K key : sortedKeys){
+			values.add(shardValues.get(shardFor(key)).next());
+		}
+
+		return values;
+	}
+
+	// Returns whether every one of the given keys, in ascending order, is stored
+	public boolean containsAll(List<K> sortedKeys){
+		List<List<K>> shardKeys = splitByShard(sortedKeys);
+
+		for (int shard = 0; shard < shards.length; shard++){
+			long stamp = locks[shard].readLock();
+
+			try {
+				if (!shards[shard].containsAll(shardKeys.get(shard))){
+					return false;
+				}
+			} finally{
+				locks[shard].unlockRead(stamp);
+			}
+		}
+
+		return true;
+	}
+
+	// Splits keys in ascending order into the keys of each shard, which stay in ascending order
+	private List<List<K>> splitByShard(List<K> sortedKeys){
+		if (sortedKeys == null){
+			throw new IllegalArgumentException();
+		}
+
+		List<List<K>> shardKeys = new ArrayList<List<K>>(shards.length);
+
+		for (int shard = 0; shard < shards.length; shard++){
+			shardKeys.add(new ArrayList<K>());
+		}
+
+		K previous = null;
+
+		for (K key : sortedKeys){
+			if (key == null){
+				throw new IllegalArgumentException();
+			}
+			if (previous != null && previous.compareTo(key) > 0){
+				throw new IllegalArgumentException("Keys are not in ascending order at " + key);
+			}
+			previous = key;
+			shardKeys.get(shardFor(key)).add(key);
+		}
+
+		return shardKeys;
+	}
+
+	// Stores value with key, returning the value it replaced or null
+	public V put(K key, V value){
+		if (key == null){
+			throw new IllegalArgumentException();
+		}
+
+		int shard = shardFor(key);
+		long stamp = locks[shard].writeLock();
+
+		try {
+			return shards[shard].put(key, value);
+		} finally{
+			locks[shard].unlockWrite(stamp);
+		}
+	}
+
+	// Stores value with key unless key is already stored, returning the value already stored or null
+	public V putIfAbsent(K key, V value){
+		if (key == null){
+			throw new IllegalArgumentException();
+		}
+
+		int shard = shardFor(key);
+		long stamp = locks[shard].writeLock();
+
+		try {
+			return shards[shard].putIfAbsent(key, value);
+		} finally{
+			locks[shard].unlockWrite(stamp);
+		}
+	}
+
+	// Removes key, returning the value it had or null if it was not stored
+	public V remove(K key){
+		return remove(key, null);
+	}
+
+	// Removes key if its value satisfies condition, or always if condition is null
+	// Returns the value stored with key whether or not it was removed, or null if it was not stored
+	// condition is tested under the shard's write lock
+	public V remove(K key, Predicate<? super V> condition){
+		if (key == null){
+			throw new IllegalArgumentException();
+		}
+
+		int shard = shardFor(key);
+		long stamp = locks[shard].writeLock();
+
+		try {
+			return shards[shard].remove(key, condition);
+		} finally{
+			locks[shard].unlockWrite(stamp);
+		}
+	}
+
+	// Reads one shard's entries in a range in key order, BATCH_SIZE at a time, each batch under the shard's read lock
+	private class ShardCursor {
+		private final int shard;
+		private final K to;
+		private final boolean toInclusive;
+		// Where the next batch starts, after the last key read unless nothing has been read yet
+		private K from;
+		private boolean fromInclusive;
+		private List<Map.Entry<K,V>> batch;
+		private int position;
+		private boolean lastBatch;
+
+		ShardCursor(int shard, K from, boolean fromInclusive, K to, boolean toInclusive){
+			this.shard = shard;
+			this.from = from;
+			this.fromInclusive = fromInclusive;
+			this.to = to;
+			this.toInclusive = toInclusive;
+			readBatch();
+		}
+
+		// Returns the entry the cursor is on, or null once the range is used up
+		Map.Entry<K,V> current(){
+			return position < batch.size() ? batch.get(position) : null;
+		}
+
+		void advance(){
+			position++;
+
+			if (position == batch.size() && !lastBatch){
+				readBatch();
+			}
+		}
+
+		private void readBatch(){
+			batch = new ArrayList<Map.Entry<K,V>>(BATCH_SIZE);
+			position = 0;
+			long stamp = locks[shard].readLock();
+
+			try {
+				Iterator<Map.Entry<K,V>> entries = shards[shard].entries(from, fromInclusive, to, toInclusive);
+
+				while (batch.size() < BATCH_SIZE && entries.hasNext()){
+					batch.add(entries.next());
+				}
+				lastBatch = !entries.hasNext();
+			} finally{
+				locks[shard].unlockRead(stamp);
+			}
+
+			if (!batch.isEmpty()){
+				from = batch.get(batch.size() - 1).getKey();
+				fromInclusive = false;
+			}
+		}
+	}
+
+	// k-way merge of a cursor on every shard, always taking the cursor with the smallest key next
+	private class MergedIterator implements Iterator<Map.Entry<K,V>> {
+		private final PriorityQueue<ShardCursor> cursors;
+
+		MergedIterator(K from, boolean fromInclusive, K to, boolean toInclusive){
+			cursors = new PriorityQueue<ShardCursor>(shards.length,
+					(a, b) -> a.current().getKey().compareTo(b.current().getKey()));
+
+			for (int shard = 0; shard < shards.length; shard++){
+				ShardCursor cursor = new ShardCursor(shard, from, fromInclusive, to, toInclusive);
+
+				if (cursor.current() != null){
+					cursors.add(cursor);
+				}
+			}
+		}
+
+		public boolean hasNext(){
+			return !cursors.isEmpty();
+		}
+
+		public Map.Entry<K,V> next(){
+			ShardCursor cursor = cursors.poll();
+
+			if (cursor == null){
+				throw new NoSuchElementException();
+			}
+
+			Map.Entry<K,V> entry = cursor.current();
+			cursor.advance();
+
+			if (cursor.current() != null){
+				cursors.add(cursor);
+			}
+			return entry;
+		}
+	}
+}
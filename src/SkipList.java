@@ -1,42 +1,107 @@
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Random;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+public class SkipList<K extends Comparable<K>, V> implements OrderedStore<K, V>{
+	// Upper bound on the number of levels, enough for well over 2^32 keys
+	private static final int MAX_HEIGHT = 32;
 
-public class SkipList<K extends Comparable<K>, V>{
 	private int size;
 
-	// Stores the lowest left sentinel node
-	private SkipListNode<K,V> begin;
-	// Stores the lowest right sentinel node
-	private SkipListNode<K,V> end;
+	// Number of levels currently in use, always at least 1
+	private int height;
+
+	// Head sentinel node, holding the first node of every level
+	private final SkipListNode<K,V> head;
 
-	private boolean alreadyExisted;
+	// Coin flips deciding how tall each inserted node is
+	private final Random levelGenerator;
 
-	// Report usage only
-	protected Integer numberOfSteps;
-	
 	public SkipList(){
 		size = 0;
-		begin = new SkipListNode<K,V>(true);
-		end = new SkipListNode<K,V>(true);
-		begin.setNext(end);
-		end.setPrev(begin);
-	}
-	
-	public int size() {
-		return size;
+		height = 1;
+		head = new SkipListNode<K,V>(MAX_HEIGHT);
+		levelGenerator = new Random();
 	}
-	
-	// Returns the left sentinel node at the top of the skiplist
-	private SkipListNode<K, V> toTop(){
-		SkipListNode<K,V> current = begin;
-		
-		while(current.getAbove() != null){
-			current = current.getAbove();
+
+	/* Builds a skiplist from entries given in ascending key order, in time linear in their number
+	*  Heights are assigned deterministically so the result is perfectly balanced: the i-th key (counting from 1)
+	*  appears on one level more than the number of times 2 divides i
+	*  A key equal to the one before it is added to duplicates, or rejected with an exception if duplicates is null
+	*  Keys out of order are always rejected with an exception */
+	@SuppressWarnings("unchecked")
+	public static <K extends Comparable<K>, V> SkipList<K, V> build(Iterator<? extends Map.Entry<K, V>> sortedEntries, List<K> duplicates){
+		if (sortedEntries == null){
+			throw new IllegalArgumentException();
 		}
 
-		return current;
-		
+		SkipList<K, V> list = new SkipList<K, V>();
+		// The last node linked on each level, which the next node on that level follows, and its position
+		SkipListNode<K, V>[] last = new SkipListNode[MAX_HEIGHT];
+		int[] lastRank = new int[MAX_HEIGHT];
+		for (int level = 0; level < MAX_HEIGHT; level++){
+			last[level] = list.head;
+		}
+
+		K previous = null;
+
+		while (sortedEntries.hasNext()){
+			Map.Entry<K, V> entry = sortedEntries.next();
+			K key = entry.getKey();
+
+			if (key == null){
+				throw new IllegalArgumentException();
+			}
+
+			if (previous != null){
+				int comparison = previous.compareTo(key);
+
+				if (comparison == 0){
+					if (duplicates == null){
+						throw new IllegalArgumentException("Duplicate key " + key);
+					}
+					duplicates.add(key);
+					continue;
+				} else if (comparison > 0){
+					throw new IllegalArgumentException("Keys are not in ascending order at " + key);
+				}
+			}
+			previous = key;
+
+			int nodeHeight = Math.min(Integer.numberOfTrailingZeros(list.size + 1) + 1, MAX_HEIGHT);
+			SkipListNode<K, V> node = new SkipListNode<K, V>(key, entry.getValue(), nodeHeight);
+
+			list.size++;
+
+			for (int level = 0; level < nodeHeight; level++){
+				last[level].setNext(level, node);
+				last[level].setWidth(level, list.size - lastRank[level]);
+				last[level] = node;
+				lastRank[level] = list.size;
+			}
+
+			list.height = Math.max(list.height, nodeHeight);
+		}
+
+		// The final pointer on each level covers the steps to one past the last node
+		for (int level = 0; level < list.height; level++){
+			last[level].setWidth(level, list.size + 1 - lastRank[level]);
+		}
+
+		return list;
+	}
+
+	public int size() {
+		return size;
 	}
 
 	// Returns whether the skiplist is empty
@@ -45,238 +110,249 @@ public class SkipList<K extends Comparable<K>, V>{
 	// Returns all keys stored in the skiplist
 	public List<K> keys() {
 		List<K> keys = new ArrayList<K>();
-		SkipListNode<K,V> current = begin.getNext();
-		
-		while (current != end){
+		SkipListNode<K,V> current = head.getNext(0);
+
+		while (current != null){
 			keys.add(current.getKey());
-			current = current.getNext();
+			current = current.getNext(0);
 		}
-		
+
 		return keys;
 	}
-	
+
+	// Returns the keys from from to to in order, walking the lowest level only as far as the iterator is advanced
+	// The first key is found with search, so skipping to the start of the range takes logarithmic time
+	// A null bound leaves that end of the range open
+	public Iterator<K> keys(K from, boolean fromInclusive, K to, boolean toInclusive) {
+		return new RangeIterator<K>(firstInRange(from, fromInclusive), to, toInclusive){
+			K read(SkipListNode<K,V> node){
+				return node.getKey();
+			}
+		};
+	}
+
+	// Returns the entries from from to to in key order, found in the same way as keys(from, fromInclusive, to, toInclusive)
+	public Iterator<Map.Entry<K, V>> entries(K from, boolean fromInclusive, K to, boolean toInclusive) {
+		return new RangeIterator<Map.Entry<K, V>>(firstInRange(from, fromInclusive), to, toInclusive){
+			Map.Entry<K, V> read(SkipListNode<K,V> node){
+				return new AbstractMap.SimpleImmutableEntry<K, V>(node.getKey(), node.getValue());
+			}
+		};
+	}
+
+	// Returns the first node on the lowest level that is not before from, or null if there is none
+	private SkipListNode<K,V> firstInRange(K from, boolean fromInclusive) {
+		if (from == null){
+			return head.getNext(0);
+		}
+
+		SkipListNode<K,V> first = search(from);
+
+		if (first.isSentinel() || first.getKey().compareTo(from) < 0 || !fromInclusive){
+			first = first.getNext(0);
+		}
+		return first;
+	}
+
+	// Iterates along the lowest level, stopping at the end of the range, and reads what to return from each node
+	private abstract class RangeIterator<T> implements Iterator<T> {
+		private SkipListNode<K,V> next;
+		private final K to;
+		private final boolean toInclusive;
+
+		RangeIterator(SkipListNode<K,V> first, K to, boolean toInclusive){
+			this.next = first;
+			this.to = to;
+			this.toInclusive = toInclusive;
+		}
+
+		abstract T read(SkipListNode<K,V> node);
+
+		public boolean hasNext(){
+			if (next == null || to == null){
+				return next != null;
+			}
+
+			int comparison = next.getKey().compareTo(to);
+
+			if (comparison > 0 || (comparison == 0 && !toInclusive)){
+				next = null;
+			}
+			return next != null;
+		}
+
+		public T next(){
+			if (!hasNext()){
+				throw new NoSuchElementException();
+			}
+
+			T result = read(next);
+			next = next.getNext(0);
+			return result;
+		}
+	}
+
 	// returns whether a node with key key exists in the skip-list
 	public boolean containsKey(K key){
-		
+
 		if (key == null){
 			throw new IllegalArgumentException();
 		}
-		
-		// Start looking from the next node after the lowest left sentinel node
-		SkipListNode<K,V> current = begin.getNext();
-		
-		// Keep checking to the right until either the node is found or a sentinel node is reached. 
-		while (true){
-			if (current == null){
-				return false;
-			} else{
-				if (current.isSentinel()){
-					return false;
-				}
-				
-				if (current.getKey().equals(key)){
-					return true;
-				} else{
-					current = current.getNext();
-				}
-			}
-		}
+
+		SkipListNode<K,V> node = search(key);
+
+		return !node.isSentinel() && node.getKey().equals(key);
 	}
 
 	// Searches for node with key key
-	// Returns the node if it is found, and null otherwise
+	// Returns the node if it is found, otherwise the node with the greatest key less than key
+	// (the head sentinel node if there is no such node)
 	public SkipListNode<K, V> search(K key) {
-		numberOfSteps = 0;
-
-		// If the node to the right of the lowest left sentinel, is the lowest right sentinel, return the lowest left sentinel as no other nodes exist
-		if (begin.getNext() == end){
-			return begin;
-		}
-		
-		// Start at the top left of the skiplist, and work way down
-		SkipListNode<K, V> currentNode = toTop();
-
-		while(currentNode.getNext() != null){
-			SkipListNode<K, V> nextNode = currentNode.getNext();
-			// If the next node is a sentinel node, go down if possible, otherwise return the current node.
-			if (nextNode.isSentinel()){
-				if (currentNode.getBelow() != null){
-					currentNode = currentNode.getBelow();
-					continue;
-				} else{
-					return currentNode;
-				}
-			}
-			numberOfSteps += 1;
-			
+		// Start at the top of the head sentinel node, and work way down
+		SkipListNode<K, V> currentNode = head;
+
+		for (int level = height - 1; level >= 0; level--){
+			SkipListNode<K, V> nextNode = currentNode.getNext(level);
+
 			/* Compare the next node with the key being looked for
 			*  If it is equal, return that node
-			*  If the next node is greater than the key being looked for, go down if possible, otherwise return the current node
-			*  If the next node is less than the key being looked for, move across */
-			int comparison = nextNode.getKey().compareTo(key);
-			
-			if (comparison == 0){
-				return nextNode;
-			} else if (comparison < 0){
-				currentNode = nextNode;
-			} else{
-				if (currentNode.getBelow() != null){
-					currentNode = currentNode.getBelow();
-				} else{
-					return currentNode;
+			*  If the next node is less than the key being looked for, move across
+			*  Otherwise (or at the end of the level) go down a level */
+			while (nextNode != null){
+				int comparison = nextNode.getKey().compareTo(key);
+
+				if (comparison == 0){
+					return nextNode;
+				} else if (comparison > 0){
+					break;
 				}
+				currentNode = nextNode;
+				nextNode = currentNode.getNext(level);
 			}
 		}
 
-		return null;
+		return currentNode;
 	}
-	
-	// Finds and returns the node most right of the given node
-	private SkipListNode<K,V> mostRight(SkipListNode<K,V> start){
-		SkipListNode<K,V> current = start;
 
-		while(current.getNext() != null){
-			current = current.getNext();
-		}
+	// Fills preds with the last node before key on every level in use, and ranks (if not null) with their positions
+	// Returns the node with key key if it exists, null otherwise
+	private SkipListNode<K, V> findPredecessors(K key, SkipListNode<K, V>[] preds, int[] ranks){
+		SkipListNode<K, V> current = head;
+		SkipListNode<K, V> found = null;
+		int rank = 0;
 
-		return current;
-	}
-	
-	public int getHeight(){
-		SkipListNode<K,V> start = begin;
-		int height = 1;
+		for (int level = height - 1; level >= 0; level--){
+			SkipListNode<K, V> nextNode = current.getNext(level);
 
-		while (begin.getAbove() != null){
-			begin = begin.getAbove();
-			height++;
+			while (nextNode != null){
+				int comparison = nextNode.getKey().compareTo(key);
+
+				if (comparison == 0){
+					found = nextNode;
+					break;
+				} else if (comparison > 0){
+					break;
+				}
+				rank += current.getWidth(level);
+				current = nextNode;
+				nextNode = current.getNext(level);
+			}
+			preds[level] = current;
+			if (ranks != null){
+				ranks[level] = rank;
+			}
 		}
 
+		return found;
+	}
+
+	public int getHeight(){
 		return height;
 	}
 
 	// Puts a node into the skiplist with key key and value value
+	// Returns the value it replaced, or null if key was not stored
 	public V put(K key, V value) {
-		alreadyExisted = false;
-		Random rand = new Random();
-		rand.setSeed(5);
-		SkipListNode<K,V> current = begin;
-		int height = 1;
+		return insert(key, value, true);
+	}
+
+	// Puts a node into the skiplist with key key and value value, unless key is already stored
+	// Returns the value already stored with key, or null if the node was added
+	public V putIfAbsent(K key, V value) {
+		return insert(key, value, false);
+	}
 
+	// Records the predecessor at each level during a single top-down descent,
+	// then splices the new node in using those predecessors
+	// An existing node for key has its value replaced only if replace is true
+	@SuppressWarnings("unchecked")
+	private V insert(K key, V value, boolean replace) {
 		if (key == null){
 			throw new IllegalArgumentException();
 		}
-		
-		
-		V oldValue = get(key);
-		SkipListNode<K,V> lastInserted = putRow(current, key, value);
-		boolean nodeAbove;
 
-		// If the node doesn't already exist in the skiplist, increase the skiplist size count
-		// Don't bother with coin flips
-		if (!alreadyExisted){
-			size++;
-			nodeAbove = rand.nextBoolean();
-		}
-		else{
-			nodeAbove = true;
-		}
-		
-		while (nodeAbove || alreadyExisted){
-			height++;
+		// One more slot than the levels in use, in case the new node adds a level
+		SkipListNode<K,V>[] preds = new SkipListNode[Math.min(height + 1, MAX_HEIGHT)];
+		int[] ranks = new int[preds.length];
+		SkipListNode<K,V> existing = findPredecessors(key, preds, ranks);
 
-			if (!alreadyExisted){
-				nodeAbove = rand.nextBoolean();
+		if (existing != null){
+			V oldValue = existing.getValue();
+			if (replace){
+				existing.setValue(value);
 			}
-			
-			if (current.getAbove() == null){
-				if (alreadyExisted){
-					break;
-				}
+			return oldValue;
+		}
 
-				SkipListNode<K,V> oldCurrent = current;
-				current = expand(current);
-				current.setBelow(oldCurrent);
-				lastInserted.setAbove(current);
-				SkipListNode<K,V> end = mostRight(oldCurrent);
-				SkipListNode<K,V> endUp = mostRight(current);
-				endUp.setBelow(end);
-				end.setAbove(endUp);
-				
-			} else{
-				current = current.getAbove();
-			}
+		// Allow the skiplist to grow by at most one level per insertion
+		int nodeHeight = randomHeight(Math.min(height + 1, MAX_HEIGHT));
 
-			SkipListNode<K,V> newNode = putRow(current, key, value);
-			newNode.setBelow(lastInserted);
-			lastInserted.setAbove(newNode);
-			lastInserted = newNode;
+		if (nodeHeight > height){
+			// The new level is empty, so the head points past the end of the list on it
+			preds[height] = head;
+			ranks[height] = 0;
+			head.setWidth(height, size + 1);
+			height = nodeHeight;
 		}
-		if (alreadyExisted){
-			return oldValue;
-		} else{
-			return null;
+
+		SkipListNode<K,V> newNode = new SkipListNode<K,V>(key, value, nodeHeight);
+		int rank = ranks[0] + 1;
+
+		// Split the pointers the new node is spliced into, and widen those that now pass over it
+		for (int level = 0; level < nodeHeight; level++){
+			int predWidth = preds[level].getWidth(level);
+			newNode.setNext(level, preds[level].getNext(level));
+			newNode.setWidth(level, predWidth - (rank - ranks[level]) + 1);
+			preds[level].setNext(level, newNode);
+			preds[level].setWidth(level, rank - ranks[level]);
+		}
+		for (int level = nodeHeight; level < height; level++){
+			preds[level].setWidth(level, preds[level].getWidth(level) + 1);
 		}
-		
-	}
-	
-	/* Attempts to find the appropriate position for a new node with key key and value value to be inserted
-	*  Begins search for appropriate position from the position of the supplied sentinel node
-	*  If the node already exists, return the position of that node and mark it as already existing
-	*  Else insert it in the list at the appropriate position and fix node pointers */
-	private SkipListNode<K, V> putRow(SkipListNode<K, V> sentinel, K key, V value){
-		SkipListNode<K, V> current = findInsertPos(sentinel, key);
 
-		if (!current.isSentinel() && current.getKey().equals(key)){
-			current.setValue(value);
-			alreadyExisted = true;
-			return current;
-		} else{
-		// Fix node pointers
-		SkipListNode<K, V> after = current.getNext();
-		SkipListNode<K, V> newNode = new SkipListNode<K,V>(key, value);
-		current.setNext(newNode);
-		after.setPrev(newNode);
-		newNode.setNext(after);
-		newNode.setPrev(current);
-		return newNode;
-		}
-
-	}
-	
-	// Find the correct position to insert a node with key key, 
-	// starts the search from the supplied sentinel node
-	private SkipListNode<K, V> findInsertPos(SkipListNode<K, V> sentinel, K key){
-		SkipListNode<K, V> current = sentinel;
-		
-		// Keep looking at the next nodes until the correct node is found, or is deemed impossible to find
-		while(true){
-			SkipListNode<K, V> nextNode = current.getNext();
-
-			if (nextNode.isSentinel()){
-				return current;
-			}
+		size++;
+		return null;
+	}
 
-			int comparison = nextNode.getKey().compareTo(key);
+	// Returns a node height between 1 and maxHeight using repeated coin flips
+	private int randomHeight(int maxHeight){
+		int nodeHeight = 1;
 
-			if (comparison == 0){
-				return nextNode;
-			} else if (comparison < 0){
-				current = nextNode;
-			} else{
-					return current;
-			}
+		while (nodeHeight < maxHeight && levelGenerator.nextBoolean()){
+			nodeHeight++;
 		}
+
+		return nodeHeight;
 	}
 
-	
 	// Search for node with key key
 	public V get(K key) {
 		if (key == null){
 			throw new IllegalArgumentException();
 		}
-		
+
 		SkipListNode<K, V> node = search(key);
-		
+
 		if (node.isSentinel()){
 			return null;
 		} else if (!node.getKey().equals(key)){
@@ -286,135 +362,333 @@ public class SkipList<K extends Comparable<K>, V>{
 		}
 	}
 
-	// Remove node from skiplist with key key
-	public V remove(K key) {
+	/* Returns the values stored with the given keys, in the same order, with null for keys that are not stored
+	*  Keys must be in ascending order. The last node before the previous key on every level is kept as a finger,
+	*  and each search climbs from the finger only as high as it needs to, so nearby keys are found in a few steps */
+	public List<V> getAll(List<K> sortedKeys) {
+		if (sortedKeys == null){
+			throw new IllegalArgumentException();
+		}
+
+		List<V> values = new ArrayList<V>(sortedKeys.size());
+		SkipListNode<K, V>[] finger = newFinger();
+		K previous = null;
+
+		for (K key : sortedKeys){
+			checkAscending(previous, key);
+			previous = key;
+
+			fingerSearch(key, finger);
+			SkipListNode<K, V> next = finger[0].getNext(0);
+			values.add(next != null && next.getKey().compareTo(key) == 0 ? next.getValue() : null);
+		}
+
+		return values;
+	}
 
+	// Returns whether every one of the given keys is stored, searching as getAll does
+	// Keys must be in ascending order
+	public boolean containsAll(List<K> sortedKeys) {
+		if (sortedKeys == null){
+			throw new IllegalArgumentException();
+		}
+
+		SkipListNode<K, V>[] finger = newFinger();
+		K previous = null;
+
+		for (K key : sortedKeys){
+			checkAscending(previous, key);
+			previous = key;
+
+			fingerSearch(key, finger);
+			SkipListNode<K, V> next = finger[0].getNext(0);
+
+			if (next == null || next.getKey().compareTo(key) != 0){
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	// Returns a finger for a search from the start of the skiplist, the head on every level in use
+	@SuppressWarnings("unchecked")
+	private SkipListNode<K, V>[] newFinger() {
+		SkipListNode<K, V>[] finger = new SkipListNode[height];
+
+		for (int level = 0; level < height; level++){
+			finger[level] = head;
+		}
+
+		return finger;
+	}
+
+	private static <K extends Comparable<K>> void checkAscending(K previous, K key) {
 		if (key == null){
 			throw new IllegalArgumentException();
 		}
-		
-		V value = null;
-		
-		// Search for node to remove
-		SkipListNode<K, V> nodeFound = search(key);
-		
-		if (nodeFound.isSentinel()){
-			return null;
-		} else if (!nodeFound.getKey().equals(key)){
-			return null;
-		} else{
-			value = remove(nodeFound);
-			this.size -= 1;
+		if (previous != null && previous.compareTo(key) > 0){
+			throw new IllegalArgumentException("Keys are not in ascending order at " + key);
 		}
-		
-		// Remove any unnecessary layers in the skip-list
-		SkipListNode<K, V> topNode = begin;
+	}
+
+	/* Moves the finger, the last node before the previous key on every level, to the last nodes before key
+	*  key must not be less than the previous key. Climbs from the lowest level while the finger one level up
+	*  is also behind key, then searches down from there, so the cost grows with the distance between the keys */
+	private void fingerSearch(K key, SkipListNode<K, V>[] finger) {
+		int level = 0;
 
-		while (topNode.getAbove() != null){
-			topNode = topNode.getAbove();
+		// Nodes passed on the way up are behind key, so the finger moves onto them straight away
+		while (level + 1 < finger.length){
+			SkipListNode<K, V> upper = finger[level + 1].getNext(level + 1);
+
+			if (upper == null){
+				break;
+			}
+			if (upper.getKey().compareTo(key) >= 0){
+				break;
+			}
+			finger[level + 1] = upper;
+			level++;
 		}
 
-		while (topNode.getNext().isSentinel() && topNode.getBelow() != null){
-			topNode = compress(topNode);
+		SkipListNode<K, V> current = finger[level];
+		// The node that ended the search on the level above, known not to be before key
+		SkipListNode<K, V> stop = null;
+
+		for (; level >= 0; level--){
+			// The finger on this level may already be further along than the node reached from above
+			if (current != finger[level] && (current.isSentinel() || (!finger[level].isSentinel()
+					&& finger[level].getKey().compareTo(current.getKey()) > 0))){
+				current = finger[level];
+			}
+
+			SkipListNode<K, V> nextNode = current.getNext(level);
+
+			while (nextNode != null && nextNode != stop){
+				if (nextNode.getKey().compareTo(key) >= 0){
+					break;
+				}
+				current = nextNode;
+				nextNode = current.getNext(level);
+			}
+			finger[level] = current;
+			stop = nextNode;
 		}
+	}
 
-		return value;
+	// Returns the entries in key order, each read only as the iterator reaches it
+	public Iterator<Map.Entry<K, V>> iterator() {
+		return Spliterators.iterator(spliterator());
 	}
-	
-	// Helper method to remove a given node
-	private V remove (SkipListNode<K, V> node){
-		SkipListNode<K, V> prevNode;
-		
-		while (node.getBelow() != null){
-			node = node.getBelow();
+
+	// Returns a spliterator over the entries in key order
+	// Splitting finds the middle position using the pointer widths, so both halves are exactly sized
+	// The skiplist must not be changed while the spliterator is in use
+	public Spliterator<Map.Entry<K, V>> spliterator() {
+		return new EntrySpliterator(head.getNext(0), 0, size);
+	}
+
+	// Covers the entries at positions index to fence - 1, starting from the node at position index
+	private class EntrySpliterator implements Spliterator<Map.Entry<K, V>> {
+		private SkipListNode<K, V> next;
+		private int index;
+		private final int fence;
+
+		EntrySpliterator(SkipListNode<K, V> next, int index, int fence){
+			this.next = next;
+			this.index = index;
+			this.fence = fence;
+		}
+
+		public boolean tryAdvance(Consumer<? super Map.Entry<K, V>> action){
+			if (action == null){
+				throw new NullPointerException();
+			}
+			if (index >= fence){
+				return false;
+			}
+
+			action.accept(new AbstractMap.SimpleImmutableEntry<K, V>(next.getKey(), next.getValue()));
+			next = next.getNext(0);
+			index++;
+			return true;
+		}
+
+		public void forEachRemaining(Consumer<? super Map.Entry<K, V>> action){
+			if (action == null){
+				throw new NullPointerException();
+			}
+
+			for (; index < fence; index++){
+				action.accept(new AbstractMap.SimpleImmutableEntry<K, V>(next.getKey(), next.getValue()));
+				next = next.getNext(0);
+			}
+		}
+
+		// Hands the first half of the remaining entries to a new spliterator and keeps the second half
+		public Spliterator<Map.Entry<K, V>> trySplit(){
+			if (fence - index < 2){
+				return null;
+			}
+
+			int middle = (index + fence) >>> 1;
+			Spliterator<Map.Entry<K, V>> prefix = new EntrySpliterator(next, index, middle);
+			next = nodeAt(middle);
+			index = middle;
+			return prefix;
 		}
 
-		prevNode = node;
+		public long estimateSize(){
+			return fence - index;
+		}
 
-		while (node != null){
-			node = removeCurrentNode(node);
+		public int characteristics(){
+			return Spliterator.ORDERED | Spliterator.SORTED | Spliterator.DISTINCT | Spliterator.NONNULL
+					| Spliterator.SIZED | Spliterator.SUBSIZED;
 		}
 
-		return prevNode.getValue();
+		// Entries are sorted by key
+		public Comparator<? super Map.Entry<K, V>> getComparator(){
+			return Map.Entry.comparingByKey();
+		}
 	}
-	
-	private SkipListNode<K, V> removeCurrentNode(SkipListNode<K, V> node){
-		SkipListNode<K,V> above = node.getAbove();
-		SkipListNode<K,V> left = node.getPrev();
-		SkipListNode<K,V> right = node.getNext();
-		
-		left.setNext(right);
-		right.setPrev(left);
-		if (above != null){above.setBelow(null);}
-		node.setNext(null);
-		node.setPrev(null);
-		node.setBelow(null);
-		node.setAbove(null);
-		return above;
-		
+
+	// Returns the key at the given position in key order, counting from 0
+	public K keyAtIndex(int index) {
+		if (index < 0 || index >= size){
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+
+		return nodeAt(index).getKey();
 	}
-	
-	// Method for testing, used to check if a nodes parents have the same key as the node itself
-	public boolean checkKeyIntegrity(K key){
-		SkipListNode<K, V> node = search(key);
-		
-		if (node.getKey().equals(key)){
-			while (node.getBelow() != null){
-				node = node.getBelow();
+
+	// Returns the position of key in key order counting from 0, or -1 if it is not stored
+	public int rankOf(K key) {
+		if (key == null){
+			throw new IllegalArgumentException();
+		}
+
+		SkipListNode<K, V> current = head;
+		int rank = 0;
+
+		for (int level = height - 1; level >= 0; level--){
+			SkipListNode<K, V> nextNode = current.getNext(level);
+
+			while (nextNode != null && nextNode.getKey().compareTo(key) <= 0){
+				rank += current.getWidth(level);
+				current = nextNode;
+				nextNode = current.getNext(level);
 			}
-			
-			while (node.getAbove() != null){
-				SkipListNode<K, V> above = node.getAbove();
 
-				if (!node.getValue().equals(above.getValue())){
-					return false;
-				}
+			if (!current.isSentinel() && current.getKey().compareTo(key) == 0){
+				return rank - 1;
+			}
+		}
+
+		return -1;
+	}
+
+	// Returns up to limit keys in order, starting with the key at position offset
+	// Finding the first key takes logarithmic time however large offset is
+	public List<K> range(int offset, int limit) {
+		if (offset < 0 || limit < 0){
+			throw new IllegalArgumentException();
+		}
+
+		List<K> keys = new ArrayList<K>(Math.min(limit, Math.max(size - offset, 0)));
+		SkipListNode<K, V> current = offset < size ? nodeAt(offset) : null;
 
-				node = above;
+		while (current != null && keys.size() < limit){
+			keys.add(current.getKey());
+			current = current.getNext(0);
+		}
+
+		return keys;
+	}
+
+	// Returns the node at the given position, which must be less than size, by adding up pointer widths
+	private SkipListNode<K, V> nodeAt(int index) {
+		SkipListNode<K, V> current = head;
+		// The head is at position 0, so the node wanted is index + 1 steps along the lowest level
+		int remaining = index + 1;
+
+		for (int level = height - 1; level >= 0 && remaining > 0; level--){
+			while (current.getNext(level) != null && current.getWidth(level) <= remaining){
+				remaining -= current.getWidth(level);
+				current = current.getNext(level);
 			}
-		} else{
+		}
+
+		return current;
+	}
+
+	// Remove node from skiplist with key key
+	public V remove(K key) {
+		return remove(key, null);
+	}
+
+	// Remove node from skiplist with key key if its value satisfies condition, or always if condition is null
+	// Returns the value stored with key whether or not it was removed, or null if key is not stored
+	@SuppressWarnings("unchecked")
+	public V remove(K key, Predicate<? super V> condition) {
+
+		if (key == null){
+			throw new IllegalArgumentException();
+		}
+
+		// Search for node to remove, remembering the node before it on every level
+		SkipListNode<K, V>[] preds = new SkipListNode[height];
+		SkipListNode<K, V> nodeFound = findPredecessors(key, preds, null);
+
+		if (nodeFound == null){
+			return null;
+		}
+		if (condition != null && !condition.test(nodeFound.getValue())){
+			return nodeFound.getValue();
+		}
+
+		// Pointers that skipped the node now cover one step fewer, those that led to it take over its own
+		for (int level = 0; level < nodeFound.height(); level++){
+			preds[level].setNext(level, nodeFound.getNext(level));
+			preds[level].setWidth(level, preds[level].getWidth(level) + nodeFound.getWidth(level) - 1);
+		}
+		for (int level = nodeFound.height(); level < height; level++){
+			preds[level].setWidth(level, preds[level].getWidth(level) - 1);
+		}
+		this.size -= 1;
+
+		// Remove any unnecessary layers in the skip-list
+		while (height > 1 && head.getNext(height - 1) == null){
+			height--;
+		}
+
+		return nodeFound.getValue();
+	}
+
+	// Method for testing, used to check if a node with key key is linked on every level it spans
+	public boolean checkKeyIntegrity(K key){
+		SkipListNode<K, V> node = search(key);
+
+		if (node.isSentinel() || !node.getKey().equals(key)){
 			return true;
 		}
-		
+
+		// Walk each level the node spans from the head, it must be reachable on all of them
+		for (int level = 0; level < node.height(); level++){
+			SkipListNode<K, V> current = head.getNext(level);
+
+			while (current != null && current != node){
+				current = current.getNext(level);
+			}
+
+			if (current != node){
+				return false;
+			}
+		}
+
 		return true;
 	}
-	
-	// Adds a new layer to the skip-list, one layer above the given left sentinel node
-	// Returns the left sentinel node in the new layer
-	private SkipListNode<K,V> expand(SkipListNode<K,V> left){
-		// Initialized to left, will be corrected in next block
-		SkipListNode<K,V> right;
-		
-		// Correct right-most node to correct node
-		right = mostRight(left);
-		
-		// Add nodes in layer and fix pointers
-		SkipListNode<K,V> leftUp = new SkipListNode<K, V>(true);
-		SkipListNode<K,V> rightUp = new SkipListNode<K, V>(true);
-		leftUp.setNext(rightUp);
-		rightUp.setPrev(leftUp);
-		left.setAbove(leftUp);
-		right.setAbove(leftUp);
-		return leftUp;
-	}
-	
-	// Removes the layer from the skip-list containing the given left-sentinel node
-	// (Reverse of expand)
-	// Returns the left sentinel node in the layer below
-	private SkipListNode<K,V> compress(SkipListNode<K,V> left){
-		// Initialized to left, will be corrected in next block
-		SkipListNode<K,V> right;
-		
-		// Correct right-most node to correct node
-		right = mostRight(left);
-		
-		// Remove nodes in layer and fix pointers
-		SkipListNode<K,V> below = left.getBelow();
-		left.getBelow().setAbove(null);
-		right.getBelow().setAbove(null);
-		left.setBelow(null);
-		right.setBelow(null);
-		return below;
-	}
 
 }
+
@@ -1,37 +1,45 @@
 
+// A single key in the skip-list, holding one forward pointer per level it appears on
 public class SkipListNode<K extends Comparable<K>, V>{
-	private SkipListNode<K,V> nodeLeft;
-	private SkipListNode<K,V> nodeRight;
-	private SkipListNode<K,V> nodeUp;
-	private SkipListNode<K,V> nodeDown;
+	private final SkipListNode<K,V>[] next;
+	// Number of lowest-level steps each forward pointer above the lowest covers, a pointer at the end
+	// of a level covers the steps to one past the last node. Null for nodes only on the lowest level,
+	// where every pointer covers exactly one step
+	private final int[] width;
 	private V value;
-	private K key;
-	private boolean isSentinel;
-	
-	// Constructor for standard node
-	public SkipListNode(K key, V value){
+	private final K key;
+
+	// Constructor for standard node, appearing on levels 0 to height - 1
+	@SuppressWarnings("unchecked")
+	public SkipListNode(K key, V value, int height){
+		if (key == null || height < 1){
+			throw new IllegalArgumentException();
+		}
 		this.key = key;
 		this.value = value;
-		this.isSentinel = false;
+		this.next = new SkipListNode[height];
+		this.width = height > 1 ? new int[height - 1] : null;
 	}
-	
-	// Constructs for sentinel node, uses boolean: sentinel to force declaration of a sentinel node
-	public SkipListNode(boolean sentinel){
-		if (sentinel){
-			this.isSentinel = true;
-		} else{
+
+	// Constructor for the head sentinel node, sized to the maximum height of the skip-list
+	@SuppressWarnings("unchecked")
+	public SkipListNode(int maxHeight){
+		if (maxHeight < 1){
 			throw new IllegalArgumentException("Did not properly declare as sentinel node");
 		}
-		
+		this.key = null;
+		this.next = new SkipListNode[maxHeight];
+		this.width = maxHeight > 1 ? new int[maxHeight - 1] : null;
 	}
-	
+
+	// The head sentinel is the only node without a key
 	public boolean isSentinel(){
-		return isSentinel;
+		return key == null;
 	}
-	
+
 
 	public K getKey() {
-		return key; 
+		return key;
 	}
 
 
@@ -40,53 +48,41 @@ public class SkipListNode<K extends Comparable<K>, V>{
 	}
 
 
-	public SkipListNode<K, V> getPrev() {
-		return nodeLeft;
+	// Returns the number of levels this node appears on
+	public int height() {
+		return next.length;
 	}
 
 
-	public SkipListNode<K, V> getNext() {
-		return nodeRight;
+	// Returns the following node on the given level, or null at the end of that level
+	public SkipListNode<K, V> getNext(int level) {
+		return next[level];
 	}
 
 
-	public SkipListNode<K, V> getAbove() {
-		return nodeUp;
-	}
-
-
-	public SkipListNode<K, V> getBelow() {
-		return nodeDown;
+	// Returns the number of lowest-level steps the forward pointer on the given level covers
+	public int getWidth(int level) {
+		return level == 0 ? 1 : width[level - 1];
 	}
 
 
 	public void setValue(V newValue) {
 		this.value = newValue;
-		
-	}
-
 
-	public void setPrev(SkipListNode<K, V> prev) {
-		this.nodeLeft = prev;
-		
 	}
 
 
-	public void setNext(SkipListNode<K, V> next) {
-		this.nodeRight = next;
-		
-	}
-
+	public void setNext(int level, SkipListNode<K, V> node) {
+		this.next[level] = node;
 
-	public void setAbove(SkipListNode<K, V> above) {
-		this.nodeUp = above;
-		
 	}
 
 
-	public void setBelow(SkipListNode<K, V> below) {
-		this.nodeDown = below;
-		
+	// The lowest level always covers one step, so setting it has no effect
+	public void setWidth(int level, int steps) {
+		if (level > 0){
+			this.width[level - 1] = steps;
+		}
 	}
 
 }
@@ -1,31 +1,736 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.SecureRandom;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
 
 
 public class SkipListPasswordManager {
-	private SkipList<String, User> usrStore;
+	// Number of lock stripes used in thread-safe mode, a power of two
+	private static final int LOCK_STRIPES = 256;
+
+	private static final SecureRandom SALTS = new SecureRandom();
+
+	private OrderedStore<String, User> usrStore;
+
+	// Per-user locks, chosen by username hash, null unless the manager is thread-safe
+	private StampedLock[] userLocks;
+
+	// Hasher new users are given, and every hasher a stored user may have been hashed with, by algorithm
+	private volatile PasswordHasher hasher = Djb2Hasher.INSTANCE;
+	private final Map<String, PasswordHasher> hashers = new ConcurrentHashMap<String, PasswordHasher>();
+
+	// Whether a successful login rehashes a password hashed by an older hasher with the current one
+	private volatile boolean rehashOnLogin;
+	// Number of stored user and app password hashes made by each algorithm, updated as hashes are added,
+	// replaced and removed so that migration progress never needs a scan of the users
+	private final Map<String, LongAdder> userHashCounts = new ConcurrentHashMap<String, LongAdder>();
+	private final Map<String, LongAdder> appHashCounts = new ConcurrentHashMap<String, LongAdder>();
+
+	// Runs authenticateAsync, created on first use unless one is set
+	private volatile HashExecutor hashExecutor;
+
+	// Records every change once attached, null until then
+	private volatile WriteAheadLog log;
+
+	// Keeps only recently used users in memory once attached, null until then
+	private volatile TieredStorage tiering;
+
+	// Turns away usernames that are not stored without a search once attached, null until then
+	private volatile UsernameFilter filter;
+
+	// Open consistent views of the users, which every change keeps the user's earlier state for
+	private volatile UserSnapshot[] snapshots = new UserSnapshot[0];
+	private final Object snapshotLock = new Object();
 	
 	 public SkipListPasswordManager(){
-		 usrStore = new SkipList<String, User>();
+		 this(false);
+	 }
+
+	 // Constructs a password manager that may be shared between threads if threadSafe is true
+	 // Users are then kept in a ConcurrentSkipList and each user is guarded by one of a set of striped locks
+	 public SkipListPasswordManager(boolean threadSafe){
+		 this(threadSafe ? new ConcurrentSkipList<String, User>() : new SkipList<String, User>(), threadSafe);
+	 }
+
+	 // Constructs a password manager keeping its users in the given store, which must be thread-safe if threadSafe is
+	 SkipListPasswordManager(OrderedStore<String, User> store, boolean threadSafe){
+		 usrStore = store;
+		 hashers.put(Djb2Hasher.ALGORITHM, Djb2Hasher.INSTANCE);
+
+		 if (threadSafe){
+			 userLocks = new StampedLock[LOCK_STRIPES];
+
+			 for (int i = 0; i < LOCK_STRIPES; i++){
+				 userLocks[i] = new StampedLock();
+			 }
+		 }
+	 }
+
+	 // Constructs a sharded password manager with one shard per available processor
+	 public static SkipListPasswordManager sharded(){
+		 return sharded(Runtime.getRuntime().availableProcessors());
+	 }
+
+	 // Constructs a thread-safe password manager whose users are split by username hash between the given
+	 // number of SkipList shards, each with its own lock, so writes to different shards never contend
+	 public static SkipListPasswordManager sharded(int shards){
+		 return new SkipListPasswordManager(new ShardedSkipList<String, User>(shards), true);
+	 }
+
+	 // Constructs a password manager keeping its users outside the Java heap in an OffHeapStore, for userbases
+	 // of many millions, which would otherwise fill the heap and lengthen every full collection
+	 public static SkipListPasswordManager offHeap(boolean threadSafe){
+		 return new SkipListPasswordManager(new OffHeapStore(), threadSafe);
+	 }
+
+	 // Returns whether the manager may be shared between threads
+	 public boolean isThreadSafe(){
+		 return userLocks != null;
+	 }
+
+	 // Returns the lock guarding the user with the given username
+	 private StampedLock lockFor(String username){
+		 int h = username.hashCode();
+		 // Spread the higher bits down so similar usernames land on different stripes
+		 h ^= (h >>> 16);
+		 return userLocks[h & (LOCK_STRIPES - 1)];
+	 }
+
+	 // Takes the write lock for the given user in thread-safe mode
+	 // Returns the stamp to pass to unlockUser, 0 when the manager is not thread-safe
+	 private long lockUser(String username){
+		 if (userLocks == null){
+			 return 0;
+		 }
+		 return lockFor(username).writeLock();
+	 }
+
+	 private void unlockUser(String username, long stamp){
+		 if (userLocks != null){
+			 lockFor(username).unlockWrite(stamp);
+		 }
+	 }
+
+	 // Takes the read lock for the given user in thread-safe mode, returning the stamp to pass to unlockReadUser
+	 private long readLockUser(String username){
+		 if (userLocks == null){
+			 return 0;
+		 }
+		 return lockFor(username).readLock();
+	 }
+
+	 private void unlockReadUser(String username, long stamp){
+		 if (userLocks != null){
+			 lockFor(username).unlockRead(stamp);
+		 }
+	 }
+
+	 /* Replays every change recorded in the log into this manager, then records every later change in it before
+	 *  the change returns, as durably as the log's sync policy makes it
+	 *  The manager should be empty, or hold a snapshot taken no earlier than the log began. Every record holds
+	 *  the whole of what it changed, so replaying changes the snapshot already has leaves the same users
+	 *  Hashers for the algorithms the log holds must be registered for the users it restores to be verified
+	 *  Returns the number of changes replayed */
+	 public synchronized long attachLog(WriteAheadLog log) throws IOException{
+		 if (log == null){
+			 throw new IllegalArgumentException();
+		 }
+		 if (this.log != null){
+			 throw new IllegalStateException("A log is already attached");
+		 }
+
+		 long replayed = log.replay(new LogReplay());
+		 this.log = log;
+		 evict();
+		 return replayed;
+	 }
+
+	 // Returns the attached log, or null if there is none
+	 public WriteAheadLog getLog(){
+		 return log;
+	 }
+
+	 /* Keeps only the users used most recently in memory from now on, within the storage's budget, moving the rest
+	 *  to its file and reading each back the next time it is used. Users already in the manager that do not fit are
+	 *  moved straight away. Attach before the manager is shared between threads
+	 *  Users kept off the heap by an OffHeapStore cannot be tiered */
+	 public synchronized void attachTieredStorage(TieredStorage storage){
+		 if (storage == null){
+			 throw new IllegalArgumentException();
+		 }
+		 if (tiering != null){
+			 throw new IllegalStateException("Tiered storage is already attached");
+		 }
+		 if (usrStore instanceof OffHeapStore){
+			 throw new IllegalStateException("Users kept off the heap cannot be tiered");
+		 }
+
+		 for (Map.Entry<String, User> entry : usrStore){
+			 storage.add(entry.getValue(), ColdUserFile.NOWHERE);
+		 }
+		 tiering = storage;
+		 evict(storage);
+	 }
+
+	 // Returns the attached tiered storage, or null if there is none
+	 public TieredStorage getTieredStorage(){
+		 return tiering;
+	 }
+
+	 /* Holds every username stored from now on in the filter, which then turns away lookups of usernames that
+	 *  are not stored before they search the store. Usernames already in the manager are added straight away
+	 *  Attach before the manager is shared between threads */
+	 public synchronized void attachUsernameFilter(UsernameFilter filter){
+		 if (filter == null){
+			 throw new IllegalArgumentException();
+		 }
+		 if (this.filter != null){
+			 throw new IllegalStateException("A username filter is already attached");
+		 }
+
+		 Iterator<String> usernames = usrStore.keys(null, true, null, true);
+
+		 while (usernames.hasNext()){
+			 filter.add(usernames.next());
+		 }
+		 this.filter = filter;
+	 }
+
+	 // Returns the attached username filter, or null if there is none
+	 public UsernameFilter getUsernameFilter(){
+		 return filter;
+	 }
+
+	 // Returns false if the username filter, if there is one, rules out a user with username being stored
+	 private boolean mayExist(String username){
+		 UsernameFilter current = filter;
+		 return current == null || current.mightContain(username);
+	 }
+
+	 // Adds username to the username filter, if there is one, before the user is stored
+	 private void addToFilter(String username){
+		 UsernameFilter current = filter;
+
+		 if (current != null){
+			 current.add(username);
+		 }
+	 }
+
+	 // Removes username from the username filter, if there is one, once the user is no longer stored
+	 private void removeFromFilter(String username){
+		 UsernameFilter current = filter;
+
+		 if (current != null){
+			 current.remove(username);
+		 }
+	 }
+
+	 // Returns the user stored with username, read back into memory if it has been evicted, or null if there is none
+	 // A username the filter rules out is not searched for
+	 private User find(String username){
+		 UsernameFilter current = filter;
+
+		 if (current != null && !current.mightContain(username)){
+			 return null;
+		 }
+
+		 User usr = usrStore.get(username);
+
+		 if (usr == null && current != null){
+			 current.falsePositive();
+		 }
+		 return inMemory(username, usr);
+	 }
+
+	 // Returns the user found stored with username, or the user read back into memory in its place if it was evicted
+	 private User inMemory(String username, User found){
+		 TieredStorage tier = tiering;
+
+		 if (tier == null || found == null){
+			 return found;
+		 }
+		 if (!found.isEvicted()){
+			 tier.hit(found);
+			 return found;
+		 }
+
+		 // Room is made first, so the user read back stays in memory for the operation that needs it
+		 evict(tier);
+		 long start = System.nanoTime();
+		 long stamp = lockUser(username);
+		 User usr;
+
+		 try {
+			 usr = usrStore.get(username);
+
+			 if (TieredStorage.isCold(usr)){
+				 usr = tier.readBack(username);
+				 usrStore.put(username, usr);
+			 }
+		 } finally{
+			 unlockUser(username, stamp);
+		 }
+
+		 tier.faulted(System.nanoTime() - start);
+		 return usr;
+	 }
+
+	 // Returns the user stored with username as it is, reading an evicted user from the file without storing it
+	 // Called under the user's lock
+	 private User stored(String username){
+		 User usr = usrStore.get(username);
+
+		 if (TieredStorage.isCold(usr)){
+			 return tiering.read(username);
+		 }
+		 return usr;
+	 }
+
+	 // Puts a user just added on the clock of the tiered storage, if there is one
+	 private void admit(User usr){
+		 TieredStorage tier = tiering;
+
+		 if (tier != null){
+			 tier.add(usr, ColdUserFile.NOWHERE);
+		 }
+	 }
+
+	 // Moves users chosen by the storage's clock out of memory until those left fit its budget
+	 // Each user is evicted under its lock and marked, so operations that found it find it again
+	 // A user that cannot be written out stays in memory, and eviction stops until the next change, so a failing
+	 // file leaves memory over budget rather than failing the change that made room
+	 private void evict(TieredStorage tier){
+		 while (tier.overBudget()){
+			 TieredStorage.Victim victim = tier.nextVictim();
+
+			 if (victim == null){
+				 return;
+			 }
+
+			 String username = victim.usr.getUsername();
+			 long stamp = lockUser(username);
+
+			 try {
+				 if (victim.usr.isRemoved() || usrStore.get(username) != victim.usr){
+					 tier.discard(victim);
+				 } else{
+					 User cold = tier.evict(victim);
+
+					 if (cold == null){
+						 return;
+					 }
+					 usrStore.put(username, cold);
+					 victim.usr.markEvicted();
+				 }
+			 } finally{
+				 unlockUser(username, stamp);
+			 }
+		 }
+	 }
+
+	 // Evicts users to fit the budget of the tiered storage, if there is one, once users have been added
+	 private void evict(){
+		 TieredStorage tier = tiering;
+
+		 if (tier != null){
+			 evict(tier);
+		 }
+	 }
+
+	 /* Opens a consistent view of every user as they are now, which can be iterated while writes carry on
+	 *  Until the view is closed, the first change to each user keeps a copy of the user as it was for it
+	 *  In thread-safe mode the view is published holding every user's lock, as each change checks for views and
+	 *  is made under its user's lock. Every change is then either made before the view opens, or keeps a copy for it */
+	 public UserSnapshot openSnapshot(){
+		 UserSnapshot snapshot = new UserSnapshot(this);
+		 long[] stamps = lockAllUsers();
+
+		 try {
+			 synchronized (snapshotLock){
+				 UserSnapshot[] open = Arrays.copyOf(snapshots, snapshots.length + 1);
+				 open[open.length - 1] = snapshot;
+				 snapshots = open;
+			 }
+		 } finally{
+			 unlockAllUsers(stamps);
+		 }
+		 return snapshot;
+	 }
+
+	 // Takes the write lock of every stripe, in order, returning the stamps to pass to unlockAllUsers
+	 // Returns null when the manager is not thread-safe
+	 private long[] lockAllUsers(){
+		 if (userLocks == null){
+			 return null;
+		 }
+
+		 long[] stamps = new long[userLocks.length];
+
+		 for (int i = 0; i < userLocks.length; i++){
+			 stamps[i] = userLocks[i].writeLock();
+		 }
+		 return stamps;
+	 }
+
+	 private void unlockAllUsers(long[] stamps){
+		 if (stamps != null){
+			 for (int i = stamps.length - 1; i >= 0; i--){
+				 userLocks[i].unlockWrite(stamps[i]);
+			 }
+		 }
+	 }
+
+	 // Stops changes keeping copies for the given view
+	 void closeSnapshot(UserSnapshot snapshot){
+		 synchronized (snapshotLock){
+			 List<UserSnapshot> open = new ArrayList<UserSnapshot>(Arrays.asList(snapshots));
+			 open.remove(snapshot);
+			 snapshots = open.toArray(new UserSnapshot[0]);
+		 }
+	 }
+
+	 // Keeps the user as it is for every open view, before it is changed or removed, or with null just after it is
+	 // added. Called under the user's lock, together with the change, so no view can open or read the user
+	 // between the change and the copy
+	 private void preserve(String username, User usr){
+		 for (UserSnapshot snapshot : snapshots){
+			 snapshot.preserve(username, usr);
+		 }
+	 }
+
+	 // Returns up to limit usernames in order, starting after last, or from the first if last is null
+	 List<String> usernamesAfter(String last, int limit){
+		 List<String> usernames = new ArrayList<String>(limit);
+		 Iterator<String> all = usrStore.keys(last, false, null, true);
+
+		 while (usernames.size() < limit && all.hasNext()){
+			 usernames.add(all.next());
+		 }
+		 return usernames;
+	 }
+
+	 // Returns the users stored with the given usernames, in ascending order, with null for those not stored
+	 List<User> usersOf(List<String> usernames){
+		 return usrStore.getAll(usernames);
+	 }
+
+	 // Returns a copy of the user found for a view, read under the user's lock, or the copy the view kept
+	 // if the user has changed since it was opened. Returns null if the user was not in the view
+	 User snapshotUser(String username, User found, UserSnapshot snapshot){
+		 long stamp = readLockUser(username);
+
+		 try {
+			 User kept = snapshot.preserved(username);
+
+			 if (kept != null){
+				 return UserSnapshot.isAbsent(kept) ? null : kept.copy();
+			 }
+			 if (found != null && found.isEvicted()){
+				 // Moved out of memory or back since it was found, unchanged, as a change would have kept a copy
+				 found = stored(username);
+			 }
+			 // A user removed since it was found has had a copy kept, so only a user that never existed gets here
+			 return found == null || found.isRemoved() ? null : found.copy();
+		 } finally{
+			 unlockReadUser(username, stamp);
+		 }
+	 }
+
+	 /* Writes every user to a snapshot file in username order, streaming them from the store one at a time
+	 *  The snapshot is written beside the file and moved over it once complete, so a crash while writing
+	 *  leaves any earlier snapshot in place
+	 *  In thread-safe mode the users are written as they were when the snapshot began, through a UserSnapshot,
+	 *  while writes carry on. Returns the number of users written */
+	 public long writeSnapshot(Path file) throws IOException{
+		 if (file == null){
+			 throw new IllegalArgumentException();
+		 }
+
+		 Path partial = file.resolveSibling(file.getFileName() + ".partial");
+
+		 try {
+			 Snapshot.Writer writer = new Snapshot.Writer(partial);
+
+			 try {
+				 if (userLocks == null){
+					 for (Map.Entry<String, User> entry : usrStore){
+						 User usr = entry.getValue();
+						 writer.add(usr.isEvicted() ? stored(entry.getKey()) : usr);
+						 writer.writeIfFull();
+					 }
+				 } else{
+					 try (UserSnapshot view = openSnapshot()){
+						 for (User usr : view){
+							 writer.add(usr);
+							 writer.writeIfFull();
+						 }
+					 }
+				 }
+				 writer.close();
+			 } finally{
+				 // A snapshot that failed is not completed or forced, as it is deleted
+				 writer.abandon();
+			 }
+
+			 Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			 return writer.users();
+		 } finally{
+			 Files.deleteIfExists(partial);
+		 }
+	 }
+
+	 /* Loads the users in a snapshot file into this manager, which must be empty and have no log attached
+	 *  Segments of the file are decoded in parallel, and the users then added as addNewUsers adds them,
+	 *  in a single linear pass unless the manager is thread-safe
+	 *  Hashers for the algorithms the snapshot holds must be registered first. Returns the number of users loaded */
+	 public synchronized long loadSnapshot(Path file) throws IOException{
+		 if (file == null){
+			 throw new IllegalArgumentException();
+		 }
+		 if (log != null || !usrStore.isEmpty()){
+			 throw new IllegalStateException("A snapshot can only be loaded into an empty manager without a log");
+		 }
+
+		 List<User> users = Snapshot.read(file);
+		 List<String> rejected = addNewUsers(users.iterator());
+
+		 if (!rejected.isEmpty()){
+			 throw new IOException(file + " repeats user " + rejected.get(0));
+		 }
+		 return users.size();
+	 }
+
+	 // Applies the changes in a log to the manager, counting the hashes they add and remove
+	 private class LogReplay implements WriteAheadLog.Changes {
+		 public void putUser(User usr){
+			 User current = find(usr.getUsername());
+			 preserve(usr.getUsername(), current);
+
+			 if (current == null){
+				 addToFilter(usr.getUsername());
+			 }
+			 User previous = usrStore.put(usr.getUsername(), usr);
+
+			 if (previous != null){
+				 countHashes(previous, -1);
+			 }
+			 countHashes(usr, 1);
+			 admit(usr);
+		 }
+
+		 public void deleteUser(String username){
+			 User usr = find(username);
+
+			 if (usr != null){
+				 preserve(username, usr);
+				 // Counted first, as users of some stores lose their passwords once removed
+				 countHashes(usr, -1);
+				 usrStore.remove(username);
+				 usr.markRemoved();
+				 removeFromFilter(username);
+			 }
+		 }
+
+		 public void setPassword(String username, String appName, String algorithm, byte[] salt, long hash){
+			 User usr = find(username);
+
+			 if (usr == null){
+				 return;
+			 }
+			 preserve(username, usr);
+			 usr.adoptSalt(salt);
+
+			 if (appName == null){
+				 count(userHashCounts, usr.getAlgorithm(), -1);
+				 usr.setUserPassword(hash, algorithm);
+				 count(userHashCounts, algorithm, 1);
+			 } else{
+				 String previous = usr.getAlgorithm(appName);
+
+				 if (previous != null){
+					 count(appHashCounts, previous, -1);
+				 }
+				 usr.setPassword(appName, hash, algorithm);
+				 count(appHashCounts, algorithm, 1);
+			 }
+		 }
+	 }
+
+	 // Returns the log record of the user being added, or null without a log
+	 // Records are made before the change, so that one the log cannot take throws before any user is changed
+	 private WriteAheadLog.Record userRecord(User usr){
+		 WriteAheadLog current = log;
+		 return current == null ? null : current.userRecord(usr);
+	 }
+
+	 private WriteAheadLog.Record deleteRecord(String username){
+		 WriteAheadLog current = log;
+		 return current == null ? null : current.deleteRecord(username);
+	 }
+
+	 private WriteAheadLog.Record passwordRecord(String username, String appName, String algorithm, byte[] salt, long hash){
+		 WriteAheadLog current = log;
+		 return current == null ? null : current.passwordRecord(username, appName, algorithm, salt, hash);
+	 }
+
+	 // Appends a record made before the change it records, once the change is made
+	 // Returns the sequence number to pass to commit once the user's lock is released, 0 without a log
+	 private long append(WriteAheadLog.Record record){
+		 return record == null ? 0 : log.append(record);
+	 }
+
+	 // Returns once the logged change is as durable as the log's sync policy makes it, which may mean waiting
+	 // for the disk, so no user's lock may be held
+	 private void commit(long logged){
+		 if (logged != 0){
+			 log.commit(logged);
+		 }
+	 }
+
+	 // Makes hasher the one new users, reset passwords and new app passwords are hashed with, and registers it
+	 // Stored hashes keep being verified with the hasher that made them, which stays registered
+	 public void setHasher(PasswordHasher hasher){
+		 registerHasher(hasher);
+		 this.hasher = hasher;
+	 }
+
+	 // Returns the hasher new users are hashed with, unsalted djb2 unless another has been set
+	 public PasswordHasher getHasher(){
+		 return hasher;
+	 }
+
+	 // Registers a hasher that users added through addNewUsers were hashed with, so they can be verified
+	 // A hasher with the same algorithm as one already registered replaces it
+	 public void registerHasher(PasswordHasher hasher){
+		 if (hasher == null || hasher.algorithm() == null){
+			 throw new IllegalArgumentException();
+		 }
+		 hashers.put(hasher.algorithm(), hasher);
+	 }
+
+	 // Returns the registered hasher with the given algorithm
+	 private PasswordHasher hasherFor(String algorithm){
+		 PasswordHasher usrHasher = hashers.get(algorithm);
+
+		 if (usrHasher == null){
+			 throw new IllegalStateException("No hasher registered for " + algorithm);
+		 }
+		 return usrHasher;
+	 }
+
+	 // Sets whether a successful authenticate rehashes a password hashed by an older hasher with the current one
+	 // Stored hashes then migrate to the current hasher as their users log in, one user's lock at a time
+	 public void setRehashOnLogin(boolean rehashOnLogin){
+		 this.rehashOnLogin = rehashOnLogin;
+	 }
+
+	 public boolean isRehashOnLogin(){
+		 return rehashOnLogin;
+	 }
+
+	 // Returns the number of users whose password hash was made by each algorithm
+	 // Counts are kept as hashes change, so this costs the same however many users are stored
+	 public Map<String, Long> userHashCounts(){
+		 return snapshot(userHashCounts);
+	 }
+
+	 // Returns the number of app password hashes made by each algorithm
+	 public Map<String, Long> appHashCounts(){
+		 return snapshot(appHashCounts);
+	 }
+
+	 private static Map<String, Long> snapshot(Map<String, LongAdder> counts){
+		 Map<String, Long> snapshot = new TreeMap<String, Long>();
+
+		 for (Map.Entry<String, LongAdder> count : counts.entrySet()){
+			 long value = count.getValue().sum();
+
+			 if (value != 0){
+				 snapshot.put(count.getKey(), value);
+			 }
+		 }
+		 return snapshot;
+	 }
+
+	 private static void count(Map<String, LongAdder> counts, String algorithm, int change){
+		 counts.computeIfAbsent(algorithm, a -> new LongAdder()).add(change);
+	 }
+
+	 // Counts or uncounts every hash of the given user
+	 private void countHashes(User usr, int change){
+		 count(userHashCounts, usr.getAlgorithm(), change);
+
+		 if (usr.appsShareAlgorithm()){
+			 if (usr.numberApps() > 0){
+				 count(appHashCounts, usr.getAlgorithm(), change * usr.numberApps());
+			 }
+			 return;
+		 }
+		 for (String algorithm : usr.getAppAlgorithms()){
+			 count(appHashCounts, algorithm, change);
+		 }
+	 }
+
+	 // Returns a new random salt for the given hasher, or null if it does not use one
+	 private static byte[] newSalt(PasswordHasher hasher){
+		 if (hasher.saltLength() == 0){
+			 return null;
+		 }
+
+		 byte[] salt = new byte[hasher.saltLength()];
+		 SALTS.nextBytes(salt);
+		 return salt;
 	 }
 
 	// returns djb2 hash representation of given password string
 	 public Long hash(String password){
-		 long hash = 5381;
-		 
-		if (password == null){
+		 return passwordHash(password);
+	 }
+
+	 // returns djb2 hash representation of given password, without copying or boxing it
+	 // Any CharSequence hashes the same as the String holding the same characters
+	 public long passwordHash(CharSequence password){
+		return Djb2Hasher.hash(password);
+	 }
+
+	 // returns djb2 hash representation of the password held in the given characters, without copying them
+	 public long passwordHash(char[] password){
+		return Djb2Hasher.hash(password);
+	 }
+
+	 // returns djb2 hash representation of the password encoded as UTF-8 in the given bytes
+	 // Malformed UTF-8 is rejected rather than replaced
+	 public long passwordHash(byte[] utf8Password){
+		if (utf8Password == null){
 			throw new IllegalArgumentException();
 		}
-		
-		// djb2 password hash
-		String pwd = new String(password);
-		
-		for(int i = 0; i < pwd.length(); i++){
-			hash = ((hash << 5) + hash) + pwd.charAt(i);
-		}
+		return Djb2Hasher.hash(utf8Password, 0, utf8Password.length);
+	 }
 
-		return hash;
-		 
+	 // returns djb2 hash representation of the password encoded as UTF-8 in length bytes from offset
+	 public long passwordHash(byte[] utf8Password, int offset, int length){
+		return Djb2Hasher.hash(utf8Password, offset, length);
 	 }
+
+	 // returns djb2 hash representation of the password encoded as UTF-8 in the remaining bytes of the buffer
+	 // The buffer's position is left unchanged, so a receive buffer can be hashed where it is
+	 public long passwordHash(ByteBuffer utf8Password){
+		return Djb2Hasher.hash(utf8Password);
+	 }
+
 	 // userbase methods
 	 // return a list of all usernames currently stored
 	 public List<String> listUsers(){
@@ -33,6 +738,34 @@ public class SkipListPasswordManager {
 		 
 	 }
 	 
+	 // Returns up to limit usernames that start with prefix, in order
+	 // The store seeks straight to the first match, so the cost depends on the number returned rather than stored
+	 public List<String> listUsers(String prefix, int limit){
+		if (prefix == null || limit < 0){
+			throw new IllegalArgumentException();
+		}
+
+		List<String> users = new ArrayList<String>();
+		Iterator<String> matches = usrStore.keys(prefix, true, null, false);
+
+		while (users.size() < limit && matches.hasNext()){
+			String username = matches.next();
+
+			if (!username.startsWith(prefix)){
+				break;
+			}
+			users.add(username);
+		}
+
+		return users;
+	 }
+
+	 // Returns up to limit usernames in order, skipping the first offset
+	 // Without thread-safety the page is found in logarithmic time, so every page costs the same
+	 public List<String> listUsers(int offset, int limit){
+		return usrStore.range(offset, limit);
+	 }
+
 	 // Returns number of users in the password manager
 	 public int numberUsers(){
 		return usrStore.size();
@@ -40,45 +773,252 @@ public class SkipListPasswordManager {
 	 }
 	 
 	 // Adds to the password manager a new user with username username, and password password
+	 // The user is given a new salt if the current hasher uses one, and hashed before its lock is taken
 	 public String addNewUser(String username, String password){
 		if (username == null || password == null){
 			throw new IllegalArgumentException();
 		}
 
-		if (usrStore.containsKey(username)){
-			return "User already exists.";
+		PasswordHasher usrHasher = hasher;
+		byte[] salt = newSalt(usrHasher);
+		User usr = new User(username, usrHasher.algorithm(), salt);
+		usr.setUserPassword(usrHasher.hash(password, salt));
+		WriteAheadLog.Record record = userRecord(usr);
+		long stamp = lockUser(username);
+		long logged;
+
+		try {
+			// Filtered first, so that no lookup finds the user stored but filtered out
+			addToFilter(username);
+
+			// A single search both finds an existing user and links in the new one
+			if (usrStore.putIfAbsent(username, usr) != null){
+				removeFromFilter(username);
+				return "User already exists.";
+			}
+			preserve(username, null);
+			count(userHashCounts, usr.getAlgorithm(), 1);
+			logged = append(record);
+		} finally{
+			unlockUser(username, stamp);
 		}
-		
-		User usr = new User(username);
-		usr.setUserPassword(hash(password));
-		usrStore.put(username, usr);
+
+		// Committed first, so the change is as durable as promised before other users are written out
+		admit(usr);
+		commit(logged);
+		evict();
 		return username;
 		 
 	 }
 	 
+	 // Adds many users at once, given in ascending username order with their passwords already hashed and set
+	 // Every algorithm the users were hashed with must be that of a registered hasher
+	 // An empty manager that is not thread-safe is filled in a single linear pass, otherwise users are added one at a time
+	 // Returns the usernames that were not added because they repeat an earlier user or already exist
+	 public List<String> addNewUsers(Iterator<User> sortedUsers){
+		if (sortedUsers == null){
+			throw new IllegalArgumentException();
+		}
+
+		List<String> rejected = new ArrayList<String>();
+
+		// Open views read the store being replaced, so they rule out building a new one
+		// The store is only replaced by another of its own kind
+		if (!isThreadSafe() && usrStore instanceof SkipList && usrStore.isEmpty() && snapshots.length == 0){
+			// The store is only replaced once the whole input has been read, so a bad input leaves it empty
+			SkipList<String, User> built = SkipList.build(new UserEntries(sortedUsers), rejected);
+
+			// Only the users kept can be counted and logged, which are known once the list is built
+			// Their records are made before the store is replaced, so a user the log cannot take leaves it empty too
+			List<WriteAheadLog.Record> records = new ArrayList<WriteAheadLog.Record>();
+
+			if (log != null){
+				for (Map.Entry<String, User> entry : built){
+					records.add(userRecord(entry.getValue()));
+				}
+			}
+
+			usrStore = built;
+			long logged = 0;
+
+			for (WriteAheadLog.Record record : records){
+				logged = append(record);
+			}
+			for (Map.Entry<String, User> entry : usrStore){
+				addToFilter(entry.getKey());
+				countHashes(entry.getValue(), 1);
+				admit(entry.getValue());
+			}
+			commit(logged);
+			evict();
+			return rejected;
+		}
+
+		String previous = null;
+		long logged = 0;
+
+		while (sortedUsers.hasNext()){
+			User usr = checkUser(sortedUsers.next());
+			String username = usr.getUsername();
+
+			if (previous != null && previous.compareTo(username) > 0){
+				throw new IllegalArgumentException("Users are not in ascending order at " + username);
+			}
+			previous = username;
+
+			WriteAheadLog.Record record = userRecord(usr);
+			long stamp = lockUser(username);
+
+			try {
+				addToFilter(username);
+
+				if (usrStore.putIfAbsent(username, usr) != null){
+					removeFromFilter(username);
+					rejected.add(username);
+					usr = null;
+				} else{
+					preserve(username, null);
+					countHashes(usr, 1);
+					logged = append(record);
+				}
+			} finally{
+				unlockUser(username, stamp);
+			}
+
+			if (usr != null){
+				admit(usr);
+				evict();
+			}
+		}
+
+		// Waiting for the last user covers every earlier one
+		commit(logged);
+		return rejected;
+	 }
+
+	 // Returns the given user if it can be added, with a username, and a registered hasher for each of its hashes
+	 private User checkUser(User usr){
+		if (usr == null || usr.getUsername() == null){
+			throw new IllegalArgumentException();
+		}
+
+		// Apps sharing the user's algorithm need no check of their own
+		List<String> algorithms = usr.appsShareAlgorithm() ? new ArrayList<String>(1) : usr.getAppAlgorithms();
+		algorithms.add(usr.getAlgorithm());
+
+		for (String algorithm : algorithms){
+			PasswordHasher usrHasher = hashers.get(algorithm);
+
+			if (usrHasher == null){
+				throw new IllegalArgumentException("No hasher registered for " + algorithm + " of " + usr.getUsername());
+			}
+			if (usrHasher.saltLength() > 0 && usr.getSalt() == null){
+				throw new IllegalArgumentException("No salt for " + algorithm + " of " + usr.getUsername());
+			}
+		}
+		return usr;
+	 }
+
+	 // Presents users as username to user entries for SkipList.build
+	 private class UserEntries implements Iterator<AbstractMap.SimpleImmutableEntry<String, User>> {
+		private final Iterator<User> users;
+
+		UserEntries(Iterator<User> users){
+			this.users = users;
+		}
+
+		public boolean hasNext(){
+			return users.hasNext();
+		}
+
+		public AbstractMap.SimpleImmutableEntry<String, User> next(){
+			User usr = checkUser(users.next());
+			return new AbstractMap.SimpleImmutableEntry<String, User>(usr.getUsername(), usr);
+		}
+	 }
+	 
 	 // Deletes from the password manager user with username username, and password password	 
 	 public String deleteUser(String username, String password){
 		if (username == null || password == null){
 			throw new IllegalArgumentException();
 		}
-		
-		// Stores the authentication reply from the authenticate method
-		String auth = authenticate(username,password);
 
-		if (auth.equals(username)){
-			usrStore.remove(username);
-			return username;
+		Status status;
+		long logged = 0;
+
+		if (userLocks == null){
+			if (!mayExist(username)){
+				return Status.NO_SUCH_USER.message(username);
+			}
+			if (tiering != null){
+				// The user must be in memory to be checked
+				find(username);
+			}
+
+			// The user is checked and unlinked in a single search, and is returned even if it was not removed
+			// The record is made once the user is found, and a store leaves the user in place if it throws
+			Status[] checked = {Status.NO_SUCH_USER};
+			WriteAheadLog.Record[] record = {null};
+			User usr = usrStore.remove(username, u -> {
+				String algorithm = u.getAlgorithm();
+				checked[0] = verify(u, hash(u, algorithm, password), algorithm, "null", true);
+
+				if (checked[0] != Status.AUTHENTICATED){
+					return false;
+				}
+				record[0] = deleteRecord(username);
+				preserve(username, u);
+				return true;
+			});
+			status = checked[0];
+
+			if (status == Status.AUTHENTICATED){
+				usr.markRemoved();
+				countHashes(usr, -1);
+				removeFromFilter(username);
+				logged = append(record[0]);
+			}
+		} else{
+			// The password can only be hashed with the user's salt, so the user is found first
+			// and the password hashed before its lock is taken
+			User usr = find(username);
+			WriteAheadLog.Record record = usr == null ? null : deleteRecord(username);
+			status = Status.STALE;
+
+			for (boolean locked = false; status == Status.STALE && usr != null; locked = true){
+				String algorithm = algorithmOf(usr, "null", true, locked);
+				long givenPwdHash = hash(usr, algorithm, password);
+				long stamp = lockUser(username);
+
+				try {
+					status = verify(usr, givenPwdHash, algorithm, "null", true);
+
+					// Users are only added, removed and evicted under their lock, so the user found is still the one stored
+					if (status == Status.AUTHENTICATED){
+						preserve(username, usr);
+						// Counted first, as users of some stores lose their passwords once removed
+						countHashes(usr, -1);
+						usrStore.remove(username);
+						usr.markRemoved();
+						removeFromFilter(username);
+						logged = append(record);
+					}
+				} finally{
+					unlockUser(username, stamp);
+				}
+				usr = again(username, usr, status);
+			}
+			if (usr == null){
+				status = Status.NO_SUCH_USER;
+			}
 		}
 
-		switch(auth){
-			case "No such user exists.":
-				return "No such user exists.";
-				
-			case "Failed to authenticate user.":
-				return "Failed to authenticate user.";
+		commit(logged);
+
+		if (status == Status.AUTHENTICATED || status == Status.NO_SUCH_USER){
+			return status.message(username);
 		}
-		
-		return "Failed to authenticate user.";
+		return Status.FAILED.message(username);
 	 }
 	 
 	 // interface methods
@@ -89,40 +1029,363 @@ public class SkipListPasswordManager {
 	 public String authenticate(String username, String password, String appName){
 		 return authenticate(username, password, appName, false);
 	 }
+
+	 // Authenticates a user whose password is held in a character array, which is hashed without being copied
+	 public String authenticate(String username, char[] password){
+		 if (username == null || password == null){
+			 throw new IllegalArgumentException();
+		 }
+		 return login(find(username), password, "null", true).message(username);
+	 }
+
+	 // Authenticates a user whose password is UTF-8 encoded in the remaining bytes of the buffer, such as a
+	 // network receive buffer. The bytes are hashed where they are and the buffer's position is left unchanged
+	 public String authenticate(String username, ByteBuffer utf8Password){
+		 if (username == null || utf8Password == null){
+			 throw new IllegalArgumentException();
+		 }
+		 return login(find(username), utf8Password, "null", true).message(username);
+	 }
+
+	 // Authenticates on a worker of the manager's HashExecutor, so the calling thread is never held up by a slow hasher
+	 // The future completes with what authenticate would return, or with a RejectedExecutionException if the
+	 // executor's queue is full. Only a thread-safe manager can be used from the executor's threads
+	 public CompletableFuture<String> authenticateAsync(String username, String password){
+		 if (username == null || password == null){
+			 throw new IllegalArgumentException();
+		 }
+		 return hashExecutor().submit(() -> authenticate(username, password));
+	 }
+
+	 public CompletableFuture<String> authenticateAsync(String username, String password, String appName){
+		 if (username == null || password == null || appName == null){
+			 throw new IllegalArgumentException();
+		 }
+		 return hashExecutor().submit(() -> authenticate(username, password, appName));
+	 }
+
+	 // The array is read by the worker, so it must not be cleared until the future has completed
+	 public CompletableFuture<String> authenticateAsync(String username, char[] password){
+		 if (username == null || password == null){
+			 throw new IllegalArgumentException();
+		 }
+		 return hashExecutor().submit(() -> authenticate(username, password));
+	 }
+
+	 // Returns the executor authenticateAsync hashes on, creating one with a worker per available processor if none is set
+	 public HashExecutor hashExecutor(){
+		 if (!isThreadSafe()){
+			 throw new IllegalStateException("Asynchronous hashing needs a thread-safe manager");
+		 }
+
+		 HashExecutor executor = hashExecutor;
+
+		 if (executor == null){
+			 synchronized (this){
+				 executor = hashExecutor;
+
+				 if (executor == null){
+					 executor = new HashExecutor();
+					 hashExecutor = executor;
+				 }
+			 }
+		 }
+		 return executor;
+	 }
+
+	 // Sets the executor authenticateAsync hashes on, such as one sized for a given load
+	 public void setHashExecutor(HashExecutor executor){
+		 if (executor == null){
+			 throw new IllegalArgumentException();
+		 }
+		 if (!isThreadSafe()){
+			 throw new IllegalStateException("Asynchronous hashing needs a thread-safe manager");
+		 }
+		 hashExecutor = executor;
+	 }
 	 
+	 // Authenticates many users at once, given in ascending username order with their passwords
+	 // Returns what authenticate would for each user, in the same order
+	 // Without thread-safety all users are found in one pass over the skiplist, each search continuing from the last
+	 public List<String> authenticateAll(List<String> sortedUsernames, List<String> passwords){
+			if (sortedUsernames == null || passwords == null || sortedUsernames.size() != passwords.size()){
+				throw new IllegalArgumentException();
+			}
+
+			List<String> results = new ArrayList<String>(sortedUsernames.size());
+
+			if (isThreadSafe()){
+				// Each user must be read under its own lock
+				String previous = null;
+
+				for (int i = 0; i < sortedUsernames.size(); i++){
+					String username = sortedUsernames.get(i);
+
+					if (username != null && previous != null && previous.compareTo(username) > 0){
+						throw new IllegalArgumentException("Usernames are not in ascending order at " + username);
+					}
+					previous = username;
+					results.add(authenticate(username, passwords.get(i)));
+				}
+				return results;
+			}
+
+			List<User> users = usrStore.getAll(sortedUsernames);
+
+			for (int i = 0; i < users.size(); i++){
+				String password = passwords.get(i);
+
+				if (password == null){
+					throw new IllegalArgumentException();
+				}
+				User usr = inMemory(sortedUsernames.get(i), users.get(i));
+				results.add(login(usr, password, "null", true).message(sortedUsernames.get(i)));
+			}
+
+			return results;
+	 }
+
 	 private String authenticate(String username, String password, String appName, boolean internal){
 			if (username == null || password == null || appName == null){
 				throw new IllegalArgumentException();
 			}
-			
-			Long givenPwdHash = hash(password);
-			
-			// Attempts to find user in password manager
-			User usr = usrStore.get(username);
-			
-			if (usr == null){
-				return "No such user exists.";
-			} else{
-				Long usrPwdHash;
-				
-				if (internal){
-					usrPwdHash = usr.getUserPassword();
-				} else{
-					usrPwdHash = usr.getPassword(appName);
+			return login(find(username), password, appName, internal).message(username);
+	 }
+
+	 /* Checks password against the user's password, or appName's, and rehashes it with the current hasher if it was
+	 *  made by another and rehashOnLogin is set
+	 *  The user is found first, as the password can only be hashed with the hasher and salt of the hash it is checked
+	 *  against, and it is hashed without any lock held. Should that hash be rehashed in the meantime, it is hashed again */
+	 private Status login(User usr, Object password, String appName, boolean internal){
+			for (boolean locked = false; usr != null; locked = true){
+				String algorithm = algorithmOf(usr, appName, internal, locked);
+				long givenPwdHash = algorithm == null ? 0 : hash(usr, algorithm, password);
+				Status status = verifyReading(usr, givenPwdHash, algorithm, appName, internal);
+
+				if (status == Status.STALE){
+					usr = again(usr.getUsername(), usr, status);
+					continue;
+				}
+				if (status == Status.AUTHENTICATED && rehashOnLogin && !algorithm.equals(hasher.algorithm())){
+					// The login has already succeeded, so a rehash that loses a race with another change is simply dropped
+					store(usr, algorithm, givenPwdHash, appName, internal, password, appName, internal);
+				}
+				return status;
+			}
+			return Status.NO_SUCH_USER;
+	 }
+
+	 // Returns the algorithm recorded for the user's password, or appName's if not internal, null if there is none
+	 // In thread-safe mode the algorithm of the user's own password, a single field, is read without a lock unless
+	 // locked, and a stale answer is caught when the hash is verified. An app's is looked up under the user's
+	 // read lock, as a concurrent write may be growing the arrays or table the lookup walks
+	 private String algorithmOf(User usr, String appName, boolean internal, boolean locked){
+			if (userLocks == null || (internal && !locked)){
+				return internal ? usr.getAlgorithm() : usr.getAlgorithm(appName);
+			}
+
+			StampedLock lock = lockFor(usr.getUsername());
+			long stamp = lock.readLock();
+
+			try {
+				return internal ? usr.getAlgorithm() : usr.getAlgorithm(appName);
+			} finally{
+				lock.unlockRead(stamp);
+			}
+	 }
+
+	 // Returns the hash of password with the registered hasher of the given algorithm and the user's salt
+	 private long hash(User usr, String algorithm, Object password){
+			PasswordHasher usrHasher = hasherFor(algorithm);
+			byte[] salt = usr.getSalt();
+
+			if (salt == null && usrHasher.saltLength() > 0 && userLocks != null){
+				// The salt is set before the hash that needs it, under the user's lock, so it is there once the lock is free
+				StampedLock lock = lockFor(usr.getUsername());
+				long stamp = lock.readLock();
+
+				try {
+					salt = usr.getSalt();
+				} finally{
+					lock.unlockRead(stamp);
+				}
+			}
+
+			if (salt == null && usrHasher.saltLength() > 0){
+				throw new IllegalStateException("No salt for " + algorithm + " of " + usr.getUsername());
+			}
+			return hash(usrHasher, salt, password);
+	 }
+
+	 // Returns the hash of a String, char[] or UTF-8 ByteBuffer password
+	 private static long hash(PasswordHasher usrHasher, byte[] salt, Object password){
+			if (password instanceof char[]){
+				return usrHasher.hash((char[]) password, salt);
+			} else if (password instanceof ByteBuffer){
+				return usrHasher.hash((ByteBuffer) password, salt);
+			}
+			return usrHasher.hash((CharSequence) password, salt);
+	 }
+
+	 /* Hashes password with the current hasher and stores it as the user's password, or appName's, provided the
+	 *  verified hash, the user's password or verifiedApp's, still holds verifiedHash made by verifiedAlgorithm
+	 *  A user without a salt is given one if the current hasher needs it. Only the user's own lock is taken,
+	 *  and only once the password is hashed. Adding an app, verified by the user's password, fails if it exists
+	 *  Returns STALE if the verified hash was rehashed or the user given a salt meanwhile, so the caller can retry */
+	 private Status store(User usr, String verifiedAlgorithm, long verifiedHash, String verifiedApp, boolean verifiedInternal,
+			 Object password, String appName, boolean internal){
+			PasswordHasher current = hasher;
+			byte[] salt = usr.getSalt();
+
+			if (salt == null){
+				salt = newSalt(current);
+			}
+
+			long pwdHash = hash(current, salt, password);
+			WriteAheadLog.Record record = passwordRecord(usr.getUsername(), internal ? null : appName, current.algorithm(), salt, pwdHash);
+			long stamp = lockUser(usr.getUsername());
+			long logged;
+
+			try {
+				Status status = verify(usr, verifiedHash, verifiedAlgorithm, verifiedApp, verifiedInternal);
+
+				if (status != Status.AUTHENTICATED){
+					return status;
 				}
+				if (verifiedInternal && !internal && usr.containsApp(appName)){
+					return Status.APP_EXISTS;
+				}
+				preserve(usr.getUsername(), usr);
 
-				if (usrPwdHash== null){
-					return "No password found.";
+				if (!usr.adoptSalt(salt)){
+					return Status.STALE;
 				}
 
-				if (!givenPwdHash.equals(usrPwdHash)){
-					return "Failed to authenticate user.";
+				String previous;
+
+				if (internal){
+					previous = usr.getAlgorithm();
+					usr.setUserPassword(pwdHash, current.algorithm());
+					count(userHashCounts, previous, -1);
+					count(userHashCounts, current.algorithm(), 1);
 				} else{
-					return usr.getUsername();
+					previous = usr.getAlgorithm(appName);
+					usr.setPassword(appName, pwdHash, current.algorithm());
+					if (previous != null){
+						count(appHashCounts, previous, -1);
+					}
+					count(appHashCounts, current.algorithm(), 1);
 				}
+
+				logged = append(record);
+			} finally{
+				unlockUser(usr.getUsername(), stamp);
+			}
+
+			commit(logged);
+			return Status.AUTHENTICATED;
+	 }
+
+	 // Verifies the given password hash without taking the user's write lock
+	 // In thread-safe mode the user's own hash is read optimistically, copying the fields verified into locals that
+	 // are only used once the stamp is validated, falling back to a read lock only if a write to a user on the
+	 // same stripe happened in the meantime. An app's hash is read under the read lock, as in algorithmOf
+	 private Status verifyReading(User usr, long givenPwdHash, String algorithm, String appName, boolean internal){
+			if (userLocks == null || usr == null){
+				return verify(usr, givenPwdHash, algorithm, appName, internal);
+			}
+
+			StampedLock lock = lockFor(usr.getUsername());
+
+			if (internal){
+				long stamp = lock.tryOptimisticRead();
+				boolean removed = usr.isRemoved();
+				boolean evicted = usr.isEvicted();
+				long usrPwdHash = usr.getUserPasswordHash();
+				String usrAlgorithm = usr.getAlgorithm();
+
+				if (stamp != 0 && lock.validate(stamp)){
+					if (removed){
+						return Status.NO_SUCH_USER;
+					}
+					return evicted ? Status.STALE : compare(givenPwdHash, algorithm, usrPwdHash, usrAlgorithm);
+				}
+			}
+
+			long stamp = lock.readLock();
+
+			try {
+				return verify(usr, givenPwdHash, algorithm, appName, internal);
+			} finally{
+				lock.unlockRead(stamp);
 			}
 	 }
 	 
+	 // Returns the user to retry an operation with that ended in status, found again if it has been evicted meanwhile
+	 private User again(String username, User usr, Status status){
+			return status == Status.STALE && usr.isEvicted() ? find(username) : usr;
+	 }
+
+	 // Outcome of comparing a password with the stored hash, with the message the public methods return for it
+	 private enum Status {
+			AUTHENTICATED(null),
+			NO_SUCH_USER("No such user exists."),
+			NO_PASSWORD("No password found."),
+			FAILED("Failed to authenticate user."),
+			APP_EXISTS("Password already set up."),
+			// The stored hash was made by another algorithm than the password was hashed with, so it must be hashed again,
+			// or the user was evicted since it was found, so it must be found again
+			STALE(null);
+
+			private final String message;
+
+			Status(String message){
+				this.message = message;
+			}
+
+			// Returns the message for this outcome, which is the username itself on success
+			String message(String username){
+				return this == AUTHENTICATED ? username : message;
+			}
+	 }
+
+	 // Compares the given password hash, made by the given algorithm, with the stored hash for the user, which is null
+	 // if no such user exists. A user deleted since it was found is treated as missing, and one evicted as STALE
+	 // Callers in thread-safe mode must hold the user's lock, or validate an optimistic read afterwards
+	 private Status verify(User usr, long givenPwdHash, String algorithm, String appName, boolean internal){
+			if (usr == null || usr.isRemoved()){
+				return Status.NO_SUCH_USER;
+			}
+			if (usr.isEvicted()){
+				return Status.STALE;
+			}
+
+			long usrPwdHash;
+			String usrAlgorithm;
+				
+			if (internal){
+				usrPwdHash = usr.getUserPasswordHash();
+				usrAlgorithm = usr.getAlgorithm();
+			} else{
+				usrPwdHash = usr.getPasswordHash(appName);
+				usrAlgorithm = usr.getAlgorithm(appName);
+			}
+
+			return compare(givenPwdHash, algorithm, usrPwdHash, usrAlgorithm);
+	 }
+
+	 // Compares the given password hash, made with algorithm, with the stored hash and the algorithm that made it
+	 private static Status compare(long givenPwdHash, String algorithm, long usrPwdHash, String usrAlgorithm){
+			if (usrPwdHash == StringLongHashMap.NO_VALUE){
+				return Status.NO_PASSWORD;
+			}
+			if (!usrAlgorithm.equals(algorithm)){
+				return Status.STALE;
+			}
+
+			return givenPwdHash == usrPwdHash ? Status.AUTHENTICATED : Status.FAILED;
+	 }
+	 
 	 public String resetPassword(String username, String oldPassword, String newPassword){
 		 return resetPassword(username, oldPassword, newPassword, "null", true);
 	 }
@@ -134,67 +1397,57 @@ public class SkipListPasswordManager {
 	 
 	 // Resets password for given user
 	 // boolean internal to signify whether the users internal password is being reset or an app password is being reset
+	 // The new password is hashed with the current hasher, and only once the old one has matched
 	 private String resetPassword(String username, String oldPassword, String newPassword, String appName, boolean internal){
-			if (username == null || oldPassword == null || newPassword==null){
+			if (username == null || oldPassword == null || newPassword == null || appName == null){
 				throw new IllegalArgumentException();
 			}
 			
-			// Stores the authentication reply from the authenticate method
-			String auth;
-			
-			if (internal){
-				auth = authenticate(username,oldPassword);
-			} else{
-				auth = authenticate(username,oldPassword, appName);
-			}
-			
-			switch(auth){
-				case "No such user exists.":
-					return "No such user exists.";
-					
-				case "No password found.":
-					return "No password found.";
-					
-				case "Failed to authenticate user.":
-					return "Failed to authenticate user.";
-			}
-			
-			// Attempts to find user in password manager
-			User usr = usrStore.get(username);
+			// The user found is both checked and updated, so it is only searched for once
+			User usr = find(username);
 
-			if (internal){
-				usr.setUserPassword(hash(newPassword));
-			} else{
-				usr.setPassword(appName,hash(newPassword));
+			for (boolean locked = false; usr != null; locked = true){
+				String algorithm = algorithmOf(usr, appName, internal, locked);
+				long oldPwdHash = algorithm == null ? 0 : hash(usr, algorithm, oldPassword);
+				Status status = verifyReading(usr, oldPwdHash, algorithm, appName, internal);
+
+				if (status == Status.AUTHENTICATED){
+					status = store(usr, algorithm, oldPwdHash, appName, internal, newPassword, appName, internal);
+				}
+				if (status != Status.STALE){
+					return status.message(username);
+				}
+				usr = again(username, usr, status);
 			}
-			
-			return username;
+			return Status.NO_SUCH_USER.message(username);
 	 }
 	 
 	 // Adds a new app password to the given users password storage
+	 // As in resetPassword, the app password is only hashed once the user's password has matched
 	 public String newAppPassword(String username, String usrPassword, String appPassword, String appName){
 		
 		if (username == null || usrPassword == null || appPassword == null || appName == null){
 			throw new IllegalArgumentException();
 		}
 		
-		String auth = authenticate(username,usrPassword);
-		
-		switch(auth){
-			case "No such user exists.":
-				return "No such user exists.";
-				
-			case "Failed to authenticate user.":
-				return "Failed to authenticate user.";
-		}
-		
-		User usr = usrStore.get(username);
+		User usr = find(username);
 
-		if (usr.containsApp(appName)){
-			return "Password already set up.";
-		}
+		for (boolean locked = false; usr != null; locked = true){
+			String algorithm = algorithmOf(usr, "null", true, locked);
+			long usrPwdHash = hash(usr, algorithm, usrPassword);
+			Status status = verifyReading(usr, usrPwdHash, algorithm, "null", true);
 
-		usr.setPassword(appName, hash(appPassword));
-		return username;
+			if (status == Status.AUTHENTICATED){
+				status = store(usr, algorithm, usrPwdHash, "null", true, appPassword, appName, false);
+			}
+
+			if (status == Status.AUTHENTICATED || status == Status.NO_SUCH_USER || status == Status.APP_EXISTS){
+				return status.message(username);
+			} else if (status != Status.STALE){
+				return Status.FAILED.message(username);
+			}
+			usr = again(username, usr, status);
+		}
+		return Status.NO_SUCH_USER.message(username);
 	 }
 }
@@ -0,0 +1,416 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32C;
+
+/* Compact binary file of users in username order, for restoring a SkipListPasswordManager quickly
+*  Users are written in segments of about SEGMENT_BYTES, each framed by its length and a CRC32C checksum,
+*  and an index at the end of the file gives where every segment starts and how many users it holds
+*  A reader maps the segments into memory and decodes them in parallel, each straight into its place in the result
+*  Algorithms are written once in the index and referred to by number, so a user costs little more than
+*  its username and hashes */
+public class Snapshot {
+	// First and last bytes of every snapshot file
+	private static final int MAGIC = 0x50575331;
+	// A segment is ended once it holds this many bytes
+	private static final int SEGMENT_BYTES = 1 << 20;
+	// Length and checksum ahead of every segment
+	private static final int FRAME_BYTES = 8;
+	// Index offset, index length, index checksum and magic at the end of the file
+	private static final int FOOTER_BYTES = 20;
+	// Most app names a reader keeps one copy of in each segment
+	private static final int MAX_SHARED_APP_NAMES = 1024;
+
+	private Snapshot(){
+	}
+
+	/* Writes users, given in ascending username order, to a new snapshot file
+	*  Only the segment being filled is held in memory, so any number of users can be written */
+	public static class Writer implements Closeable {
+		private final FileChannel channel;
+		private final DataOutputStream file;
+		private final CRC32C crc = new CRC32C();
+		// Users of the segment being filled
+		private final SegmentBuffer segment = new SegmentBuffer();
+		private final DataOutputStream out = new DataOutputStream(segment);
+		private int segmentUsers;
+		// Start and user count of every segment written so far
+		private final List<long[]> segments = new ArrayList<long[]>();
+		private long position = 4;
+		// Number of every algorithm written so far, in the order they were first met
+		private final Map<String, Integer> algorithms = new HashMap<String, Integer>();
+		private final List<String> algorithmNames = new ArrayList<String>();
+		private String previous;
+		private long users;
+		private boolean closed;
+
+		// Creates the file, replacing any file already there
+		public Writer(Path path) throws IOException{
+			channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+			file = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+			file.writeInt(MAGIC);
+		}
+
+		/* Adds a user to the segment being filled, without writing anything to the file until writeIfFull or close,
+		*  so a caller reading the user under a lock can write once the lock is released
+		*  Usernames must be in ascending order */
+		public void add(User usr){
+			if (closed){
+				throw new IllegalStateException("Snapshot is closed");
+			}
+			if (usr == null || usr.getUsername() == null){
+				throw new IllegalArgumentException();
+			}
+
+			String username = usr.getUsername();
+
+			if (previous != null && previous.compareTo(username) >= 0){
+				throw new IllegalArgumentException("Users are not in ascending order at " + username);
+			}
+			previous = username;
+
+			try {
+				writeString(out, username);
+				writeVarInt(out, algorithmNumber(usr.getAlgorithm()));
+
+				byte[] salt = usr.getSalt();
+				out.writeByte(salt == null ? 0 : salt.length);
+				if (salt != null){
+					out.write(salt);
+				}
+				out.writeLong(usr.getUserPasswordHash());
+
+				List<String> appNames = usr.getAppNames();
+				writeVarInt(out, appNames.size());
+
+				for (String appName : appNames){
+					writeString(out, appName);
+					writeVarInt(out, algorithmNumber(usr.getAlgorithm(appName)));
+					out.writeLong(usr.getPasswordHash(appName));
+				}
+			} catch (IOException e){
+				// Only ever written to memory
+				throw new UncheckedIOException(e);
+			}
+
+			segmentUsers++;
+			users++;
+		}
+
+		// Writes the segment being filled to the file if it has reached SEGMENT_BYTES
+		public void writeIfFull() throws IOException{
+			if (segment.size() >= SEGMENT_BYTES){
+				writeSegment();
+			}
+		}
+
+		// Returns the number of users added
+		public long users(){
+			return users;
+		}
+
+		private int algorithmNumber(String algorithm){
+			Integer number = algorithms.get(algorithm);
+
+			if (number == null){
+				number = algorithmNames.size();
+				algorithms.put(algorithm, number);
+				algorithmNames.add(algorithm);
+			}
+			return number;
+		}
+
+		private void writeSegment() throws IOException{
+			if (segmentUsers == 0){
+				return;
+			}
+
+			file.writeInt(segment.size());
+			file.writeInt(segment.checksum(crc));
+			segment.writeTo(file);
+			segments.add(new long[]{position, segmentUsers});
+			position += FRAME_BYTES + segment.size();
+			segment.reset();
+			segmentUsers = 0;
+		}
+
+		// Writes the last segment and the index, and forces the file to disk before closing it
+		public void close() throws IOException{
+			if (closed){
+				return;
+			}
+			closed = true;
+
+			try {
+				writeSegment();
+
+				ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+				DataOutputStream index = new DataOutputStream(indexBytes);
+				index.writeInt(algorithmNames.size());
+				for (String algorithm : algorithmNames){
+					index.writeUTF(algorithm);
+				}
+				index.writeLong(users);
+				index.writeInt(segments.size());
+				for (long[] start : segments){
+					index.writeLong(start[0]);
+					index.writeInt((int) start[1]);
+				}
+
+				byte[] contents = indexBytes.toByteArray();
+				crc.reset();
+				crc.update(contents);
+				file.write(contents);
+				file.writeLong(position);
+				file.writeInt(contents.length);
+				file.writeInt((int) crc.getValue());
+				file.writeInt(MAGIC);
+				file.flush();
+				channel.force(true);
+			} finally{
+				file.close();
+			}
+		}
+
+		// Closes the file without completing it, for a snapshot that failed part way and is to be deleted
+		// Does nothing once closed
+		public void abandon() throws IOException{
+			if (closed){
+				return;
+			}
+			closed = true;
+			channel.close();
+		}
+	}
+
+	/* Reads every user in a snapshot file, in username order
+	*  Segments are mapped into memory and decoded in parallel on the common fork-join pool
+	*  Throws an IOException if the file is not a complete snapshot or fails a checksum */
+	public static List<User> read(Path path) throws IOException{
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){
+			long size = channel.size();
+
+			if (size < 4 + FOOTER_BYTES || readInt(channel, 0) != MAGIC || readInt(channel, size - 4) != MAGIC){
+				throw new IOException(path + " is not a complete snapshot");
+			}
+
+			ByteBuffer footer = read(channel, size - FOOTER_BYTES, FOOTER_BYTES);
+			long indexStart = footer.getLong();
+			int indexLength = footer.getInt();
+			int indexChecksum = footer.getInt();
+
+			if (indexStart < 4 || indexStart + indexLength != size - FOOTER_BYTES){
+				throw new IOException(path + " has a corrupt footer");
+			}
+
+			ByteBuffer indexBytes = read(channel, indexStart, indexLength);
+			CRC32C crc = new CRC32C();
+			crc.update(indexBytes.duplicate());
+
+			if ((int) crc.getValue() != indexChecksum){
+				throw new IOException(path + " has a corrupt index");
+			}
+
+			DataInputStream index = new DataInputStream(new ByteArrayInputStream(indexBytes.array()));
+			String[] algorithms = new String[index.readInt()];
+			for (int i = 0; i < algorithms.length; i++){
+				algorithms[i] = index.readUTF();
+			}
+
+			long users = index.readLong();
+			if (users > Integer.MAX_VALUE - 8){
+				throw new IOException(path + " holds too many users to load");
+			}
+
+			int segmentCount = index.readInt();
+			long[] starts = new long[segmentCount + 1];
+			int[] firstUsers = new int[segmentCount + 1];
+			long total = 0;
+
+			for (int i = 0; i < segmentCount; i++){
+				starts[i] = index.readLong();
+				firstUsers[i] = (int) total;
+				total += index.readInt();
+			}
+			starts[segmentCount] = indexStart;
+			firstUsers[segmentCount] = (int) total;
+
+			if (total != users){
+				throw new IOException(path + " has a corrupt index");
+			}
+
+			User[] result = new User[(int) users];
+
+			try {
+				IntStream.range(0, segmentCount).parallel().forEach(segment -> {
+					try {
+						decodeSegment(channel, starts[segment], starts[segment + 1], algorithms,
+								result, firstUsers[segment], firstUsers[segment + 1]);
+					} catch (IOException e){
+						throw new UncheckedIOException(new IOException(path + " segment " + segment + ": " + e.getMessage(), e));
+					}
+				});
+			} catch (UncheckedIOException e){
+				throw e.getCause();
+			}
+
+			return Arrays.asList(result);
+		}
+	}
+
+	// Decodes the segment from start to end into users, from first up to last
+	private static void decodeSegment(FileChannel channel, long start, long end, String[] algorithms,
+			User[] users, int first, int last) throws IOException{
+		if (end - start < FRAME_BYTES || end - start > Integer.MAX_VALUE){
+			throw new IOException("Corrupt segment bounds");
+		}
+
+		MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+		int length = mapped.getInt();
+		int checksum = mapped.getInt();
+
+		if (length != end - start - FRAME_BYTES){
+			throw new IOException("Segment length does not match the index");
+		}
+
+		CRC32C crc = new CRC32C();
+		crc.update(mapped.duplicate());
+
+		if ((int) crc.getValue() != checksum){
+			throw new IOException("Segment checksum does not match");
+		}
+
+		// Usernames and app names are copied out of the mapping through one buffer per segment
+		byte[] scratch = new byte[64];
+		// Most users share a few app names, which are kept once per segment instead of once per user
+		Map<String, String> appNames = new HashMap<String, String>();
+
+		try {
+			for (int i = first; i < last; i++){
+				int nameLength = readVarInt(mapped);
+				if (nameLength > scratch.length){
+					scratch = new byte[Math.max(nameLength, scratch.length * 2)];
+				}
+				mapped.get(scratch, 0, nameLength);
+				String username = Wtf8.decode(scratch, 0, nameLength);
+				String algorithm = algorithms[readVarInt(mapped)];
+
+				int saltLength = mapped.get() & 0xff;
+				byte[] salt = null;
+				if (saltLength > 0){
+					salt = new byte[saltLength];
+					mapped.get(salt);
+				}
+
+				User usr = new User(username, algorithm, salt);
+				usr.setUserPassword(mapped.getLong());
+
+				int apps = readVarInt(mapped);
+				usr.reserveApps(apps);
+
+				for (; apps > 0; apps--){
+					int appLength = readVarInt(mapped);
+					if (appLength > scratch.length){
+						scratch = new byte[Math.max(appLength, scratch.length * 2)];
+					}
+					mapped.get(scratch, 0, appLength);
+					String appName = Wtf8.decode(scratch, 0, appLength);
+					String shared = appNames.get(appName);
+					if (shared != null){
+						appName = shared;
+					} else if (appNames.size() < MAX_SHARED_APP_NAMES){
+						appNames.put(appName, appName);
+					}
+					String appAlgorithm = algorithms[readVarInt(mapped)];
+					usr.setPassword(appName, mapped.getLong(), appAlgorithm);
+				}
+				users[i] = usr;
+			}
+		} catch (RuntimeException e){
+			// Out of range algorithm numbers, lengths running past the segment or hashes that cannot be stored
+			throw new IOException("Corrupt segment", e);
+		}
+
+		if (mapped.hasRemaining()){
+			throw new IOException("Segment holds more than its users");
+		}
+	}
+
+	private static int readInt(FileChannel channel, long position) throws IOException{
+		return read(channel, position, 4).getInt();
+	}
+
+	// Reads length bytes from position into a new heap buffer
+	private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException{
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+
+		while (buffer.hasRemaining()){
+			if (channel.read(buffer, position + buffer.position()) < 0){
+				throw new IOException("Unexpected end of snapshot");
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	// Writes a string as the length of its WTF-8 encoding followed by those bytes, so that names holding a surrogate
+	// without its pair, which UTF-8 would replace, are read back as they were
+	private static void writeString(DataOutputStream out, String s) throws IOException{
+		byte[] bytes = Wtf8.encode(s);
+		writeVarInt(out, bytes.length);
+		out.write(bytes);
+	}
+
+	// Writes a non-negative int seven bits at a time, low bits first, with the top bit set on all but the last byte
+	private static void writeVarInt(DataOutputStream out, int value) throws IOException{
+		while ((value & ~0x7f) != 0){
+			out.writeByte((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	private static int readVarInt(ByteBuffer in){
+		int value = 0;
+
+		for (int shift = 0; shift < 32; shift += 7){
+			byte b = in.get();
+			value |= (b & 0x7f) << shift;
+
+			if (b >= 0){
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Malformed length");
+	}
+
+	// Byte buffer whose contents can be checksummed without copying them
+	private static class SegmentBuffer extends ByteArrayOutputStream {
+		SegmentBuffer(){
+			super(SEGMENT_BYTES + (SEGMENT_BYTES >> 3));
+		}
+
+		int checksum(CRC32C crc){
+			crc.reset();
+			crc.update(buf, 0, count);
+			return (int) crc.getValue();
+		}
+	}
+}
@@ -0,0 +1,91 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/* Spliterator over an iterator of entries in key order, reporting that order as SORTED by key like the
+*  spliterators of SkipList and ConcurrentSkipList
+*  Splits by handing off a batch of the next entries, each batch larger than the last, as a spliterator of known size
+*  Used by the stores whose iterators read a batch at a time while the store may change, ShardedSkipList and
+*  OffHeapStore, so the spliterator over the whole store has only an estimated size */
+class SortedEntrySpliterator<K extends Comparable<? super K>, V> implements Spliterator<Map.Entry<K,V>> {
+	// Batches grow by this many entries each split, up to MAX_BATCH
+	private static final int BATCH_STEP = 1 << 10;
+	private static final int MAX_BATCH = 1 << 25;
+
+	private final Iterator<Map.Entry<K,V>> entries;
+	// Number of entries left, exact if sized, otherwise an estimate
+	private long size;
+	private final boolean sized;
+	private int batch;
+
+	// Covers the entries of a store that may change while they are read, of which there are about size
+	SortedEntrySpliterator(Iterator<Map.Entry<K,V>> entries, long size){
+		this(entries, size, false);
+	}
+
+	private SortedEntrySpliterator(Iterator<Map.Entry<K,V>> entries, long size, boolean sized){
+		this.entries = entries;
+		this.size = size;
+		this.sized = sized;
+	}
+
+	public boolean tryAdvance(Consumer<? super Map.Entry<K,V>> action){
+		if (action == null){
+			throw new NullPointerException();
+		}
+		if (!entries.hasNext()){
+			return false;
+		}
+
+		action.accept(entries.next());
+		if (size > 0){
+			size--;
+		}
+		return true;
+	}
+
+	public void forEachRemaining(Consumer<? super Map.Entry<K,V>> action){
+		if (action == null){
+			throw new NullPointerException();
+		}
+		while (entries.hasNext()){
+			action.accept(entries.next());
+		}
+		size = 0;
+	}
+
+	// Hands the next batch of entries to a new spliterator of known size
+	public Spliterator<Map.Entry<K,V>> trySplit(){
+		if (!entries.hasNext() || (sized && size < 2)){
+			return null;
+		}
+
+		int n = (int) Math.min(Math.min(batch + BATCH_STEP, MAX_BATCH), sized ? size / 2 : Long.MAX_VALUE);
+		List<Map.Entry<K,V>> prefix = new ArrayList<Map.Entry<K,V>>(n);
+
+		while (prefix.size() < n && entries.hasNext()){
+			prefix.add(entries.next());
+		}
+		batch = n;
+		size = Math.max(0, size - prefix.size());
+		return new SortedEntrySpliterator<K,V>(prefix.iterator(), prefix.size(), true);
+	}
+
+	public long estimateSize(){
+		return size;
+	}
+
+	public int characteristics(){
+		int characteristics = Spliterator.ORDERED | Spliterator.SORTED | Spliterator.DISTINCT | Spliterator.NONNULL;
+		return characteristics | (sized ? Spliterator.SIZED | Spliterator.SUBSIZED : Spliterator.CONCURRENT);
+	}
+
+	// Entries are in the order of their keys
+	public Comparator<? super Map.Entry<K,V>> getComparator(){
+		return Map.Entry.comparingByKey();
+	}
+}
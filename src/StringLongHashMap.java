@@ -0,0 +1,88 @@
+/* Double hashing map from String keys to primitive long values
+*  Works like DoubleHashMap, sharing its probing through DoubleHashTable, but values are held unboxed in a
+*  long array and a missing key is reported with the reserved value NO_VALUE instead of null */
+public class StringLongHashMap extends DoubleHashTable<String> {
+	// Returned by get and remove when the key is not in the map, and cannot itself be stored
+	public static final long NO_VALUE = Long.MIN_VALUE;
+
+	private long[] valueCache;
+
+	// construct a StringLongHashMap with given capacity and given hash parameters
+	public StringLongHashMap(int hashMapSize, int multiplier, int modulus, int secondaryModulus) {
+		super(hashMapSize, multiplier, modulus, secondaryModulus);
+		valueCache = new long[hashMapSize];
+	}
+
+	// Checks if a key is contained within the map
+	public boolean containsKey(String key) {
+		if (key == null) {
+			throw new IllegalArgumentException();
+		}
+		return probe(key, false) != -1;
+	}
+
+	// Stores value with key, returning the value it replaced or NO_VALUE
+	public long put(String key, long value) {
+		if (key == null || value == NO_VALUE) {
+			throw new IllegalArgumentException();
+		}
+
+		int insertPos = insertPosition(key);
+
+		if (isLive(insertPos)) {
+			long oldVal = valueCache[insertPos];
+			valueCache[insertPos] = value;
+			return oldVal;
+		}
+
+		valueCache[insertPos] = value;
+		inserted(insertPos, key);
+		return NO_VALUE;
+	}
+
+	// Returns the value stored with key, or NO_VALUE if there is none
+	public long get(String key) {
+		if (key == null) {
+			return NO_VALUE;
+		}
+
+		int pos = probe(key, false);
+		return pos == -1 ? NO_VALUE : valueCache[pos];
+	}
+
+	// Removes key, returning the value it had or NO_VALUE if it was not stored
+	public long remove(String key) {
+		if (key == null) {
+			return NO_VALUE;
+		}
+
+		int pos = probe(key, false);
+
+		if (pos == -1) {
+			return NO_VALUE;
+		}
+
+		long value = valueCache[pos];
+		removed(pos);
+		return value;
+	}
+
+	@Override
+	Object newValues(int capacity) {
+		long[] oldValues = valueCache;
+		valueCache = new long[capacity];
+		return oldValues;
+	}
+
+	@Override
+	void moveValue(Object oldValues, int from, int to) {
+		valueCache[to] = ((long[]) oldValues)[from];
+	}
+
+	@Override
+	void swapValues(int i, int j) {
+		long value = valueCache[i];
+		valueCache[i] = valueCache[j];
+		valueCache[j] = value;
+	}
+}
@@ -0,0 +1,371 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/* Keeps the users of a SkipListPasswordManager used most recently in memory, within a budget of bytes, and moves
+*  the rest to a ColdUserFile, from which each is read back the next time it is used
+*  Users to evict are chosen by the CLOCK policy. Every user in memory has a bit set each time it is used, and a
+*  hand going round the users in memory clears the bits it passes, evicting the first user whose bit is already
+*  clear, so a user is only evicted if it has not been used for a whole turn of the hand
+*  The bytes of each user are estimated from its apps and salt. Every evicted user is stored as one shared
+*  placeholder, with where it was written kept in an index of primitive arrays, so an evicted user keeps only its
+*  username, its entry in the manager's store and 20 to 50 bytes of index in memory, outside the budget. The users that gain most from
+*  tiering are therefore those with apps
+*  Users join the clock through queues striped by username, which the hand empties as it goes round, so adding
+*  and reading back users never waits for the clock
+*  Attached to a manager with SkipListPasswordManager.attachTieredStorage, and closed once the manager is done with */
+public class TieredStorage implements Closeable {
+	// Estimated bytes of a User without apps or salt, and the bytes of its entry on the clock
+	private static final int USER_BYTES = 56;
+	private static final int CLOCK_ENTRY_BYTES = 16;
+	// Number of stripes of the index of evicted users and of the queues onto the clock, a power of two
+	private static final int STRIPES = 64;
+
+	// Stored in place of every evicted user. It reads as evicted, so an operation that finds it, rather than the
+	// user read back, finds the user again. It has no username, as it stands for them all
+	private static final User COLD = placeholder();
+
+	private final ColdUserFile file;
+	private final long memoryBudget;
+
+	// Location each evicted user was written to, by username, each stripe guarded by its own monitor
+	private final StringLongHashMap[] coldLocations = new StringLongHashMap[STRIPES];
+
+	// Users waiting to join the clock, each stripe guarded by its own monitor
+	private final Admissions[] admissions = new Admissions[STRIPES];
+
+	// Users in memory, with the location each was read back from or NOWHERE, and its estimated bytes
+	// Guarded by this storage's monitor
+	private User[] users = new User[1024];
+	private long[] locations = new long[1024];
+	private int[] sizes = new int[1024];
+	private int count;
+	private int hand;
+	// Estimated bytes of the users on the clock and waiting to join it
+	private final LongAdder memoryBytes = new LongAdder();
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder faults = new LongAdder();
+	private final LongAdder faultNanos = new LongAdder();
+	private final AtomicLong maxFaultNanos = new AtomicLong();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder failedEvictions = new LongAdder();
+	private volatile IOException lastEvictionFailure;
+
+	// Users added since the hand last emptied the stripe, with the location each was read back from and its bytes
+	private static final class Admissions {
+		User[] users = new User[16];
+		long[] locations = new long[16];
+		int[] sizes = new int[16];
+		// Read without the monitor by the hand, to pass over stripes with nothing waiting
+		volatile int count;
+	}
+
+	// User taken off the clock to be evicted, with the location it was read back from
+	static final class Victim {
+		final User usr;
+		final long location;
+
+		Victim(User usr, long location){
+			this.usr = usr;
+			this.location = location;
+		}
+	}
+
+	// Evicts users to the given file, created or emptied, once those in memory take more than memoryBudget bytes
+	public TieredStorage(Path coldFile, long memoryBudget) throws IOException{
+		if (coldFile == null || memoryBudget < 0){
+			throw new IllegalArgumentException();
+		}
+		this.file = new ColdUserFile(coldFile);
+		this.memoryBudget = memoryBudget;
+
+		for (int i = 0; i < STRIPES; i++){
+			coldLocations[i] = new StringLongHashMap(20, 1, 23, 11);
+			admissions[i] = new Admissions();
+		}
+	}
+
+	private static User placeholder(){
+		User cold = new User(null);
+		cold.markEvicted();
+		return cold;
+	}
+
+	// Returns whether usr is the placeholder stored for an evicted user
+	static boolean isCold(User usr){
+		return usr == COLD;
+	}
+
+	private static int stripe(String username){
+		int h = username.hashCode();
+		// Spread the higher bits down so similar usernames land in different stripes
+		h ^= (h >>> 16);
+		return h & (STRIPES - 1);
+	}
+
+	public long memoryBudget(){
+		return memoryBudget;
+	}
+
+	// Returns the estimated bytes of the users in memory
+	public long memoryBytes(){
+		return memoryBytes.sum();
+	}
+
+	public synchronized int usersInMemory(){
+		int waiting = 0;
+
+		for (Admissions stripe : admissions){
+			waiting += stripe.count;
+		}
+		return count + waiting;
+	}
+
+	public ColdUserFile coldFile(){
+		return file;
+	}
+
+	// Returns the number of times a user was found in memory
+	public long hits(){
+		return hits.sum();
+	}
+
+	// Returns the number of times a user was read back from the file
+	public long faults(){
+		return faults.sum();
+	}
+
+	// Returns the share of uses of a user that found it in memory, 1 if no user has been used
+	public double hitRate(){
+		long found = hits.sum();
+		long total = found + faults.sum();
+		return total == 0 ? 1 : found / (double) total;
+	}
+
+	public long evictions(){
+		return evictions.sum();
+	}
+
+	// Returns the number of users that could not be written to the file, and were kept in memory
+	public long failedEvictions(){
+		return failedEvictions.sum();
+	}
+
+	// Returns why the last user that could not be written to the file was kept in memory, or null if none was
+	public IOException lastEvictionFailure(){
+		return lastEvictionFailure;
+	}
+
+	// Returns the mean time taken to read a user back, lock and all, in nanoseconds
+	public long meanFaultNanos(){
+		long count = faults.sum();
+		return count == 0 ? 0 : faultNanos.sum() / count;
+	}
+
+	public long maxFaultNanos(){
+		return maxFaultNanos.get();
+	}
+
+	// Counts a use of a user found in memory, marking it as used for the clock
+	void hit(User usr){
+		usr.markUsed();
+		hits.increment();
+	}
+
+	// Counts a user read back, taking nanos in all
+	void faulted(long nanos){
+		faults.increment();
+		faultNanos.add(nanos);
+		maxFaultNanos.accumulateAndGet(nanos, Math::max);
+	}
+
+	// Returns whether the users in memory take more than the budget
+	boolean overBudget(){
+		return memoryBytes.sum() > memoryBudget;
+	}
+
+	// Puts a user now in memory on the clock, with the location it was read back from or NOWHERE
+	// The user waits in the stripe of its username until the hand next comes round
+	void add(User usr, long location){
+		int size = estimate(usr);
+		Admissions stripe = admissions[stripe(usr.getUsername())];
+		usr.markUsed();
+
+		synchronized (stripe){
+			int waiting = stripe.count;
+
+			if (waiting == stripe.users.length){
+				stripe.users = Arrays.copyOf(stripe.users, waiting * 2);
+				stripe.locations = Arrays.copyOf(stripe.locations, waiting * 2);
+				stripe.sizes = Arrays.copyOf(stripe.sizes, waiting * 2);
+			}
+			stripe.users[waiting] = usr;
+			stripe.locations[waiting] = location;
+			stripe.sizes[waiting] = size;
+			stripe.count = waiting + 1;
+		}
+		memoryBytes.add(size);
+	}
+
+	// Moves the users waiting in every stripe onto the clock. Needs this storage's monitor
+	private void admitWaiting(){
+		for (Admissions stripe : admissions){
+			if (stripe.count == 0){
+				continue;
+			}
+
+			synchronized (stripe){
+				int waiting = stripe.count;
+
+				if (count + waiting > users.length){
+					int capacity = Math.max(count + waiting, users.length * 2);
+					users = Arrays.copyOf(users, capacity);
+					locations = Arrays.copyOf(locations, capacity);
+					sizes = Arrays.copyOf(sizes, capacity);
+				}
+				System.arraycopy(stripe.users, 0, users, count, waiting);
+				System.arraycopy(stripe.locations, 0, locations, count, waiting);
+				System.arraycopy(stripe.sizes, 0, sizes, count, waiting);
+				Arrays.fill(stripe.users, 0, waiting, null);
+				stripe.count = 0;
+				count += waiting;
+			}
+		}
+	}
+
+	/* Takes the next user to evict off the clock, or returns null if no user is in memory
+	*  Users used since the hand last passed have their bit cleared and their bytes estimated again, as they
+	*  may have gained apps. Users deleted since are dropped from the clock as the hand reaches them */
+	synchronized Victim nextVictim(){
+		admitWaiting();
+
+		while (count > 0){
+			if (hand >= count){
+				hand = 0;
+			}
+
+			User usr = users[hand];
+
+			if (usr.isRemoved()){
+				if (locations[hand] != ColdUserFile.NOWHERE){
+					file.free(locations[hand]);
+				}
+				take(hand);
+			} else if (usr.takeUsed()){
+				int size = estimate(usr);
+				memoryBytes.add(size - sizes[hand]);
+				sizes[hand] = size;
+				hand++;
+			} else{
+				Victim victim = new Victim(usr, locations[hand]);
+				take(hand);
+				return victim;
+			}
+		}
+		return null;
+	}
+
+	// Removes the entry at position from the clock, moving the last entry into its place for the hand to reach next
+	private void take(int position){
+		memoryBytes.add(-sizes[position]);
+		count--;
+		users[position] = users[count];
+		locations[position] = locations[count];
+		sizes[position] = sizes[count];
+		users[count] = null;
+	}
+
+	/* Writes a victim to the file and records where, returning the placeholder to store in its place
+	*  Returns null if the victim cannot be written, as the file cannot be written or the user cannot be framed,
+	*  having put it back on the clock, so that it stays in memory and the write that made room goes on
+	*  The caller must hold the user's lock and have checked that the victim is still the user stored */
+	User evict(Victim victim){
+		String username = victim.usr.getUsername();
+		long location;
+
+		try {
+			location = file.write(victim.usr, victim.location);
+		} catch (IOException e){
+			lastEvictionFailure = e;
+			failedEvictions.increment();
+			add(victim.usr, victim.location);
+			return null;
+		}
+
+		StringLongHashMap stripe = coldLocations[stripe(username)];
+		synchronized (stripe){
+			stripe.put(username, location);
+		}
+		evictions.increment();
+		return COLD;
+	}
+
+	// Forgets a victim that is no longer the user stored, as it has been deleted or replaced
+	void discard(Victim victim){
+		if (victim.location != ColdUserFile.NOWHERE){
+			file.free(victim.location);
+		}
+	}
+
+	// Reads an evicted user from the file, leaving it evicted
+	// The caller must hold the user's lock and have found the placeholder as the user stored
+	User read(String username){
+		try {
+			return file.read(username, location(username));
+		} catch (IOException e){
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/* Reads an evicted user back into memory and puts it on the clock, returning the user to store in place of
+	*  the placeholder. The caller must hold the user's lock and have found the placeholder as the user stored */
+	User readBack(String username){
+		User usr = read(username);
+		StringLongHashMap stripe = coldLocations[stripe(username)];
+		long location;
+
+		synchronized (stripe){
+			location = stripe.remove(username);
+		}
+		add(usr, location);
+		return usr;
+	}
+
+	private long location(String username){
+		StringLongHashMap stripe = coldLocations[stripe(username)];
+
+		synchronized (stripe){
+			return stripe.get(username);
+		}
+	}
+
+	// Returns the estimated bytes the user and its apps and salt take in memory, with its entry on the clock
+	// Measured with compressed references, as UserFootprint measures them, and app names taken as shared
+	static int estimate(User usr){
+		int apps = usr.numberApps();
+		int bytes = USER_BYTES + CLOCK_ENTRY_BYTES;
+
+		if (apps > User.INLINE_APPS){
+			bytes += 160 + 24 * apps;
+		} else if (apps > 0){
+			// Inline arrays of names and hashes, grown two, four then eight apps at a time
+			bytes += 32 + 12 * Math.max(2, Integer.highestOneBit(apps - 1) << 1);
+		}
+
+		byte[] salt = usr.getSalt();
+		if (salt != null){
+			bytes += 16 + ((salt.length + 7) & ~7);
+		}
+		return bytes;
+	}
+
+	// Closes and deletes the file, after which no user can be read back from it
+	public void close() throws IOException{
+		file.close();
+	}
+}
@@ -1,47 +1,352 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 public class User {
-	
- // construct a new User with given username and empty password store
- // store should have size 20, and use multiplier=1 modulus=23 secondaryModulus=11
-	DoubleHashMap<String, Long> pwdStore;
+	// Apps are kept inline and scanned linearly until a user has more than this many
+	static final int INLINE_APPS = 8;
+
+ // construct a new User with given username and no app password storage
+ // Storage is added with the first app password, inline arrays are used for up to INLINE_APPS apps
+ // Beyond that apps move to a hashed store of size 20, using multiplier=1 modulus=23 secondaryModulus=11
+	StringLongHashMap pwdStore;
+	// Inline app passwords, null until the first app is added, the first appCount positions are in use
+	private String[] appNames;
+	private long[] appHashes;
+	private int appCount;
+	// Algorithm of each app password, null while they all share the algorithm of the users password
+	// Otherwise a String array alongside appNames, or a DoubleHashMap by app name once apps are in pwdStore
+	private Object appAlgorithms;
 	private String usr;
-	private Long usrPwd;
-	
+	// StringLongHashMap.NO_VALUE until a password is set
+	private long usrPwd = StringLongHashMap.NO_VALUE;
+	// Algorithm of the PasswordHasher that produced the users password hash
+	private String algorithm;
+	// Salt every salted hash of this user is made with, null until one is needed, and never changed once set
+	private volatile byte[] salt;
+	// Set once the user has been deleted from the password manager holding it
+	private volatile boolean removed;
+	// Set once a TieredStorage has moved the user out of memory, and the user it stored in its place
+	private volatile boolean evicted;
+	// Set whenever the user is used while a TieredStorage keeps it in memory, and cleared as its clock passes
+	private boolean used;
+
+ // construct a new User whose hashes are unsalted djb2 hashes
  public User(String username){
+	 this(username, Djb2Hasher.ALGORITHM, null);
+ }
+
+ // construct a new User whose password hash is produced by the hasher with the given algorithm, from the given salt
+ public User(String username, String algorithm, byte[] salt){
+	 if (algorithm == null){
+		 throw new IllegalArgumentException();
+	 }
 	 this.usr = username;
-	 pwdStore = new DoubleHashMap<String, Long>(20, 1, 23, 11);
+	 this.algorithm = algorithm;
+	 this.salt = salt;
  }
- 
+
  // get methods
  public String getUsername(){
 	 return usr;
  }
- 
- // Returns password hash for given app
+
+ // Returns password hash for given app, or null if there is none
  public Long getPassword(String appName){
-	 return pwdStore.get(appName);
+	 long pwdHash = getPasswordHash(appName);
+	 return pwdHash == StringLongHashMap.NO_VALUE ? null : pwdHash;
+ }
+
+ // Returns password hash for given app, or StringLongHashMap.NO_VALUE if there is none
+ public long getPasswordHash(String appName){
+	 if (pwdStore != null){
+		 return pwdStore.get(appName);
+	 }
+
+	 int pos = inlinePosition(appName);
+	 return pos == -1 ? StringLongHashMap.NO_VALUE : appHashes[pos];
+ }
+
+ // Returns the algorithm of the hasher that produced the users password hash
+ public String getAlgorithm(){
+	 return algorithm;
+ }
+
+ // Returns the algorithm of the hasher that produced the password hash for given app, or null if there is none
+ @SuppressWarnings("unchecked")
+ public String getAlgorithm(String appName){
+	 if (pwdStore != null){
+		 if (appName == null || !pwdStore.containsKey(appName)){
+			 return null;
+		 }
+		 return appAlgorithms == null ? algorithm : ((DoubleHashMap<String, String>) appAlgorithms).get(appName);
+	 }
+
+	 int pos = inlinePosition(appName);
+
+	 if (pos == -1){
+		 return null;
+	 }
+	 return appAlgorithms == null ? algorithm : ((String[]) appAlgorithms)[pos];
+ }
+
+ // Returns the name of every app with a password
+ public List<String> getAppNames(){
+	 if (pwdStore != null){
+		 return pwdStore.keys();
+	 }
+
+	 List<String> names = new ArrayList<String>(appCount);
+	 for (int i = 0; i < appCount; i++){
+		 names.add(appNames[i]);
+	 }
+	 return names;
+ }
+
+ // Returns the algorithm of every app password, one per app
+ @SuppressWarnings("unchecked")
+ public List<String> getAppAlgorithms(){
+	 List<String> algorithms = new ArrayList<String>(numberApps());
+
+	 if (appAlgorithms == null){
+		 for (int i = 0; i < numberApps(); i++){
+			 algorithms.add(algorithm);
+		 }
+	 } else if (pwdStore != null){
+		 DoubleHashMap<String, String> byApp = (DoubleHashMap<String, String>) appAlgorithms;
+		 for (String appName : byApp.keys()){
+			 algorithms.add(byApp.get(appName));
+		 }
+	 } else{
+		 for (int i = 0; i < appCount; i++){
+			 algorithms.add(((String[]) appAlgorithms)[i]);
+		 }
+	 }
+	 return algorithms;
+ }
+
+ // Returns true if every app password is known to have been made by the same hasher as the users password
+ // false means they may have been made by others, which getAppAlgorithms then gives
+ boolean appsShareAlgorithm(){
+	 return appAlgorithms == null;
+ }
+
+ // Makes room inline for the given number of apps before any is added, so adding them never grows the arrays
+ void reserveApps(int apps){
+	 if (apps > 0 && apps <= INLINE_APPS && appNames == null && pwdStore == null){
+		 appNames = new String[apps];
+		 appHashes = new long[apps];
+	 }
+ }
+
+ // Records the algorithm of every app password separately, as they stop all sharing the users algorithm
+ private void splitAppAlgorithms(){
+	 if (appAlgorithms != null){
+		 return;
+	 }
+
+	 if (pwdStore != null){
+		 DoubleHashMap<String, String> byApp = new DoubleHashMap<String, String>(20, 1, 23, 11);
+		 for (String appName : pwdStore.keys()){
+			 byApp.put(appName, algorithm);
+		 }
+		 appAlgorithms = byApp;
+	 } else if (appNames != null){
+		 String[] inline = new String[appNames.length];
+		 Arrays.fill(inline, 0, appCount, algorithm);
+		 appAlgorithms = inline;
+	 }
+ }
+
+ // Returns the salt the users passwords are hashed with, or null if none has been needed yet
+ // The array is shared rather than copied, and must not be changed
+ public byte[] getSalt(){
+	 return salt;
+ }
+
+ // Gives the user the given salt if it has none yet
+ // Returns whether salt is now the users salt, false if the user already had another one
+ public boolean adoptSalt(byte[] salt){
+	 if (salt == null || this.salt == salt){
+		 return true;
+	 }
+	 if (this.salt != null){
+		 return false;
+	 }
+	 this.salt = salt;
+	 return true;
+ }
+
+ // Returns a copy of the user with app password storage of its own, so that changing either leaves the other as it is
+ // The copy shares the salt, which never changes once set
+ User copy(){
+	 User copy = new User(usr, algorithm, salt);
+	 copy.usrPwd = usrPwd;
+	 List<String> names = getAppNames();
+	 copy.reserveApps(names.size());
+
+	 for (String appName : names){
+		 copy.setPassword(appName, getPasswordHash(appName), getAlgorithm(appName));
+	 }
+	 return copy;
+ }
+
+ // Returns whether the user has been deleted
+ boolean isRemoved(){
+	 return removed;
+ }
+
+ // Marks the user as deleted, so operations that found it before it was removed treat it as missing
+ void markRemoved(){
+	 removed = true;
+ }
+
+ // Returns whether the user has been moved out of memory, so operations that found it must find it again
+ boolean isEvicted(){
+	 return evicted;
+ }
+
+ void markEvicted(){
+	 evicted = true;
  }
- 
- // Sets the users password hash to the given password hash
- public void setUserPassword(Long newPwd){
+
+ // Marks the user as used, so the clock of a TieredStorage passes over it once more before evicting it
+ void markUsed(){
+	 used = true;
+ }
+
+ // Clears the mark of markUsed, returning whether it was set
+ boolean takeUsed(){
+	 boolean wasUsed = used;
+	 used = false;
+	 return wasUsed;
+ }
+
+ // Sets the users password hash to the given password hash, keeping its algorithm
+ public void setUserPassword(long newPwd){
+	 this.usrPwd = newPwd;
+ }
+
+ // Sets the users password hash to the given password hash, produced by the hasher with the given algorithm
+ public void setUserPassword(long newPwd, String algorithm){
+	 if (algorithm == null){
+		 throw new IllegalArgumentException();
+	 }
+	 if (!algorithm.equals(this.algorithm) && numberApps() > 0){
+		 // App passwords keep the algorithm they were hashed with
+		 splitAppAlgorithms();
+	 }
 	 this.usrPwd = newPwd;
+	 this.algorithm = algorithm;
  }
- 
- // Returns password hash for user
+
+ // Returns password hash for user, or null if none has been set
  public Long getUserPassword(){
+	 return usrPwd == StringLongHashMap.NO_VALUE ? null : usrPwd;
+ }
+
+ // Returns password hash for user, or StringLongHashMap.NO_VALUE if none has been set
+ public long getUserPasswordHash(){
 	 return usrPwd;
  }
- 
+
  // Returns if the given app exists
  public boolean containsApp(String appName){
-	 if (pwdStore.containsKey(appName)){
-		 return true;
+	 if (appName == null){
+		 throw new IllegalArgumentException();
+	 }
+	 if (pwdStore != null){
+		 return pwdStore.containsKey(appName);
+	 }
+	 return inlinePosition(appName) != -1;
+ }
+
+ // Returns the number of apps with a password
+ public int numberApps(){
+	 return pwdStore != null ? pwdStore.size() : appCount;
+ }
+
+ // Sets the password for a given app, produced by the same hasher as the users password
+ public void setPassword(String appName, long passwordHash){
+	 setPassword(appName, passwordHash, algorithm);
+ }
+
+ // Sets the password for a given app, produced by the hasher with the given algorithm
+ @SuppressWarnings("unchecked")
+ public void setPassword(String appName, long passwordHash, String algorithm){
+	 if (appName == null || passwordHash == StringLongHashMap.NO_VALUE || algorithm == null){
+		 throw new IllegalArgumentException();
+	 }
+	 if (!algorithm.equals(this.algorithm)){
+		 splitAppAlgorithms();
+	 }
+	 if (pwdStore != null){
+		 pwdStore.put(appName, passwordHash);
+		 if (appAlgorithms != null){
+			 ((DoubleHashMap<String, String>) appAlgorithms).put(appName, algorithm);
+		 }
+		 return;
+	 }
+
+	 int pos = inlinePosition(appName);
+	 String[] algorithms = (String[]) appAlgorithms;
+
+	 if (pos != -1){
+		 appHashes[pos] = passwordHash;
+		 if (algorithms != null){
+			 algorithms[pos] = algorithm;
+		 }
+	 } else if (appCount < INLINE_APPS){
+		 // Inline arrays start with room for two apps and double as needed
+		 if (appNames == null){
+			 appNames = new String[2];
+			 appHashes = new long[2];
+			 if (!algorithm.equals(this.algorithm)){
+				 algorithms = new String[2];
+			 }
+		 } else if (appCount == appNames.length){
+			 appNames = Arrays.copyOf(appNames, appCount * 2);
+			 appHashes = Arrays.copyOf(appHashes, appCount * 2);
+			 if (algorithms != null){
+				 algorithms = Arrays.copyOf(algorithms, appCount * 2);
+			 }
+		 }
+		 appNames[appCount] = appName;
+		 appHashes[appCount] = passwordHash;
+		 if (algorithms != null){
+			 algorithms[appCount] = algorithm;
+		 }
+		 appAlgorithms = algorithms;
+		 appCount++;
 	 } else{
-		 return false;
+		 // Too many apps to scan, move them all into the hashed store
+		 StringLongHashMap hashes = new StringLongHashMap(20, 1, 23, 11);
+		 DoubleHashMap<String, String> byApp = algorithms == null ? null : new DoubleHashMap<String, String>(20, 1, 23, 11);
+		 for (int i = 0; i < appCount; i++){
+			 hashes.put(appNames[i], appHashes[i]);
+			 if (byApp != null){
+				 byApp.put(appNames[i], algorithms[i]);
+			 }
+		 }
+		 hashes.put(appName, passwordHash);
+		 if (byApp != null){
+			 byApp.put(appName, algorithm);
+		 }
+		 appAlgorithms = byApp;
+		 pwdStore = hashes;
+		 appNames = null;
+		 appHashes = null;
+		 appCount = 0;
 	 }
  }
- 
- // Sets the password for a given app
- public void setPassword(String appName, Long passwordHash){
-	 pwdStore.put(appName, passwordHash);
+
+ // Returns the inline position of the given app, or -1 if it is not stored inline
+ private int inlinePosition(String appName){
+	 for (int i = 0; i < appCount; i++){
+		 if (appNames[i].equals(appName)){
+			 return i;
+		 }
+	 }
+	 return -1;
  }
 }
@@ -0,0 +1,148 @@
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/* Consistent view of the users of a SkipListPasswordManager as they were at the moment it was opened
+*  Writes carry on while the view is open. The first time a user is changed after the view was opened, the
+*  change keeps a copy of the user as it was, or marks it as absent if it was added since, and the view
+*  reads users from the manager unless a copy has been kept. Copies are kept only for users that change,
+*  and are dropped with the view once it is closed, so views should be closed as soon as they are finished with */
+public class UserSnapshot implements Iterable<User>, Closeable {
+	// Number of usernames read from the manager at a time while iterating
+	private static final int BATCH_SIZE = 64;
+
+	// Kept for users added after the view was opened, compared by reference
+	private static final User ABSENT = new User("");
+
+	private final SkipListPasswordManager manager;
+	// Users as they were when the view was opened, for every user changed since, by username
+	private final ConcurrentSkipListMap<String, User> before = new ConcurrentSkipListMap<String, User>();
+	private volatile boolean closed;
+
+	UserSnapshot(SkipListPasswordManager manager){
+		this.manager = manager;
+	}
+
+	// Keeps the user as it is before a change, or null for a user just added, unless a copy is already kept
+	// Called under the user's lock, before the change is made, or just after a new user is added
+	void preserve(String username, User usr){
+		if (!before.containsKey(username)){
+			before.put(username, usr == null ? ABSENT : usr.copy());
+		}
+	}
+
+	// Returns the copy kept of the user, which isAbsent if the user was added since the view was opened,
+	// or null if the user has not changed since, so that the user stored now is as it was
+	User preserved(String username){
+		return before.get(username);
+	}
+
+	// Returns whether a copy kept is the marker of a user added after the view was opened
+	static boolean isAbsent(User usr){
+		return usr == ABSENT;
+	}
+
+	// Returns the number of users that have changed since the view was opened, each of which it keeps a copy of
+	public int preservedCount(){
+		return before.size();
+	}
+
+	// Returns whether the view has been closed
+	public boolean isClosed(){
+		return closed;
+	}
+
+	/* Returns the users in the view in username order, each a copy of its own that changes to the manager leave as it is
+	*  Usernames are read from the manager a batch at a time, and then the copies kept for that range of
+	*  usernames, so a user removed before its batch is read has its copy kept by the time the copies are read */
+	public Iterator<User> iterator(){
+		return new Iterator<User>(){
+			// Users of the current batch, in order, and the last username read from the manager
+			private final List<User> users = new ArrayList<User>();
+			private int position;
+			private String last;
+			private boolean finished;
+
+			public boolean hasNext(){
+				while (position == users.size() && !finished){
+					readBatch();
+				}
+				return position < users.size();
+			}
+
+			public User next(){
+				if (!hasNext()){
+					throw new NoSuchElementException();
+				}
+				return users.get(position++);
+			}
+
+			private void readBatch(){
+				if (closed){
+					throw new IllegalStateException("Snapshot is closed");
+				}
+
+				users.clear();
+				position = 0;
+
+				List<String> usernames = manager.usernamesAfter(last, BATCH_SIZE);
+				List<User> found = manager.usersOf(usernames);
+				String end = usernames.size() == BATCH_SIZE ? usernames.get(usernames.size() - 1) : null;
+
+				// Read after the usernames, see above
+				ConcurrentNavigableMap<String, User> kept = before;
+				if (last != null){
+					kept = kept.tailMap(last, false);
+				}
+				if (end != null){
+					kept = kept.headMap(end, true);
+				}
+				Iterator<Map.Entry<String, User>> keptUsers = kept.entrySet().iterator();
+				Map.Entry<String, User> keptUser = keptUsers.hasNext() ? keptUsers.next() : null;
+
+				// Merge the usernames read with the copies kept, a copy standing for any user it shares a username with
+				for (int i = 0; i < usernames.size() || keptUser != null; ){
+					String username = i < usernames.size() ? usernames.get(i) : null;
+					int comparison = username == null ? 1 : keptUser == null ? -1 : username.compareTo(keptUser.getKey());
+					User usr;
+
+					if (comparison < 0){
+						usr = manager.snapshotUser(username, found.get(i), UserSnapshot.this);
+						i++;
+					} else{
+						usr = keptUser.getValue() == ABSENT ? null : keptUser.getValue().copy();
+						if (comparison == 0){
+							i++;
+						}
+						keptUser = keptUsers.hasNext() ? keptUsers.next() : null;
+					}
+
+					if (usr != null){
+						users.add(usr);
+					}
+				}
+
+				if (end == null){
+					finished = true;
+				} else{
+					last = end;
+				}
+			}
+		};
+	}
+
+	// Stops keeping copies for the view and lets those kept be reclaimed. Iterating afterwards fails
+	public void close(){
+		if (closed){
+			return;
+		}
+		closed = true;
+		manager.closeSnapshot(this);
+		before.clear();
+	}
+}
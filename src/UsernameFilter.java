@@ -0,0 +1,242 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/* Counting Bloom filter of the usernames stored in a SkipListPasswordManager, so that a username never added is
+*  turned away without searching the store, as with credential stuffing against accounts that do not exist
+*  Each username counts itself in a few of the 128 four-bit counters of one block of 64 bytes, chosen by its hash,
+*  so a lookup reads a single cache line however large the filter. A deleted username takes its counts back out,
+*  and stops matching. A counter that reaches its maximum stays there, which can leave a username matching but
+*  never makes a stored one miss
+*  Sized for an expected number of usernames and false positive rate. Past that number the rate rises, as
+*  expectedFalsePositiveRate shows, so size it for the userbase the manager will grow to
+*  Attached to a manager with SkipListPasswordManager.attachUsernameFilter */
+public class UsernameFilter {
+	private static final int COUNTER_BITS = 4;
+	private static final long COUNTER_MAX = (1 << COUNTER_BITS) - 1;
+	// A block is a cache line of longs, each holding 16 counters
+	private static final int BLOCK_LONGS = 8;
+	private static final int BLOCK_COUNTERS = BLOCK_LONGS * Long.SIZE / COUNTER_BITS;
+	// Positions in a block are taken POSITION_BITS bits at a time from 64-bit words derived from the username's hash
+	private static final int POSITION_BITS = 7;
+	private static final int POSITIONS_PER_WORD = Long.SIZE / POSITION_BITS;
+	// Counters a username can count itself in, enough for the lowest rates a block of 128 counters reaches
+	private static final int MAX_PROBES = 16;
+
+	private final AtomicLongArray counters;
+	private final int blocks;
+	private final int probes;
+	private final long expectedUsers;
+	private final double falsePositiveRate;
+
+	private final LongAdder usernames = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+	private final LongAdder falsePositives = new LongAdder();
+
+	// Sizes the filter so that, holding expectedUsers usernames, it matches no more than falsePositiveRate of those it does not hold
+	public UsernameFilter(long expectedUsers, double falsePositiveRate){
+		if (expectedUsers < 1 || !(falsePositiveRate > 0 && falsePositiveRate < 1)){
+			throw new IllegalArgumentException();
+		}
+
+		// Fewest counters per username that reach the rate, then the number of probes with the lowest rate for them
+		// Counters are grown 2% at a time, as the rate of a blocked filter has no closed form
+		double perUser = 1;
+		int best = 0;
+
+		while (true){
+			double perBlock = BLOCK_COUNTERS / perUser;
+			double bestRate = falsePositiveRate;
+
+			for (int k = 1; k <= MAX_PROBES; k++){
+				double rate = rate(perBlock, k);
+
+				if (rate <= bestRate){
+					best = k;
+					bestRate = rate;
+				}
+			}
+			if (best != 0){
+				break;
+			}
+
+			perUser *= 1.02;
+			if (perUser > BLOCK_COUNTERS){
+				throw new IllegalArgumentException("A false positive rate of " + falsePositiveRate + " is out of reach");
+			}
+		}
+
+		long needed = (long) Math.ceil(expectedUsers * perUser / BLOCK_COUNTERS);
+		if (needed > (Integer.MAX_VALUE - BLOCK_LONGS) / BLOCK_LONGS){
+			throw new IllegalArgumentException("Too many users for one filter: " + expectedUsers);
+		}
+
+		this.blocks = (int) Math.max(1, needed);
+		this.counters = new AtomicLongArray(blocks * BLOCK_LONGS);
+		this.probes = best;
+		this.expectedUsers = expectedUsers;
+		this.falsePositiveRate = falsePositiveRate;
+	}
+
+	public long expectedUsers(){
+		return expectedUsers;
+	}
+
+	// Returns the false positive rate the filter was sized for
+	public double falsePositiveRate(){
+		return falsePositiveRate;
+	}
+
+	// Returns the false positive rate expected with the number of usernames the filter now holds
+	public double expectedFalsePositiveRate(){
+		return rate(size() / (double) blocks, probes);
+	}
+
+	// Returns the number of usernames the filter holds
+	public long size(){
+		return usernames.sum();
+	}
+
+	// Returns the bytes taken by the counters
+	public long memoryBytes(){
+		return (long) blocks * BLOCK_LONGS * Long.BYTES;
+	}
+
+	// Returns the number of counters each username counts itself in
+	public int probes(){
+		return probes;
+	}
+
+	// Returns the number of lookups turned away without searching the store
+	public long rejected(){
+		return rejected.sum();
+	}
+
+	// Returns the number of lookups the filter let through for usernames the store did not hold
+	public long falsePositives(){
+		return falsePositives.sum();
+	}
+
+	// Returns the share of lookups for usernames not stored that the filter let through, 0 if there were none
+	public double observedFalsePositiveRate(){
+		long missed = falsePositives.sum();
+		long total = missed + rejected.sum();
+		return total == 0 ? 0 : missed / (double) total;
+	}
+
+	// Returns false if username is certainly not held, counting the lookup as rejected, or true if it may be
+	boolean mightContain(String username){
+		long h = hash(username);
+		int base = block(h);
+		long positions = positions(h, 0);
+
+		for (int i = 0; i < probes; i++, positions >>>= POSITION_BITS){
+			if (i == POSITIONS_PER_WORD){
+				positions = positions(h, 1);
+			}
+			int position = (int) positions & (BLOCK_COUNTERS - 1);
+			long word = counters.get(base + position / 16);
+
+			if ((word >>> shift(position) & COUNTER_MAX) == 0){
+				rejected.increment();
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// Counts a lookup let through for a username the store turned out not to hold
+	void falsePositive(){
+		falsePositives.increment();
+	}
+
+	// Adds username, before it is stored so that no lookup can find it stored but not held
+	void add(String username){
+		change(username, 1);
+		usernames.increment();
+	}
+
+	// Removes username, once it is no longer stored. It must have been added, and not removed since
+	void remove(String username){
+		change(username, -1);
+		usernames.decrement();
+	}
+
+	// Adds change to each counter of username, leaving counters at their maximum where they are
+	private void change(String username, int change){
+		long h = hash(username);
+		int base = block(h);
+		long positions = positions(h, 0);
+
+		for (int i = 0; i < probes; i++, positions >>>= POSITION_BITS){
+			if (i == POSITIONS_PER_WORD){
+				positions = positions(h, 1);
+			}
+			int position = (int) positions & (BLOCK_COUNTERS - 1);
+			int index = base + position / 16;
+			int shift = shift(position);
+
+			while (true){
+				long word = counters.get(index);
+				long count = word >>> shift & COUNTER_MAX;
+
+				// A count of 0 on removal would mean the username was never added, so it is left alone as well
+				if (count == COUNTER_MAX || (change < 0 && count == 0)){
+					break;
+				}
+				if (counters.compareAndSet(index, word, word + ((long) change << shift))){
+					break;
+				}
+			}
+		}
+	}
+
+	// Returns the index of the first long of the block for hash h
+	private int block(long h){
+		return (int) ((h >>> 32) * blocks >>> 32) * BLOCK_LONGS;
+	}
+
+	// Returns the given word of positions in the block for hash h, POSITION_BITS bits for each probe
+	private static long positions(long h, int word){
+		return mix(h + (word + 1) * 0x9E3779B97F4A7C15L);
+	}
+
+	private static int shift(int position){
+		return (position & 15) * COUNTER_BITS;
+	}
+
+	// 64-bit FNV-1a over the chars of username, then mixed so every char reaches every bit
+	static long hash(String username){
+		long h = 0xCBF29CE484222325L;
+
+		for (int i = 0; i < username.length(); i++){
+			h = (h ^ username.charAt(i)) * 0x100000001B3L;
+		}
+		return mix(h);
+	}
+
+	// Finaliser of MurmurHash3
+	private static long mix(long h){
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/* Returns the false positive rate of a filter holding perBlock usernames a block on average, each counted in
+	*  probes counters of its block. The usernames in a block follow a Poisson distribution, and a username not
+	*  held matches if each of its probes finds a counter some username in its block counted itself in */
+	private static double rate(double perBlock, int probes){
+		double rate = 0;
+		double chance = Math.exp(-perBlock);
+		int limit = (int) (perBlock + 12 * Math.sqrt(perBlock)) + 20;
+
+		for (int j = 0; j < limit; j++){
+			double counted = 1 - Math.pow(1 - 1.0 / BLOCK_COUNTERS, (double) probes * j);
+			rate += chance * Math.pow(counted, probes);
+			chance *= perBlock / (j + 1);
+		}
+		return rate;
+	}
+}
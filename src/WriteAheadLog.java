@@ -0,0 +1,547 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/* Append-only log of the changes made to a SkipListPasswordManager, so that its users survive a restart
+*  Records hold the hashes a change stored, never a password, and each is framed by its length and a CRC32C
+*  checksum, so a record torn by a crash part way through writing is found and dropped when the log is replayed
+*  Records collect in memory until a sync is due. One writer then writes and forces everything collected so far
+*  while any others wait for it, so concurrent writers share each fsync rather than queueing for one each
+*  As with any FileChannel, interrupting a thread while it writes to the log closes the log */
+public class WriteAheadLog implements Closeable {
+	// First bytes of every log file
+	private static final int MAGIC = 0x50574c31;
+	// Length and checksum ahead of every record
+	private static final int FRAME_BYTES = 8;
+	// No record is this long, so a longer length can only be a torn or corrupt frame
+	private static final int MAX_RECORD = 1 << 20;
+	// Records are written out, though not forced, once this many bytes are waiting whatever the sync policy
+	private static final int MAX_PENDING = 1 << 20;
+
+	// Record types
+	private static final byte USER = 1;
+	private static final byte DELETE = 2;
+	private static final byte PASSWORD = 3;
+	private static final byte APP_PASSWORD = 4;
+
+	private final FileChannel channel;
+	private final SyncPolicy policy;
+	// Forces the log every policy interval, null unless the policy is an interval
+	private final Thread syncer;
+
+	// Records appended but not yet written to the channel, and the sequence number of the last record appended
+	// Guarded by this log's monitor
+	private Buffer pending = new Buffer();
+	private long appended;
+	private boolean replayed;
+	private boolean closed;
+
+	// Writing and forcing are done holding syncLock, which also guards spare
+	private final Object syncLock = new Object();
+	private Buffer spare = new Buffer();
+	// Sequence number of the last record forced to disk, and the number of times the log has been forced
+	private volatile long synced;
+	private volatile long syncs;
+	// Set once writing or forcing the log fails, after which every change is refused, as records may have been lost
+	private volatile IOException failure;
+
+	// When a change is forced to disk before the change returns
+	public static class SyncPolicy {
+		private final int records;
+		private final long millis;
+
+		private SyncPolicy(int records, long millis){
+			this.records = records;
+			this.millis = millis;
+		}
+
+		// Every change is forced before it returns, concurrent changes sharing one fsync
+		public static SyncPolicy everyWrite(){
+			return new SyncPolicy(1, 0);
+		}
+
+		// The change that completes a batch of the given number of records forces them all before returning
+		// Changes before it return at once, so up to records - 1 changes can be lost in a crash
+		public static SyncPolicy batched(int records){
+			if (records < 1){
+				throw new IllegalArgumentException();
+			}
+			return new SyncPolicy(records, 0);
+		}
+
+		// Changes return at once and are forced every given number of milliseconds by a background thread,
+		// so the changes of up to one interval can be lost in a crash
+		public static SyncPolicy interval(long millis){
+			if (millis < 1){
+				throw new IllegalArgumentException();
+			}
+			return new SyncPolicy(0, millis);
+		}
+
+		public String toString(){
+			return millis != 0 ? "interval " + millis + "ms" : records == 1 ? "every write" : "batched " + records;
+		}
+	}
+
+	// Receives the changes recorded in a log as it is replayed
+	interface Changes {
+		void putUser(User usr);
+
+		void deleteUser(String username);
+
+		// appName is null for the user's own password
+		void setPassword(String username, String appName, String algorithm, byte[] salt, long hash);
+	}
+
+	// Opens the log in the given file, creating it if it does not exist
+	// The log must be replayed, by SkipListPasswordManager.attachLog, before any change can be added to it
+	public WriteAheadLog(Path file, SyncPolicy policy) throws IOException{
+		if (file == null || policy == null){
+			throw new IllegalArgumentException();
+		}
+
+		this.policy = policy;
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+		try {
+			if (channel.size() == 0){
+				ByteBuffer header = ByteBuffer.allocate(4).putInt(MAGIC);
+				header.flip();
+				while (header.hasRemaining()){
+					channel.write(header);
+				}
+				channel.force(true);
+			} else{
+				ByteBuffer header = ByteBuffer.allocate(4);
+				while (header.hasRemaining() && channel.read(header, header.position()) > 0){
+				}
+				if (header.hasRemaining() || header.getInt(0) != MAGIC){
+					throw new IOException(file + " is not a password manager log");
+				}
+			}
+		} catch (IOException e){
+			channel.close();
+			throw e;
+		}
+
+		if (policy.millis != 0){
+			syncer = new Thread(this::syncEveryInterval, "log-syncer-" + file.getFileName());
+			syncer.setDaemon(true);
+		} else{
+			syncer = null;
+		}
+	}
+
+	public SyncPolicy syncPolicy(){
+		return policy;
+	}
+
+	// Returns the number of records appended since the log was opened
+	public synchronized long recordCount(){
+		return appended;
+	}
+
+	// Returns the number of times the log has been forced to disk, fewer than the records when writers share them
+	public long syncCount(){
+		return syncs;
+	}
+
+	/* Applies every intact record in the log to changes in order, then cuts off anything after the last one
+	*  A record that is cut short or fails its checksum, as a crash part way through writing leaves, ends the log
+	*  Returns the number of records applied */
+	synchronized long replay(Changes changes) throws IOException{
+		if (replayed){
+			throw new IllegalStateException("Log has already been replayed");
+		}
+
+		long end = 4;
+		long records = 0;
+		InputStream stream = new BufferedInputStream(Channels.newInputStream(channel.position(end)), 1 << 16);
+		DataInputStream in = new DataInputStream(stream);
+		CRC32C crc = new CRC32C();
+
+		while (true){
+			byte[] body;
+
+			try {
+				int length = in.readInt();
+				int checksum = in.readInt();
+
+				if (length < 1 || length > MAX_RECORD){
+					break;
+				}
+				body = new byte[length];
+				in.readFully(body);
+				crc.reset();
+				crc.update(body);
+
+				if ((int) crc.getValue() != checksum){
+					break;
+				}
+			} catch (EOFException e){
+				break;
+			}
+
+			apply(body, changes);
+			end += FRAME_BYTES + body.length;
+			records++;
+		}
+
+		// Drop a torn record so that new records follow straight on from the last intact one
+		channel.truncate(end);
+		channel.position(end);
+		replayed = true;
+
+		if (syncer != null){
+			syncer.start();
+		}
+		return records;
+	}
+
+	private static void apply(byte[] body, Changes changes) throws IOException{
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+		byte type = in.readByte();
+
+		if (type == USER){
+			changes.putUser(readUser(in));
+		} else if (type == DELETE){
+			changes.deleteUser(in.readUTF());
+		} else if (type == PASSWORD || type == APP_PASSWORD){
+			String username = in.readUTF();
+			String appName = type == APP_PASSWORD ? in.readUTF() : null;
+			String algorithm = in.readUTF();
+			byte[] salt = readSalt(in);
+			changes.setPassword(username, appName, algorithm, salt, in.readLong());
+		} else{
+			throw new IOException("Unknown log record type " + type);
+		}
+	}
+
+	/* Records are made before the change they record, and appended once it is made, so that a change the log
+	*  cannot take, such as one with a name too long for a record or one made after the log is closed, throws
+	*  before the manager's users are changed */
+
+	// Returns the record of a user being added with all of its hashes
+	Record userRecord(User usr){
+		Record record = new Record(USER);
+
+		try {
+			writeUser(record.out, usr);
+		} catch (IOException e){
+			throw new UncheckedIOException(e);
+		}
+		return record;
+	}
+
+	// Returns the record of a user being deleted
+	Record deleteRecord(String username){
+		Record record = new Record(DELETE);
+
+		try {
+			record.out.writeUTF(username);
+		} catch (IOException e){
+			throw new UncheckedIOException(e);
+		}
+		return record;
+	}
+
+	// Returns the record of the user's password, or appName's if it is not null, being set to the given hash
+	// salt is the user's salt, which the change may give the user
+	Record passwordRecord(String username, String appName, String algorithm, byte[] salt, long hash){
+		Record record = new Record(appName == null ? PASSWORD : APP_PASSWORD);
+
+		try {
+			record.out.writeUTF(username);
+			if (appName != null){
+				record.out.writeUTF(appName);
+			}
+			record.out.writeUTF(algorithm);
+			writeSalt(record.out, salt);
+			record.out.writeLong(hash);
+		} catch (IOException e){
+			throw new UncheckedIOException(e);
+		}
+		return record;
+	}
+
+	// Writes a user with all of its hashes
+	static void writeUser(DataOutputStream out, User usr) throws IOException{
+		out.writeUTF(usr.getUsername());
+		out.writeUTF(usr.getAlgorithm());
+		writeSalt(out, usr.getSalt());
+		out.writeLong(usr.getUserPasswordHash());
+
+		List<String> appNames = usr.getAppNames();
+		out.writeInt(appNames.size());
+
+		for (String appName : appNames){
+			out.writeUTF(appName);
+			out.writeUTF(usr.getAlgorithm(appName));
+			out.writeLong(usr.getPasswordHash(appName));
+		}
+	}
+
+	// Reads a user written by writeUser
+	static User readUser(DataInputStream in) throws IOException{
+		User usr = new User(in.readUTF(), in.readUTF(), readSalt(in));
+		usr.setUserPassword(in.readLong());
+
+		for (int apps = in.readInt(); apps > 0; apps--){
+			String appName = in.readUTF();
+			String algorithm = in.readUTF();
+			usr.setPassword(appName, in.readLong(), algorithm);
+		}
+		return usr;
+	}
+
+	private static void writeSalt(DataOutputStream out, byte[] salt) throws IOException{
+		if (salt == null){
+			out.writeByte(0);
+		} else{
+			out.writeByte(salt.length);
+			out.write(salt);
+		}
+	}
+
+	private static byte[] readSalt(DataInputStream in) throws IOException{
+		int length = in.readUnsignedByte();
+
+		if (length == 0){
+			return null;
+		}
+
+		byte[] salt = new byte[length];
+		in.readFully(salt);
+		return salt;
+	}
+
+	// Frames a record into the pending records, returning its sequence number for commit
+	synchronized long append(Record record){
+		checkWritable();
+
+		byte[] body = record.bytes.toByteArray();
+		CRC32C crc = new CRC32C();
+		crc.update(body);
+		pending.writeInt(body.length);
+		pending.writeInt((int) crc.getValue());
+		pending.write(body, 0, body.length);
+		return ++appended;
+	}
+
+	// Returns once the record with the given sequence number is as durable as the sync policy promises
+	// Must not be called holding a user's lock, as it may wait for the disk
+	void commit(long sequence){
+		checkFailure();
+
+		if (sequence - synced >= policy.records && policy.records != 0){
+			sync(sequence);
+		} else if (pendingBytes() >= MAX_PENDING){
+			synchronized (syncLock){
+				try {
+					checkFailure();
+					writePending();
+				} catch (IOException e){
+					throw new UncheckedIOException(e);
+				}
+			}
+		}
+	}
+
+	// Forces every record appended so far to disk
+	public void sync(){
+		long sequence;
+
+		synchronized (this){
+			sequence = appended;
+		}
+		sync(sequence);
+	}
+
+	// Forces records up to at least the given sequence number to disk, unless another writer already has
+	private void sync(long sequence){
+		synchronized (syncLock){
+			checkFailure();
+			if (synced >= sequence){
+				return;
+			}
+
+			try {
+				long written = writePending();
+				channel.force(false);
+				synced = written;
+				syncs++;
+			} catch (IOException e){
+				// Whether a failed force left anything on disk is unknown, so nothing more can be promised
+				fail(e);
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/* Writes every pending record to the channel, returning the sequence number of the last one. Needs syncLock
+	*  If a write fails the file is cut back to the end of the last record written before, so that no torn record
+	*  hides the records after it from replay, and the log fails, as the records that were pending are lost */
+	private long writePending() throws IOException{
+		Buffer full;
+		long written;
+
+		synchronized (this){
+			full = pending;
+			pending = spare;
+			written = appended;
+		}
+
+		long start = channel.position();
+		ByteBuffer contents = full.contents();
+
+		try {
+			while (contents.hasRemaining()){
+				channel.write(contents);
+			}
+		} catch (IOException e){
+			try {
+				channel.truncate(start);
+				channel.position(start);
+			} catch (IOException truncateFailed){
+				e.addSuppressed(truncateFailed);
+			}
+			fail(e);
+			throw e;
+		} finally{
+			full.reset();
+			spare = full;
+		}
+		return written;
+	}
+
+	// Fails the log with the first error it meets, which every later change throws
+	private void fail(IOException e){
+		synchronized (this){
+			if (failure == null){
+				failure = e;
+			}
+		}
+	}
+
+	// Throws unless changes can be added to the log
+	private synchronized void checkWritable(){
+		if (!replayed){
+			throw new IllegalStateException("Log must be replayed before changes are added to it");
+		}
+		if (closed){
+			throw new IllegalStateException("Log is closed");
+		}
+		checkFailure();
+	}
+
+	private void checkFailure(){
+		IOException failed = failure;
+
+		if (failed != null){
+			throw new UncheckedIOException("Log could not be written to disk", failed);
+		}
+	}
+
+	private synchronized int pendingBytes(){
+		return pending.size();
+	}
+
+	// Syncs every interval until the log is closed. close wakes it with notifyAll rather than an interrupt,
+	// since interrupting a thread in the middle of a write closes the channel
+	private void syncEveryInterval(){
+		while (true){
+			synchronized (this){
+				if (!closed){
+					try {
+						wait(policy.millis);
+					} catch (InterruptedException e){
+						return;
+					}
+				}
+				if (closed){
+					return;
+				}
+			}
+
+			try {
+				sync();
+			} catch (UncheckedIOException e){
+				// sync has failed the log, so the next change throws
+				return;
+			}
+		}
+	}
+
+	// Forces every record to disk and closes the file
+	public void close() throws IOException{
+		synchronized (this){
+			if (closed){
+				return;
+			}
+			closed = true;
+			notifyAll();
+		}
+
+		if (syncer != null){
+			try {
+				syncer.join();
+			} catch (InterruptedException e){
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		try {
+			if (replayed){
+				sync();
+			}
+		} catch (UncheckedIOException e){
+			throw e.getCause();
+		} finally{
+			channel.close();
+		}
+	}
+
+	// A record being written, starting with its type
+	// Made only while changes can be added to the log, which they still must be when it is appended
+	class Record {
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+		private final DataOutputStream out = new DataOutputStream(bytes);
+
+		private Record(byte type){
+			checkWritable();
+			bytes.write(type);
+		}
+	}
+
+	// Byte buffer whose contents can be written out without copying them
+	private static class Buffer extends ByteArrayOutputStream {
+		Buffer(){
+			super(1 << 12);
+		}
+
+		void writeInt(int value){
+			write(value >>> 24);
+			write(value >>> 16);
+			write(value >>> 8);
+			write(value);
+		}
+
+		ByteBuffer contents(){
+			return ByteBuffer.wrap(buf, 0, count);
+		}
+	}
+}
@@ -0,0 +1,91 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/* UTF-8 in which a surrogate without its pair, which a String may hold but UTF-8 cannot, is encoded on its own in
+*  three bytes as WTF-8 does, so every name a String holds survives being written out and read back
+*  Strings without such a surrogate are encoded exactly as UTF-8, through the JDK's own encoder
+*  Used for the names OffHeapStore and Snapshot write */
+final class Wtf8 {
+	private Wtf8(){
+	}
+
+	// Returns the encoding of s
+	static byte[] encode(String s){
+		boolean unpaired = false;
+
+		for (int i = 0; i < s.length() && !unpaired; i++){
+			char c = s.charAt(i);
+
+			if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))){
+				i++;
+			} else if (Character.isSurrogate(c)){
+				unpaired = true;
+			}
+		}
+		if (!unpaired){
+			return s.getBytes(StandardCharsets.UTF_8);
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(s.length() * 3);
+
+		for (int i = 0; i < s.length(); i++){
+			char c = s.charAt(i);
+
+			if (c < 0x80){
+				bytes.write(c);
+			} else if (c < 0x800){
+				bytes.write(0xc0 | (c >> 6));
+				bytes.write(0x80 | (c & 0x3f));
+			} else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))){
+				int codePoint = Character.toCodePoint(c, s.charAt(++i));
+				bytes.write(0xf0 | (codePoint >> 18));
+				bytes.write(0x80 | ((codePoint >> 12) & 0x3f));
+				bytes.write(0x80 | ((codePoint >> 6) & 0x3f));
+				bytes.write(0x80 | (codePoint & 0x3f));
+			} else{
+				bytes.write(0xe0 | (c >> 12));
+				bytes.write(0x80 | ((c >> 6) & 0x3f));
+				bytes.write(0x80 | (c & 0x3f));
+			}
+		}
+		return bytes.toByteArray();
+	}
+
+	// Decodes length bytes from offset written by encode
+	// Bytes that are not well formed decode as UTF-8 does, unless they hold an encoded surrogate
+	static String decode(byte[] bytes, int offset, int length){
+		int end = offset + length;
+
+		// An unpaired surrogate is the only three byte sequence from ED A0 up
+		boolean unpaired = false;
+		for (int i = offset; i + 1 < end && !unpaired; i++){
+			unpaired = (bytes[i] & 0xff) == 0xed && (bytes[i + 1] & 0xff) >= 0xa0;
+		}
+		if (!unpaired){
+			return new String(bytes, offset, length, StandardCharsets.UTF_8);
+		}
+
+		StringBuilder s = new StringBuilder(length);
+
+		for (int i = offset; i < end; ){
+			int b = bytes[i] & 0xff;
+			int width = b < 0x80 ? 1 : b < 0xe0 ? 2 : b < 0xf0 ? 3 : 4;
+
+			if (i + width > end){
+				throw new IllegalArgumentException("Truncated WTF-8");
+			}
+			if (width == 1){
+				s.append((char) b);
+			} else if (width == 2){
+				s.append((char) (((b & 0x1f) << 6) | (bytes[i + 1] & 0x3f)));
+			} else if (width == 3){
+				s.append((char) (((b & 0x0f) << 12) | ((bytes[i + 1] & 0x3f) << 6) | (bytes[i + 2] & 0x3f)));
+			} else{
+				s.appendCodePoint(((b & 0x07) << 18) | ((bytes[i + 1] & 0x3f) << 12)
+						| ((bytes[i + 2] & 0x3f) << 6) | (bytes[i + 3] & 0x3f));
+			}
+			i += width;
+		}
+		return s.toString();
+	}
+}